@@ -0,0 +1,64 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Synthetic trees of directories of {@link #FILES_PER_DIRECTORY} empty files named "file-N.txt".
+ *
+ * Trees are generated in java.io.tmpdir once and are kept for the next runs, since generating
+ * a tree of a million files takes much longer than a benchmark.
+ * Delete purefm-benchmark-* directories to regenerate them.
+ */
+public final class BenchmarkTrees {
+
+    public static final int FILES_PER_DIRECTORY = 1000;
+
+    private static final String COMPLETE_MARKER = ".complete";
+
+    private BenchmarkTrees() {}
+
+    /**
+     * Returns the tree of the given number of files, generating it if it was not yet generated
+     *
+     * @param entries number of files
+     * @return root of the tree
+     * @throws IOException if failed to create a file
+     */
+    public static File getTree(final int entries) throws IOException {
+        final File root = new File(System.getProperty("java.io.tmpdir"),
+                "purefm-benchmark-" + entries);
+        final File marker = new File(root.getParentFile(), root.getName() + COMPLETE_MARKER);
+        if (marker.exists()) {
+            return root;
+        }
+        for (int i = 0; i < entries; i++) {
+            final File directory = new File(root, "dir-" + i / FILES_PER_DIRECTORY);
+            if (i % FILES_PER_DIRECTORY == 0 && !directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Failed to create " + directory);
+            }
+            final File file = new File(directory, "file-" + i + ".txt");
+            if (!file.exists() && !file.createNewFile()) {
+                throw new IOException("Failed to create " + file);
+            }
+        }
+        if (!marker.createNewFile()) {
+            throw new IOException("Failed to create " + marker);
+        }
+        return root;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.benchmark;
+
+import com.docd.purefm.file.Posix;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures listing a tree of {@link #entries} files and reading the attributes shown for each
+ * file, as read by JavaFile and by PosixFile, which depend on the Android framework and are not
+ * compiled here.
+ *
+ * JavaFile reads each attribute with java.io.File. PosixFile reads them with a single
+ * {@link Posix#lstat(String)}, which is measured with {@link NioPosix} since libcore is not
+ * available on the desktop JVM.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FileAttributesBenchmark {
+
+    @Param({"10000", "100000"})
+    public int entries;
+
+    private File[] mDirectories;
+
+    private Posix mPosix;
+
+    @Setup
+    public void setUp() throws IOException {
+        final File root = BenchmarkTrees.getTree(entries);
+        mDirectories = root.listFiles();
+        if (mDirectories == null) {
+            throw new IOException("Failed to list " + root);
+        }
+        mPosix = new NioPosix();
+    }
+
+    /**
+     * Attributes read by JavaFile: type, size, modification time, access and symlink status
+     *
+     * @return number of files
+     */
+    @Benchmark
+    public int javaFile() throws IOException {
+        int count = 0;
+        for (final File directory : mDirectories) {
+            final File[] files = directory.listFiles();
+            if (files == null) {
+                throw new IOException("Failed to list " + directory);
+            }
+            for (final File file : files) {
+                if (file.exists() && !file.isDirectory() && file.length() == 0L &&
+                        file.lastModified() != 0L && file.canRead() && file.canWrite() &&
+                        !file.canExecute() && !FileUtils.isSymlink(file)) {
+                    count++;
+                }
+            }
+        }
+        return expect(count);
+    }
+
+    /**
+     * Attributes read by PosixFile: the same attributes from a single lstat
+     *
+     * @return number of files
+     */
+    @Benchmark
+    public int posixFile() throws IOException {
+        int count = 0;
+        for (final File directory : mDirectories) {
+            final String[] names = directory.list();
+            if (names == null) {
+                throw new IOException("Failed to list " + directory);
+            }
+            final String parent = directory.getAbsolutePath() + File.separatorChar;
+            for (final String name : names) {
+                final Posix.Stat stat = mPosix.lstat(parent + name);
+                if (stat != null && !stat.isSymlink() && !stat.isDirectory() &&
+                        stat.size == 0L && stat.lastModified != 0L && (stat.mode & 0600) == 0600 &&
+                        (stat.mode & 0100) == 0) {
+                    count++;
+                }
+            }
+        }
+        return expect(count);
+    }
+
+    private int expect(final int count) {
+        if (count != entries) {
+            throw new IllegalStateException("Expected " + entries + " files, got " + count);
+        }
+        return count;
+    }
+}
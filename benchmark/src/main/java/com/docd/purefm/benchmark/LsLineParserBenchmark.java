@@ -0,0 +1,177 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.benchmark;
+
+import com.docd.purefm.file.LsLineParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link LsLineParser} throughput over a listing of {@link #LINES} lines
+ * of busybox ls -lnpe output.
+ *
+ * The fixture is generated with a fixed seed, so the results of different runs are comparable.
+ * It contains regular files, directories, symlinks and device files, with modification dates
+ * spread over several years.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class LsLineParserBenchmark {
+
+    static final int LINES = 100000;
+
+    private static final String[] DAYS = {"Sun", "Mon", "Tue", "Wed", "Thu", "Fri", "Sat"};
+
+    private static final String[] MONTHS = {"Jan", "Feb", "Mar", "Apr", "May", "Jun",
+            "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+
+    private String[] mLines;
+
+    @Setup
+    public void setUp() {
+        mLines = generateListing(LINES, new Random(42));
+        final LsLineParser parser = new LsLineParser();
+        for (final String line : mLines) {
+            if (!parser.parse(line)) {
+                throw new IllegalStateException("Fixture line was not parsed: " + line);
+            }
+        }
+    }
+
+    /**
+     * Parses the whole listing with a single parser, as done by directory listing
+     */
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void parseListing(final Blackhole blackhole) {
+        final LsLineParser parser = new LsLineParser();
+        for (final String line : mLines) {
+            blackhole.consume(parser.parse(line));
+            blackhole.consume(parser.getLastModified());
+            blackhole.consume(parser.getName());
+        }
+    }
+
+    /**
+     * Parses every line with a new parser, as done for single files and search results
+     */
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void parseLinesWithNewParser(final Blackhole blackhole) {
+        for (final String line : mLines) {
+            final LsLineParser parser = new LsLineParser();
+            blackhole.consume(parser.parse(line));
+            blackhole.consume(parser.getLastModified());
+            blackhole.consume(parser.getName());
+        }
+    }
+
+    static String[] generateListing(final int count, final Random random) {
+        final String[] lines = new String[count];
+        final StringBuilder line = new StringBuilder(128);
+        for (int i = 0; i < count; i++) {
+            line.setLength(0);
+            final int type = random.nextInt(10);
+            final boolean directory = type < 2;
+            final boolean symlink = type == 2;
+            final boolean device = type == 3;
+            if (directory) {
+                line.append("drwxrwx--x");
+            } else if (symlink) {
+                line.append("lrwxrwxrwx");
+            } else if (device) {
+                line.append("crw-rw-rw-");
+            } else {
+                line.append(random.nextBoolean() ? "-rw-r--r--" : "-rwsr-x---");
+            }
+            appendPadded(line, Integer.toString(1 + random.nextInt(4)), 5);
+            line.append(' ');
+            appendPadded(line, Integer.toString(random.nextInt(10100)), -9);
+            appendPadded(line, Integer.toString(random.nextInt(10100)), -9);
+            if (device) {
+                appendPadded(line, random.nextInt(256) + ", " + random.nextInt(256), 12);
+            } else {
+                appendPadded(line, Long.toString((long) (random.nextDouble() * 1e10)), 12);
+            }
+            line.append(' ');
+            line.append(DAYS[random.nextInt(DAYS.length)]);
+            line.append(' ');
+            line.append(MONTHS[random.nextInt(MONTHS.length)]);
+            line.append(' ');
+            appendPadded(line, Integer.toString(1 + random.nextInt(28)), 2);
+            line.append(' ');
+            appendTwoDigits(line, random.nextInt(24));
+            line.append(':');
+            appendTwoDigits(line, random.nextInt(60));
+            line.append(':');
+            appendTwoDigits(line, random.nextInt(60));
+            line.append(' ');
+            line.append(2008 + random.nextInt(7));
+            line.append(' ');
+            line.append("file name ").append(i);
+            if (directory) {
+                line.append('/');
+            } else if (symlink) {
+                line.append(" -> /system/bin/target").append(i);
+                if (random.nextBoolean()) {
+                    line.append('/');
+                }
+            } else {
+                line.append(".txt");
+            }
+            lines[i] = line.toString();
+        }
+        return lines;
+    }
+
+    private static void appendPadded(final StringBuilder target, final String value,
+                                     final int width) {
+        final int padding = Math.abs(width) - value.length();
+        if (width < 0) {
+            target.append(value);
+        }
+        for (int i = 0; i < padding; i++) {
+            target.append(' ');
+        }
+        if (width > 0) {
+            target.append(value);
+        }
+    }
+
+    private static void appendTwoDigits(final StringBuilder target, final int value) {
+        if (value < 10) {
+            target.append('0');
+        }
+        target.append(value);
+    }
+}
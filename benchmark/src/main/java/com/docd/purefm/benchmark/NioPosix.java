@@ -0,0 +1,69 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.benchmark;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.docd.purefm.file.Posix;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+
+/**
+ * {@link Posix} for the desktop JVM, where libcore is not available.
+ * Reads the "unix" attribute view, which is a single lstat or stat on Linux,
+ * as the libcore calls are on Android.
+ */
+public final class NioPosix extends Posix {
+
+    private static final String ATTRIBUTES = "unix:mode,size,lastModifiedTime";
+
+    private static final LinkOption[] NO_FOLLOW_LINKS = {LinkOption.NOFOLLOW_LINKS};
+    private static final LinkOption[] FOLLOW_LINKS = {};
+
+    @Nullable
+    @Override
+    public Stat lstat(@NonNull final String path) {
+        return stat(Paths.get(path), NO_FOLLOW_LINKS);
+    }
+
+    @Nullable
+    @Override
+    public Stat stat(@NonNull final String path) {
+        return stat(Paths.get(path), FOLLOW_LINKS);
+    }
+
+    @Override
+    public boolean chmod(@NonNull final String path, final int mode) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Nullable
+    private static Stat stat(@NonNull final Path path, @NonNull final LinkOption[] options) {
+        try {
+            final Map<String, Object> attributes = Files.readAttributes(path, ATTRIBUTES, options);
+            return new Stat((Integer) attributes.get("mode"), (Long) attributes.get("size"),
+                    ((FileTime) attributes.get("lastModifiedTime")).toMillis());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.commandline;
+
+import com.docd.purefm.benchmark.BenchmarkTrees;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures listing, search and size commands executed by {@link ShellPool} in a local sh,
+ * over a synthetic tree of {@link #entries} files.
+ *
+ * The shell stack is the one of the application, from {@link ShellProcess} to the
+ * {@link Command} listeners. The command lines are built by {@link CommandLineBuilder}, the same
+ * as for {@link CommandStatContents}, {@link CommandFind} and {@link CommandDu}.
+ *
+ * The applets are run as busybox applets if PUREFM_BUSYBOX environment variable is set to
+ * the path of busybox, otherwise as the utilities found in PATH, like coreutils and findutils.
+ *
+ * Trees are generated by {@link BenchmarkTrees}.
+ *
+ * The benchmarks are in this package since the shell pool is not accessible from outside.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CommandLineBenchmark {
+
+    private static final String ENV_BUSYBOX = "PUREFM_BUSYBOX";
+
+    /**
+     * Matches every tenth file, since file names are "file-N.txt"
+     */
+    private static final String SEARCH_PATTERN = "7.";
+
+    /**
+     * Number of shells in the pool, same as default settings
+     */
+    private static final int SHELL_COUNT = 2;
+
+    @Param({"10000", "100000", "1000000"})
+    public int entries;
+
+    /**
+     * Path of busybox, or null to run the utilities found in PATH
+     */
+    private String mBusybox;
+
+    private File mRoot;
+
+    private File[] mDirectories;
+
+    private ShellPool mShellPool;
+
+    @Setup
+    public void setUp() throws IOException {
+        final String busybox = System.getenv(ENV_BUSYBOX);
+        if (busybox != null && !busybox.isEmpty()) {
+            if (!new File(busybox).canExecute()) {
+                throw new IllegalStateException(ENV_BUSYBOX + " is not executable: " + busybox);
+            }
+            mBusybox = busybox;
+        } else {
+            mBusybox = null;
+        }
+        mRoot = BenchmarkTrees.getTree(entries);
+        mDirectories = mRoot.listFiles();
+        if (mDirectories == null) {
+            throw new IOException("Failed to list " + mRoot);
+        }
+
+        final ShellProcess shell = ShellProcess.open(false);
+        if (shell == null) {
+            throw new IllegalStateException("Failed to open sh");
+        }
+        mShellPool = new ShellPool(shell, SHELL_COUNT);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mShellPool.close();
+    }
+
+    /**
+     * Lists every directory of the tree with a command per directory, as done by browsing
+     *
+     * @return number of listed entries
+     */
+    @Benchmark
+    public int listContents() {
+        int count = 0;
+        for (final File directory : mDirectories) {
+            final List<String> output = execute(new ListCommand(mBusybox, directory));
+            for (final String line : output) {
+                if (line.indexOf('/') != -1) {
+                    count++;
+                }
+            }
+        }
+        return expect(count, entries);
+    }
+
+    /**
+     * Searches the whole tree, as done by search
+     *
+     * @return number of found files
+     */
+    @Benchmark
+    public int find() {
+        final List<String> output = execute(new FindCommand(mBusybox, mRoot, SEARCH_PATTERN));
+        return expect(output.size(), entries / 10);
+    }
+
+    /**
+     * Computes size of the whole tree, as done for directory properties
+     *
+     * @return size in kilobytes
+     */
+    @Benchmark
+    public long du() {
+        final List<String> output = execute(new DuCommand(mBusybox, mRoot));
+        if (output.isEmpty()) {
+            throw new IllegalStateException("du printed nothing");
+        }
+        final String line = output.get(0);
+        int end = 0;
+        while (end < line.length() && Character.isDigit(line.charAt(end))) {
+            end++;
+        }
+        return Long.parseLong(line.substring(0, end));
+    }
+
+    private static int expect(final int actual, final int expected) {
+        if (actual != expected) {
+            throw new IllegalStateException("Expected " + expected + " results, got " + actual);
+        }
+        return actual;
+    }
+
+    /**
+     * Executes the command in the pool and waits for it to complete
+     *
+     * @param command Command to execute
+     * @return output of the command
+     * @throws IllegalStateException if the command failed
+     */
+    private List<String> execute(final Command command) {
+        final List<String> output = new ArrayList<>();
+        final int[] exitCode = {-1};
+        final boolean[] finished = {false};
+        command.setCommandListener(new Command.CommandListener() {
+            @Override
+            public void commandOutput(int id, String line) {
+                output.add(line);
+            }
+
+            @Override
+            public void commandTerminated(int id, String reason) {
+                synchronized (finished) {
+                    finished[0] = true;
+                    finished.notify();
+                }
+            }
+
+            @Override
+            public void commandCompleted(int id, int code) {
+                synchronized (finished) {
+                    exitCode[0] = code;
+                    finished[0] = true;
+                    finished.notify();
+                }
+            }
+        });
+        if (!mShellPool.execute(command)) {
+            throw new IllegalStateException("Shell pool is closed");
+        }
+        synchronized (finished) {
+            while (!finished[0]) {
+                try {
+                    finished.wait();
+                } catch (InterruptedException e) {
+                    command.cancel();
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted", e);
+                }
+            }
+        }
+        if (exitCode[0] != 0) {
+            throw new IllegalStateException("Command failed with exit code " + exitCode[0] +
+                    ": " + command.getCommand() + "\n" + output);
+        }
+        return output;
+    }
+
+    /**
+     * {@link CommandStatContents} without hidden files
+     */
+    private static final class ListCommand extends Command {
+
+        ListCommand(final String busybox, final File directory) {
+            super(CommandLineBuilder.statContents(busybox, directory.getAbsolutePath(), false));
+        }
+    }
+
+    /**
+     * {@link CommandFind} with stat output
+     */
+    private static final class FindCommand extends Command {
+
+        FindCommand(final String busybox, final File directory, final String what) {
+            super(CommandLineBuilder.find(busybox, directory.getAbsolutePath(),
+                    new String[] {what}, true, true));
+        }
+
+        @Override
+        public Lane getLane() {
+            return Lane.BACKGROUND;
+        }
+    }
+
+    /**
+     * {@link CommandDu}
+     */
+    private static final class DuCommand extends Command {
+
+        DuCommand(final String busybox, final File file) {
+            super(CommandLineBuilder.du(busybox, file.getAbsolutePath()));
+        }
+
+        @Override
+        public Lane getLane() {
+            return Lane.BACKGROUND;
+        }
+    }
+}
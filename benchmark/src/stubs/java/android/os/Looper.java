@@ -0,0 +1,31 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.os;
+
+/**
+ * Desktop replacement of the Android Looper. There are no loopers on desktop
+ */
+public final class Looper {
+
+    private Looper() {}
+
+    public static Looper myLooper() {
+        return null;
+    }
+
+    public static Looper getMainLooper() {
+        return null;
+    }
+}
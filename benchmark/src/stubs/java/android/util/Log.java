@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.util;
+
+/**
+ * Desktop replacement of the Android Log, prints to stderr.
+ * Only the methods used by the classes under benchmark are implemented
+ */
+public final class Log {
+
+    private Log() {}
+
+    public static int d(final String tag, final String msg) {
+        return println("D", tag, msg);
+    }
+
+    public static int i(final String tag, final String msg) {
+        return println("I", tag, msg);
+    }
+
+    public static int w(final String tag, final String msg) {
+        return println("W", tag, msg);
+    }
+
+    public static int w(final String tag, final String msg, final Throwable tr) {
+        return println("W", tag, msg + ": " + tr);
+    }
+
+    public static int e(final String tag, final String msg) {
+        return println("E", tag, msg);
+    }
+
+    public static int e(final String tag, final String msg, final Throwable tr) {
+        return println("E", tag, msg + ": " + tr);
+    }
+
+    private static int println(final String priority, final String tag, final String msg) {
+        System.err.println(priority + "/" + tag + ": " + msg);
+        return 0;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.test;
+
+import android.test.AndroidTestCase;
+
+import com.docd.purefm.commandline.BulkCommand;
+import com.docd.purefm.commandline.CommandCopyAll;
+import com.docd.purefm.commandline.CommandMoveAll;
+import com.docd.purefm.commandline.CommandRemoveAll;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests {@link com.docd.purefm.commandline.BulkCommand}
+ */
+public final class BulkCommandTest extends AndroidTestCase {
+
+    /**
+     * Minimum argument length of Linux kernels
+     */
+    private static final int ARG_MAX = 131072;
+
+    @Override
+    protected void runTest() throws Throwable {
+        super.runTest();
+        testErrorFormats();
+        testQuotes();
+        testNested();
+        testUnknownFailures();
+        testCheckedPaths();
+        testSplit();
+    }
+
+    private void testErrorFormats() throws Throwable {
+        final BulkCommand remove = removeAll("/system/app/a.apk", "/system/app/b.apk");
+        assertEquals(Collections.emptyList(), remove.getFailedSources(
+                Collections.<String>emptyList(), 0));
+        // busybox
+        assertEquals(Arrays.asList("/system/app/a.apk"), remove.getFailedSources(Arrays.asList(
+                "rm: can't remove '/system/app/a.apk': Read-only file system"), 1));
+        // toybox and coreutils
+        assertEquals(Arrays.asList("/system/app/b.apk"), remove.getFailedSources(Arrays.asList(
+                "rm: cannot remove '/system/app/b.apk': Permission denied"), 1));
+        // message without the reason
+        assertEquals(Arrays.asList("/system/app/a.apk"), remove.getFailedSources(Arrays.asList(
+                "rm: can't remove '/system/app/a.apk'"), 1));
+
+        final BulkCommand move = CommandMoveAll.create(
+                Arrays.asList("/sdcard/a", "/sdcard/b"), "/data/target").get(0);
+        assertEquals(Arrays.asList("/sdcard/a"), move.getFailedSources(Arrays.asList(
+                "mv: can't rename '/sdcard/a': Permission denied"), 1));
+        assertEquals("Copy in the target must be mapped to the source",
+                Arrays.asList("/sdcard/b"), move.getFailedSources(Arrays.asList(
+                "mv: can't create '/data/target/b': Read-only file system"), 1));
+    }
+
+    private void testQuotes() throws Throwable {
+        final BulkCommand remove = removeAll("/sdcard/it's", "/sdcard/'quoted'", "/sdcard/a");
+        assertEquals(Arrays.asList("/sdcard/it's"), remove.getFailedSources(Arrays.asList(
+                "rm: can't remove '/sdcard/it's': Permission denied"), 1));
+        assertEquals(Arrays.asList("/sdcard/'quoted'"), remove.getFailedSources(Arrays.asList(
+                "rm: can't remove '/sdcard/'quoted'': Permission denied"), 1));
+        assertEquals(Arrays.asList("/sdcard/it's", "/sdcard/a"), remove.getFailedSources(
+                Arrays.asList("rm: can't remove '/sdcard/it's'",
+                        "rm: can't remove '/sdcard/a': Permission denied"), 1));
+    }
+
+    private void testNested() throws Throwable {
+        final BulkCommand remove = removeAll("/system/app/dir", "/system/app/dir2");
+        assertEquals("File under the source must be mapped to the source",
+                Arrays.asList("/system/app/dir"), remove.getFailedSources(Arrays.asList(
+                "rm: can't remove '/system/app/dir/sub/file': Read-only file system",
+                "rm: can't remove '/system/app/dir/sub': Directory not empty",
+                "rm: can't remove '/system/app/dir': Directory not empty"), 1));
+
+        final BulkCommand copy = CommandCopyAll.create(
+                Arrays.asList("/sdcard/dir", "/sdcard/file"), "/data/target").get(0);
+        assertEquals(Arrays.asList("/sdcard/dir"), copy.getFailedSources(Arrays.asList(
+                "cp: can't open '/sdcard/dir/sub/file': Permission denied"), 1));
+        assertEquals(Arrays.asList("/sdcard/dir"), copy.getFailedSources(Arrays.asList(
+                "cp: can't create '/data/target/dir/sub/file': No space left on device"), 1));
+    }
+
+    private void testUnknownFailures() throws Throwable {
+        final BulkCommand remove = removeAll("/sdcard/a", "/sdcard/b");
+        assertNull(remove.getFailedSources(Collections.<String>emptyList(), 1));
+        assertNull(remove.getFailedSources(Arrays.asList("Segmentation fault"), 139));
+        assertNull("Path of other file must not be mapped to a source",
+                remove.getFailedSources(Arrays.asList(
+                        "rm: can't remove '/sdcard/ab': Permission denied"), 1));
+        assertNull(remove.getFailedSources(Collections.<String>emptyList(), -1));
+    }
+
+    private void testCheckedPaths() throws Throwable {
+        final BulkCommand remove = removeAll("/sdcard/a", "/sdcard/b");
+        assertEquals(remove.getSources(), remove.getCheckedPaths());
+        assertEquals("Source that still exists must fail",
+                Arrays.asList("/sdcard/b"), remove.getFailedSources(new boolean[] {false, true}));
+
+        final BulkCommand copy = CommandCopyAll.create(
+                Arrays.asList("/sdcard/a", "/sdcard/b"), "/data/target").get(0);
+        assertEquals(Arrays.asList("/data/target/a", "/data/target/b"), copy.getCheckedPaths());
+        assertEquals("Source which copy doesn't exist must fail",
+                Arrays.asList("/sdcard/a"), copy.getFailedSources(new boolean[] {false, true}));
+    }
+
+    private void testSplit() throws Throwable {
+        assertEquals(1, CommandRemoveAll.create(Arrays.asList("/sdcard/a", "/sdcard/b")).size());
+
+        final char[] name = new char[1000];
+        Arrays.fill(name, 'a');
+        final List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            paths.add("/sdcard/" + i + new String(name));
+        }
+        // longer than the argument budget, must be passed in a command of its own
+        final char[] longName = new char[ARG_MAX];
+        Arrays.fill(longName, 'b');
+        paths.add(150, "/sdcard/" + new String(longName));
+
+        final List<CommandRemoveAll> commands = CommandRemoveAll.create(paths);
+        assertTrue(commands.size() > 2);
+        final List<String> joined = new ArrayList<>();
+        for (final CommandRemoveAll command : commands) {
+            final List<String> sources = command.getSources();
+            assertFalse(sources.isEmpty());
+            if (sources.size() > 1) {
+                int length = 0;
+                for (final String source : sources) {
+                    // bytes, null terminator and pointer
+                    length += source.length() + 1 + 8;
+                }
+                assertTrue("Arguments must fit in ARG_MAX", length < ARG_MAX);
+            }
+            joined.addAll(sources);
+        }
+        assertEquals("Sources must be kept in order", paths, joined);
+    }
+
+    private static BulkCommand removeAll(final String... paths) {
+        final List<CommandRemoveAll> commands = CommandRemoveAll.create(Arrays.asList(paths));
+        assertEquals(1, commands.size());
+        return commands.get(0);
+    }
+}
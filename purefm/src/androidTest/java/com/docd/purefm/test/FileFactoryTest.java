@@ -23,6 +23,8 @@ import com.docd.purefm.file.CommandLineFile;
 import com.docd.purefm.file.FileFactory;
 import com.docd.purefm.file.GenericFile;
 import com.docd.purefm.file.JavaFile;
+import com.docd.purefm.file.Posix;
+import com.docd.purefm.file.PosixFile;
 import com.docd.purefm.settings.Settings;
 
 import org.apache.commons.io.FileUtils;
@@ -83,6 +85,7 @@ public final class FileFactoryTest extends AndroidTestCase {
         final GenericFile file2 = FileFactory.newFile(settings, test1);
         assertTrue(file2 instanceof JavaFile);
         assertEquals(test1, file2.toFile());
+        assertEquals(Posix.getInstance() != null, file2 instanceof PosixFile);
     }
 
     @Override
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.test;
+
+import android.os.Environment;
+import android.os.Parcel;
+import android.test.AndroidTestCase;
+
+import com.docd.purefm.file.FileListSnapshot;
+import com.docd.purefm.file.GenericFile;
+import com.docd.purefm.file.JavaFile;
+import com.docd.purefm.file.PosixFile;
+import com.docd.purefm.utils.FileSortType;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Tests {@link FileListSnapshot}
+ */
+public final class FileListSnapshotTest extends AndroidTestCase {
+
+    private static final File testDir = new File(Environment.getExternalStorageDirectory(), "_test_FileListSnapshot");
+
+    private static final File dir1 = new File(testDir, "dir1");
+    private static final File file1 = new File(testDir, "b.txt");
+    private static final File file2 = new File(testDir, "a.jpg");
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        final String state = Environment.getExternalStorageState();
+        if (!state.equals(Environment.MEDIA_MOUNTED)) {
+            throw new RuntimeException("Make sure the external storage is mounted read-write before running this test");
+        }
+        try {
+            FileUtils.forceDelete(testDir);
+        } catch (IOException e) {
+            //ignored
+        }
+        assertTrue(testDir.mkdirs());
+        assertTrue(dir1.mkdir());
+        FileUtils.write(file1, "test");
+        FileUtils.write(file2, "test2");
+    }
+
+    public void testSnapshot() throws Exception {
+        final FileListSnapshot snapshot = new FileListSnapshot();
+        final GenericFile[] files = {
+                new PosixFile(file1), new PosixFile(dir1), new JavaFile(file2)};
+        for (final GenericFile file : files) {
+            snapshot.add(file);
+        }
+        assertEquals(files.length, snapshot.size());
+        for (int i = 0; i < files.length; i++) {
+            assertSameFile(files[i], snapshot.get(i));
+        }
+
+        snapshot.sort(FileSortType.NAME_ASC.getComparator());
+        assertEquals(dir1.getName(), snapshot.getName(0));
+        assertEquals(file2.getName(), snapshot.getName(1));
+        assertEquals(file1.getName(), snapshot.getName(2));
+        assertTrue(snapshot.isDirectory(0));
+        assertFalse(snapshot.isDirectory(1));
+        assertSameFile(files[0], snapshot.get(2));
+
+        assertEquals(2, snapshot.indexOf(file1.getAbsolutePath()));
+        assertEquals(-1, snapshot.indexOf(new File(testDir, "c").getAbsolutePath()));
+
+        FileUtils.write(file1, "modified");
+        final PosixFile modified = new PosixFile(file1);
+        snapshot.set(2, modified);
+        assertSameFile(modified, snapshot.get(2));
+
+        snapshot.remove(0);
+        assertEquals(2, snapshot.size());
+        assertEquals(file2.getName(), snapshot.getName(0));
+        assertEquals(1, snapshot.indexOf(file1.getAbsolutePath()));
+
+        snapshot.clear();
+        assertTrue(snapshot.isEmpty());
+    }
+
+    public void testParcel() throws Exception {
+        final FileListSnapshot snapshot = new FileListSnapshot();
+        final GenericFile[] files = {
+                new PosixFile(file1), new PosixFile(dir1), new JavaFile(file2)};
+        for (final GenericFile file : files) {
+            snapshot.add(file);
+        }
+        // leaves a name of a replaced entry in the buffer
+        snapshot.set(0, new PosixFile(file1));
+
+        final Parcel parcel = Parcel.obtain();
+        try {
+            snapshot.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            final FileListSnapshot restored = FileListSnapshot.CREATOR.createFromParcel(parcel);
+            assertEquals(files.length, restored.size());
+            for (int i = 0; i < files.length; i++) {
+                assertSameFile(files[i], restored.get(i));
+            }
+            assertEquals(1, restored.indexOf(dir1.getAbsolutePath()));
+            restored.add(new JavaFile(new File(testDir, "c")));
+            assertEquals("c", restored.getName(3));
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    public void testAddSorted() throws Exception {
+        final FileListSnapshot snapshot = new FileListSnapshot();
+        snapshot.addSorted(Arrays.asList(new PosixFile(file1)),
+                FileSortType.NAME_ASC.getComparator());
+        snapshot.addSorted(Arrays.asList(new PosixFile(file2), new PosixFile(dir1)),
+                FileSortType.NAME_ASC.getComparator());
+        assertEquals(3, snapshot.size());
+        assertEquals(dir1.getName(), snapshot.getName(0));
+        assertEquals(file2.getName(), snapshot.getName(1));
+        assertEquals(file1.getName(), snapshot.getName(2));
+        assertSameFile(new PosixFile(file1), snapshot.get(2));
+
+        final Parcel parcel = Parcel.obtain();
+        try {
+            // the names are not in the order of the entries
+            snapshot.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            final FileListSnapshot restored = FileListSnapshot.CREATOR.createFromParcel(parcel);
+            for (int i = 0; i < snapshot.size(); i++) {
+                assertEquals(snapshot.getName(i), restored.getName(i));
+            }
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static void assertSameFile(final GenericFile expected, final GenericFile actual) {
+        assertEquals(expected.getClass(), actual.getClass());
+        assertEquals(expected.toFile(), actual.toFile());
+        assertEquals(expected.exists(), actual.exists());
+        assertEquals(expected.isDirectory(), actual.isDirectory());
+        assertEquals(expected.isSymlink(), actual.isSymlink());
+        assertEquals(expected.length(), actual.length());
+        assertEquals(expected.lastModified(), actual.lastModified());
+        assertEquals(expected.getPermissions(), actual.getPermissions());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        FileUtils.forceDelete(testDir);
+    }
+}
@@ -19,6 +19,7 @@ import android.os.Environment;
 import android.test.AndroidTestCase;
 
 import com.docd.purefm.file.GenericFile;
+import com.docd.purefm.file.GenericFileCursor;
 import com.docd.purefm.file.JavaFile;
 import com.docd.purefm.utils.PFMTextUtils;
 
@@ -26,7 +27,10 @@ import org.apache.commons.io.FileUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Tests {@link JavaFile}
@@ -90,6 +94,29 @@ public final class JavaFileTest extends AndroidTestCase {
     private void test() throws Throwable {
         final JavaFile file1 = new JavaFile(test1);
         testAgainstJavaIoFile(file1, test1);
+        testCursor(new JavaFile(testDir), testDir);
+        testCursor(file1, test1);
+    }
+
+    private static void testCursor(final JavaFile genericFile, final File javaFile) {
+        final GenericFileCursor cursor = genericFile.listFilesCursor(null);
+        final String[] expected = javaFile.list();
+        if (expected == null) {
+            assertNull(cursor);
+            return;
+        }
+        assertNotNull(cursor);
+        final List<String> names = new ArrayList<>();
+        List<GenericFile> chunk;
+        while ((chunk = cursor.nextChunk(1)) != null) {
+            assertEquals(1, chunk.size());
+            names.add(chunk.get(0).getName());
+        }
+        assertTrue(cursor.isSuccessful());
+        cursor.close();
+        Arrays.sort(expected);
+        Collections.sort(names);
+        assertEquals(Arrays.asList(expected), names);
     }
 
     private static void testAgainstJavaIoFile(final JavaFile genericFile, final File javaFile)
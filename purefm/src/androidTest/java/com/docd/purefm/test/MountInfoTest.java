@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.test;
+
+import android.test.AndroidTestCase;
+
+import com.docd.purefm.commandline.RemountManager.MountInfo;
+
+/**
+ * Tests {@link com.docd.purefm.commandline.RemountManager.MountInfo}
+ */
+public final class MountInfoTest extends AndroidTestCase {
+
+    @Override
+    protected void runTest() throws Throwable {
+        super.runTest();
+        testReadOnly();
+        testEscapes();
+        testMalformed();
+    }
+
+    private void testReadOnly() throws Throwable {
+        MountInfo mount = MountInfo.parse("/dev/block/mmcblk0p9 /system ext4 ro,relatime 0 0");
+        assertNotNull(mount);
+        assertEquals("/system", mount.mountPoint);
+        assertTrue(mount.readOnly);
+
+        mount = MountInfo.parse("/dev/block/mmcblk0p9 /system ext4 ro 0 0");
+        assertNotNull(mount);
+        assertTrue(mount.readOnly);
+
+        mount = MountInfo.parse("/dev/block/mmcblk0p12 /data ext4 rw,nosuid,nodev,noatime 0 0");
+        assertNotNull(mount);
+        assertEquals("/data", mount.mountPoint);
+        assertFalse(mount.readOnly);
+
+        mount = MountInfo.parse("rootfs / rootfs rw 0 0");
+        assertNotNull(mount);
+        assertEquals("/", mount.mountPoint);
+        assertFalse(mount.readOnly);
+
+        mount = MountInfo.parse("none /mnt/x fuse rootcontext=u:r:ro 0 0");
+        assertNotNull(mount);
+        assertFalse("Option starting with ro must not be read-only", mount.readOnly);
+        mount = MountInfo.parse("none /mnt/x fuse rw,ro_compat 0 0");
+        assertNotNull(mount);
+        assertFalse(mount.readOnly);
+    }
+
+    private void testEscapes() throws Throwable {
+        MountInfo mount = MountInfo.parse("/dev/fuse /mnt/media\\040rw/my\\040card fuse ro 0 0");
+        assertNotNull(mount);
+        assertEquals("/mnt/media rw/my card", mount.mountPoint);
+        assertTrue(mount.readOnly);
+
+        mount = MountInfo.parse("/dev/fuse /mnt/a\\011b\\012c\\134d fuse rw 0 0");
+        assertNotNull(mount);
+        assertEquals("/mnt/a\tb\nc\\d", mount.mountPoint);
+
+        mount = MountInfo.parse("/dev/fuse /mnt/end\\040 fuse rw 0 0");
+        assertNotNull(mount);
+        assertEquals("Escape at the end of the field must be decoded",
+                "/mnt/end ", mount.mountPoint);
+
+        mount = MountInfo.parse("/dev/fuse /mnt/a\\ fuse rw 0 0");
+        assertNotNull(mount);
+        assertEquals("Trailing backslash must be kept", "/mnt/a\\", mount.mountPoint);
+
+        mount = MountInfo.parse("/dev/fuse /mnt/a\\04 fuse rw 0 0");
+        assertNotNull(mount);
+        assertEquals("Short escape must be kept", "/mnt/a\\04", mount.mountPoint);
+
+        mount = MountInfo.parse("/dev/fuse /mnt/a\\09x fuse rw 0 0");
+        assertNotNull(mount);
+        assertEquals("Non-octal escape must be kept", "/mnt/a\\09x", mount.mountPoint);
+    }
+
+    private void testMalformed() throws Throwable {
+        assertNull(MountInfo.parse(""));
+        assertNull(MountInfo.parse("rootfs / rootfs"));
+    }
+}
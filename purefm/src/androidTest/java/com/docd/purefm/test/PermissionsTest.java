@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.test;
+
+import android.test.AndroidTestCase;
+
+import com.docd.purefm.file.Permissions;
+
+/**
+ * Tests {@link com.docd.purefm.file.Permissions}
+ */
+public final class PermissionsTest extends AndroidTestCase {
+
+    @Override
+    protected void runTest() throws Throwable {
+        super.runTest();
+        testInterned();
+        testCodecs();
+        testParse();
+    }
+
+    private void testInterned() throws Throwable {
+        assertSame(Permissions.valueOf(0755), Permissions.valueOf(0100755));
+        assertSame(Permissions.valueOf(0700), Permissions.valueOf(true, true, true));
+        assertSame(Permissions.valueOf(0644), Permissions.valueOf(
+                true, true, false, true, false, false, true, false, false));
+    }
+
+    private void testCodecs() throws Throwable {
+        for (int mode = 0; mode <= Permissions.MODE_MASK; mode++) {
+            final Permissions p = Permissions.valueOf(mode);
+            assertEquals(mode, p.toMode());
+            assertEquals(mode, Permissions.parseSymbolic(p.toString(), 0));
+            final String octal = p.toOctalString();
+            assertEquals(mode, Permissions.parseOctal(octal, 0, octal.length()));
+        }
+        assertEquals("rwxr-xr-x", Permissions.valueOf(0755).toString());
+        assertEquals("755", Permissions.valueOf(0755).toOctalString());
+        assertEquals("rwsr-Sr-t", Permissions.valueOf(07745).toString());
+        assertEquals("7745", Permissions.valueOf(07745).toOctalString());
+        assertEquals("rw-r--r-T", Permissions.valueOf(01644).toString());
+        assertTrue(Permissions.valueOf(04755).isSetUserId());
+        assertTrue(Permissions.valueOf(02755).isSetGroupId());
+        assertTrue(Permissions.valueOf(01777).isSticky());
+    }
+
+    private void testParse() throws Throwable {
+        assertEquals(01777, Permissions.parseSymbolic("drwxrwxrwt", 1));
+        assertEquals(-1, Permissions.parseSymbolic("drwxrwxrw", 1));
+        assertEquals(-1, Permissions.parseSymbolic("-rwtr-xr-x", 1));
+        assertEquals(-1, Permissions.parseSymbolic("-rwxr-xr-s", 1));
+        assertEquals(-1, Permissions.parseSymbolic("xwrxwrxwr", 0));
+        assertEquals(-1, Permissions.parseSymbolic("rwxrwxrwS", 0));
+        assertEquals(06755, Permissions.parseSymbolic("rwsr-sr-x", 0));
+        assertEquals(06644, Permissions.parseSymbolic("rwSr-Sr--", 0));
+        assertEquals(-1, Permissions.parseOctal("789", 0, 3));
+        assertEquals(-1, Permissions.parseOctal("07755", 0, 5));
+        assertEquals(0644, Permissions.parseOctal("mode 644", 5, 8));
+    }
+}
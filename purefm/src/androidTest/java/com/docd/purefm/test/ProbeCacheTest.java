@@ -0,0 +1,130 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.test;
+
+import android.test.AndroidTestCase;
+
+import com.docd.purefm.commandline.ProbeCache;
+import com.docd.purefm.file.CanonicalPaths;
+import com.docd.purefm.file.FileMetadataCache;
+import com.docd.purefm.file.Posix;
+import com.docd.purefm.file.PosixFile;
+
+import java.io.File;
+
+/**
+ * Tests {@link com.docd.purefm.commandline.ProbeCache}
+ */
+public final class ProbeCacheTest extends AndroidTestCase {
+
+    @Override
+    protected void runTest() throws Throwable {
+        super.runTest();
+        ProbeCache.invalidateAll();
+        try {
+            testGet();
+            testInvalidate();
+            testInvalidateAll();
+            testCanonicalPaths();
+            testFileMetadata();
+        } finally {
+            ProbeCache.invalidateAll();
+        }
+    }
+
+    private void testGet() throws Throwable {
+        final ProbeCache<String> cache = ProbeCache.CANONICAL_PATHS;
+        assertNull(cache.get("/sdcard"));
+        cache.put("/sdcard", "/storage/emulated/0/");
+        assertEquals("/storage/emulated/0/", cache.get("/sdcard"));
+        cache.clear();
+        assertNull(cache.get("/sdcard"));
+    }
+
+    private void testInvalidate() throws Throwable {
+        final ProbeCache<String> cache = ProbeCache.CANONICAL_PATHS;
+        cache.put("/data/a", "/data/a/");
+        cache.put("/data/a/b", "/data/a/b");
+        cache.put("/data/ab", "/data/ab");
+        cache.put("/data/link", "/data/a/c");
+
+        ProbeCache.invalidatePath("/data/a");
+        assertNull(cache.get("/data/a"));
+        assertNull(cache.get("/data/a/b"));
+        assertNull("Symlink to the invalidated path must be invalidated", cache.get("/data/link"));
+        assertEquals("Path with the same prefix must not be invalidated",
+                "/data/ab", cache.get("/data/ab"));
+    }
+
+    private void testInvalidateAll() throws Throwable {
+        ProbeCache.FILE_SYSTEMS.put("/system", "ext4");
+        ProbeCache.CANONICAL_PATHS.put("/system", "/system/");
+        ProbeCache.invalidateAll();
+        assertNull(ProbeCache.FILE_SYSTEMS.get("/system"));
+        assertNull(ProbeCache.CANONICAL_PATHS.get("/system"));
+    }
+
+    private void testCanonicalPaths() throws Throwable {
+        final File dir = getContext().getCacheDir();
+        final File file = new File(dir, "_test_ProbeCache");
+        assertTrue(file.createNewFile());
+        try {
+            assertEquals(file.getCanonicalPath(), CanonicalPaths.resolve(file));
+            assertEquals(file.getCanonicalPath(),
+                    ProbeCache.CANONICAL_PATHS.get(file.getCanonicalPath()));
+            assertEquals("Directory must be cached in the format of readlink",
+                    dir.getCanonicalPath() + File.separator,
+                    ProbeCache.CANONICAL_PATHS.get(dir.getAbsolutePath()));
+
+            // as cached by CommandReadlink
+            ProbeCache.CANONICAL_PATHS.put("/_test_alias", dir.getCanonicalPath() + File.separator);
+            assertEquals(dir.getCanonicalPath(), CanonicalPaths.resolve(new File("/_test_alias")));
+
+            ProbeCache.invalidatePath(dir.getAbsolutePath());
+            assertNull("File under the invalidated alias must be invalidated",
+                    ProbeCache.CANONICAL_PATHS.get(file.getCanonicalPath()));
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    private void testFileMetadata() throws Throwable {
+        if (Posix.getInstance() == null) {
+            return;
+        }
+        final File dir = new File(getContext().getCacheDir(), "_test_FileMetadata");
+        final File file = new File(dir, "file");
+        assertTrue(dir.mkdir());
+        try {
+            assertTrue(file.createNewFile());
+            assertTrue(new PosixFile(file).exists());
+
+            // changed behind the caches' back
+            assertTrue(file.setLastModified(0L));
+            assertEquals("Status must not be taken from the cache",
+                    0L, new PosixFile(file).lastModified());
+
+            assertTrue(file.delete());
+            assertFalse("Status must not be taken from the cache",
+                    new PosixFile(file).exists());
+
+            FileMetadataCache.invalidate(file);
+            ProbeCache.invalidatePath(dir.getAbsolutePath());
+            assertFalse(new PosixFile(file).exists());
+        } finally {
+            assertTrue(dir.delete());
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.test;
+
+import android.test.AndroidTestCase;
+
+import com.docd.purefm.commandline.ShellInputWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Tests {@link com.docd.purefm.commandline.ShellInputWriter}
+ */
+public final class ShellInputWriterTest extends AndroidTestCase {
+
+    /**
+     * Size of the buffer of {@link ShellInputWriter}
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    @Override
+    protected void runTest() throws Throwable {
+        super.runTest();
+        testUtf8();
+        testFourByteSequences();
+        testUnpairedSurrogates();
+        testEscapedBytes();
+        testBuffer();
+    }
+
+    private void testUtf8() throws Throwable {
+        assertWritten("ls -l /sdcard\n");
+        assertWritten("caf\u00e9 \u20ac \u0416");
+        assertWritten("\u007f\u0080\u07ff\u0800\uffff");
+    }
+
+    private void testFourByteSequences() throws Throwable {
+        assertWritten("a\ud83d\ude00b");
+        assertWritten("\ud800\udc00\udbff\udfff");
+        final byte[] bytes = write("\ud83d\ude00");
+        assertTrue(Arrays.equals(new byte[] {(byte) 0xf0, (byte) 0x9f, (byte) 0x98, (byte) 0x80},
+                bytes));
+    }
+
+    private void testUnpairedSurrogates() throws Throwable {
+        assertEquals("?x", new String(write("\ud800x"), "UTF-8"));
+        assertEquals("x?", new String(write("x\ud83d"), "UTF-8"));
+        assertEquals("Low surrogate outside of escaped bytes must be replaced",
+                "?", new String(write("\udc00"), "UTF-8"));
+        assertEquals("?", new String(write("\udfff"), "UTF-8"));
+        assertEquals("Reversed pair must not be joined",
+                "??", new String(write("\ude00\ud83d"), "UTF-8"));
+    }
+
+    private void testEscapedBytes() throws Throwable {
+        assertTrue("Escaped bytes must be written as the original bytes", Arrays.equals(
+                new byte[] {'a', (byte) 0x80, (byte) 0xff, (byte) 0xc3, '('},
+                write("a\udc80\udcff\udcc3(")));
+    }
+
+    private void testBuffer() throws Throwable {
+        // multi-byte sequences that don't fit in the rest of the buffer
+        final StringBuilder builder = new StringBuilder(BUFFER_SIZE * 2);
+        for (int i = 0; i < BUFFER_SIZE - 1; i++) {
+            builder.append('a');
+        }
+        builder.append("\u20ac\ud83d\ude00\udcff");
+        for (int i = 0; i < BUFFER_SIZE; i++) {
+            builder.append('\u0416');
+        }
+        final String string = builder.toString();
+        final byte[] bytes = write(string);
+        assertEquals(BUFFER_SIZE - 1 + 3 + 4 + 1 + BUFFER_SIZE * 2, bytes.length);
+        assertEquals((byte) 0xff, bytes[BUFFER_SIZE - 1 + 3 + 4]);
+
+        // written with offset
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final ShellInputWriter writer = new ShellInputWriter(output);
+        // the pair is cut by the count
+        writer.write(string, BUFFER_SIZE - 1, 2);
+        writer.write(string.toCharArray(), BUFFER_SIZE + 2, 1);
+        writer.flush();
+        assertTrue(Arrays.equals(
+                new byte[] {(byte) 0xe2, (byte) 0x82, (byte) 0xac, '?', (byte) 0xff},
+                output.toByteArray()));
+    }
+
+    /**
+     * Asserts that the valid string is written the same as by {@link String#getBytes(String)}
+     */
+    private static void assertWritten(final String string) throws IOException {
+        assertTrue(Arrays.equals(string.getBytes("UTF-8"), write(string)));
+    }
+
+    private static byte[] write(final String string) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final ShellInputWriter writer = new ShellInputWriter(output);
+        writer.write(string);
+        writer.close();
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.test;
+
+import android.test.AndroidTestCase;
+
+import com.docd.purefm.commandline.ShellInputWriter;
+import com.docd.purefm.commandline.ShellOutputReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests {@link com.docd.purefm.commandline.ShellOutputReader}
+ */
+public final class ShellOutputReaderTest extends AndroidTestCase {
+
+    /**
+     * Size of the buffer of {@link ShellOutputReader}
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Euro sign, 3 bytes in UTF-8
+     */
+    private static final byte[] EURO = {(byte) 0xe2, (byte) 0x82, (byte) 0xac};
+
+    /**
+     * U+1F600, 4 bytes in UTF-8
+     */
+    private static final byte[] EMOJI = {(byte) 0xf0, (byte) 0x9f, (byte) 0x98, (byte) 0x80};
+
+    @Override
+    protected void runTest() throws Throwable {
+        super.runTest();
+        testLines();
+        testUnterminatedLine();
+        testInvalidBytes();
+        testFourByteSequences();
+        testFillBoundary();
+        testLongLine();
+    }
+
+    private void testLines() throws Throwable {
+        assertEquals(Arrays.asList(), read(bytes("")));
+        assertEquals(Arrays.asList("a", "", "b"), read(bytes("a\n\nb\n")));
+        assertEquals(Arrays.asList("caf\u00e9", "\u20ac"),
+                read(bytes("caf\u00e9\n\u20ac\n")));
+    }
+
+    private void testUnterminatedLine() throws Throwable {
+        assertEquals(Arrays.asList("a", "b"), read(bytes("a\nb")));
+        assertEquals(Arrays.asList("\u20ac"), read(EURO));
+        assertEquals("Truncated sequence at the end must be escaped",
+                Arrays.asList("a\udcf0\udc9f"), read(concat(bytes("a"), Arrays.copyOf(EMOJI, 2))));
+    }
+
+    private void testInvalidBytes() throws Throwable {
+        final byte[] bytes = {'a', (byte) 0xff, (byte) 0xfe, 'b', (byte) 0xc3, '(', (byte) 0x80,
+                (byte) 0xc0, (byte) 0xaf, '\n'};
+        assertEquals("Invalid bytes must be escaped to U+DC80..U+DCFF",
+                Arrays.asList("a\udcff\udcfeb\udcc3(\udc80\udcc0\udcaf"), read(bytes));
+        assertRoundTrip(bytes);
+
+        // surrogate encoded in 3 bytes, as by CESU-8, is not valid UTF-8
+        final byte[] cesu = {(byte) 0xed, (byte) 0xa0, (byte) 0x80, '\n'};
+        final String line = read(cesu).get(0);
+        assertEquals(3, line.length());
+        for (int i = 0; i < line.length(); i++) {
+            assertTrue(line.charAt(i) >= '\udc80' && line.charAt(i) <= '\udcff');
+        }
+        assertRoundTrip(cesu);
+    }
+
+    private void testFourByteSequences() throws Throwable {
+        final byte[] bytes = concat(bytes("a"), EMOJI, bytes("b\n"));
+        assertEquals(Arrays.asList("a\ud83d\ude00b"), read(bytes));
+        assertRoundTrip(bytes);
+    }
+
+    private void testFillBoundary() throws Throwable {
+        // sequences that end after the first read of the buffer
+        for (final byte[] sequence : Arrays.asList(EURO, EMOJI)) {
+            for (int offset = 1; offset < sequence.length; offset++) {
+                final byte[] prefix = new byte[BUFFER_SIZE - offset];
+                Arrays.fill(prefix, (byte) 'a');
+                final byte[] bytes = concat(prefix, sequence, bytes("\nb\n"));
+                final List<String> lines = read(bytes);
+                assertEquals(2, lines.size());
+                assertEquals(new String(concat(prefix, sequence), "UTF-8"), lines.get(0));
+                assertEquals("b", lines.get(1));
+                assertRoundTrip(bytes);
+            }
+        }
+
+        // the unread bytes are moved to the beginning of the buffer before the second read
+        final byte[] first = bytes("first\n");
+        final byte[] prefix = new byte[BUFFER_SIZE - first.length - 2];
+        Arrays.fill(prefix, (byte) 'a');
+        final byte[] bytes = concat(first, prefix, EMOJI, new byte[] {(byte) 0xff}, bytes("\n"));
+        assertEquals(Arrays.asList("first", new String(concat(prefix, EMOJI), "UTF-8") + "\udcff"),
+                read(bytes));
+        assertRoundTrip(bytes);
+
+        // the input may return fewer bytes than requested
+        assertEquals(read(bytes), read(new TrickleInputStream(bytes, 1)));
+        assertEquals(read(bytes), read(new TrickleInputStream(bytes, BUFFER_SIZE - 3)));
+    }
+
+    private void testLongLine() throws Throwable {
+        final byte[] line = new byte[BUFFER_SIZE * 3 + 1];
+        for (int i = 0; i < line.length; i += EURO.length) {
+            System.arraycopy(EURO, 0, line, i, Math.min(EURO.length, line.length - i));
+        }
+        final byte[] bytes = concat(line, bytes("\n"));
+        final List<String> lines = read(bytes);
+        assertEquals(1, lines.size());
+        assertEquals("Last byte is a truncated sequence", '\udce2',
+                lines.get(0).charAt(lines.get(0).length() - 1));
+        assertRoundTrip(bytes);
+    }
+
+    /**
+     * Asserts that the lines read from the bytes are written back as the same bytes
+     */
+    private static void assertRoundTrip(final byte[] bytes) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream(bytes.length);
+        final ShellInputWriter writer = new ShellInputWriter(output);
+        for (final String line : read(bytes)) {
+            writer.write(line);
+            writer.write('\n');
+        }
+        writer.flush();
+        assertTrue("Lines must be written back as the original bytes",
+                Arrays.equals(bytes, output.toByteArray()));
+    }
+
+    private static List<String> read(final byte[] bytes) throws IOException {
+        return read(new ByteArrayInputStream(bytes));
+    }
+
+    private static List<String> read(final InputStream input) throws IOException {
+        final ShellOutputReader reader = new ShellOutputReader(input);
+        final List<String> lines = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines.add(line);
+        }
+        reader.close();
+        return lines;
+    }
+
+    private static byte[] bytes(final String string) throws IOException {
+        return string.getBytes("UTF-8");
+    }
+
+    private static byte[] concat(final byte[]... arrays) {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (final byte[] array : arrays) {
+            output.write(array, 0, array.length);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Returns at most the given number of bytes per read, like a pipe
+     */
+    private static final class TrickleInputStream extends ByteArrayInputStream {
+
+        private final int mMaxRead;
+
+        TrickleInputStream(final byte[] bytes, final int maxRead) {
+            super(bytes);
+            mMaxRead = maxRead;
+        }
+
+        @Override
+        public synchronized int read(final byte[] b, final int off, final int len) {
+            return super.read(b, off, Math.min(len, mMaxRead));
+        }
+    }
+}
@@ -24,6 +24,7 @@ import android.content.IntentFilter;
 
 import com.docd.purefm.commandline.CommandListBusyboxApplets;
 import com.docd.purefm.commandline.CommandLine;
+import com.docd.purefm.commandline.ProbeCache;
 import com.docd.purefm.commandline.ShellHolder;
 import com.docd.purefm.utils.StorageHelper;
 import com.stericson.RootTools.execution.Shell;
@@ -36,7 +37,9 @@ import android.support.annotation.Nullable;
 import java.io.File;
 import java.io.IOException;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public final class Environment {
     
@@ -190,15 +193,18 @@ public final class Environment {
         if (sBusybox == null) {
             return false;
         }
-        final List<String> result = CommandLine.executeForResult(new CommandListBusyboxApplets());
-        if (result != null) {
-            for (final String resultLine : result) {
-                if (resultLine.equals(util)) {
-                    return true;
-                }
+        final String busybox = sBusybox;
+        Set<String> applets = ProbeCache.BUSYBOX_APPLETS.get(busybox);
+        if (applets == null) {
+            final List<String> result = CommandLine.executeForResult(
+                    new CommandListBusyboxApplets());
+            if (result == null) {
+                return false;
             }
+            applets = new HashSet<>(result);
+            ProbeCache.BUSYBOX_APPLETS.put(busybox, applets);
         }
-        return false;
+        return applets.contains(util);
     }
     
     private static boolean isExternalMounted() {
@@ -14,6 +14,8 @@
  */
 package com.docd.purefm;
 
+import com.docd.purefm.commandline.RemountManager;
+import com.docd.purefm.commandline.ShellHolder;
 import com.docd.purefm.settings.Settings;
 import com.docd.purefm.utils.PFMTextUtils;
 import com.stericson.RootTools.RootTools;
@@ -47,6 +49,7 @@ public final class PureFM extends Application implements
         RootTools.handlerEnabled = false;
         RootTools.debugMode = BuildConfig.DEBUG;
         Environment.init(this);
+        RemountManager.getInstance().init(this);
         PFMTextUtils.init(this);
         ensureNoShellUsedIfNoBusybox();
         registerActivityLifecycleCallbacks(this);
@@ -74,6 +77,7 @@ public final class PureFM extends Application implements
         if (++mActivityStartedCount == 1) {
             //rescan for environment changes
             ensureNoShellUsedIfNoBusybox();
+            ShellHolder.getInstance().prewarm();
         }
     }
 
@@ -14,16 +14,15 @@
  */
 package com.docd.purefm.adapters;
 
-import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import android.app.Activity;
+import android.os.AsyncTask;
 import android.content.res.Resources;
 import android.database.DataSetObservable;
 import android.database.DataSetObserver;
@@ -35,17 +34,22 @@ import android.os.Looper;
 import android.os.Message;
 import android.support.annotation.Nullable;
 import android.util.Log;
+import android.util.LruCache;
 import android.view.LayoutInflater;
 import android.widget.ImageView;
 import android.widget.ListAdapter;
 
 import com.docd.purefm.R;
+import com.docd.purefm.file.DirectorySizeCache;
 import com.docd.purefm.file.FileFactory;
+import com.docd.purefm.file.FileListSnapshot;
 import com.docd.purefm.file.FileObserverCache;
 import com.docd.purefm.file.GenericFile;
+import com.docd.purefm.file.JavaFile;
 import com.docd.purefm.file.MultiListenerFileObserver;
 import com.docd.purefm.file.Permissions;
 import com.docd.purefm.settings.Settings;
+import com.docd.purefm.tasks.DirectorySizesTask;
 import com.docd.purefm.utils.DrawableLruCache;
 import com.docd.purefm.utils.FileSortType;
 import com.docd.purefm.utils.MimeTypes;
@@ -74,6 +78,11 @@ public abstract class BrowserBaseAdapter implements ListAdapter,
             FileObserver.ATTRIB |
             FileObserver.MOVED_TO;
 
+    /**
+     * Number of items following the shown item which attributes are loaded in background
+     */
+    private static final int PREFETCH_WINDOW = 32;
+
     /**
      * Cache that holds file icons
      */
@@ -105,11 +114,23 @@ public abstract class BrowserBaseAdapter implements ListAdapter,
     @NonNull
     private final FileObserverCache mObserverCache = FileObserverCache.getInstance();
 
+    /**
+     * Number of files created for the content that are kept, enough for the shown items and
+     * the prefetched ones
+     */
+    private static final int ITEM_CACHE_SIZE = 128;
+
     /**
      * Adapter's content
      */
     @NonNull
-    private final List<GenericFile> mContent = new ArrayList<>();
+    private final FileListSnapshot mContent = new FileListSnapshot();
+
+    /**
+     * Files created for the content by position. Cleared when the content changes
+     */
+    @NonNull
+    private final LruCache<Integer, GenericFile> mItems = new LruCache<>(ITEM_CACHE_SIZE);
 
     /**
      * Observers for Files used in this Adapter
@@ -122,6 +143,16 @@ public abstract class BrowserBaseAdapter implements ListAdapter,
      */
     private ExecutorService mExecutor;
 
+    /**
+     * Position before which the attributes of the content are loaded or being loaded
+     */
+    private int mPrefetchedPosition;
+
+    /**
+     * Task computing sizes of the directories in this Adapter
+     */
+    private DirectorySizesTask mDirectorySizesTask;
+
     /**
      * Current FileSortType
      */
@@ -170,22 +201,91 @@ public abstract class BrowserBaseAdapter implements ListAdapter,
             mExecutor.shutdownNow();
         }
         mExecutor = Executors.newSingleThreadExecutor();
+        cancelDirectorySizes();
         mContent.clear();
+        mItems.evictAll();
         releaseObservers();
         if (data != null) {
             Arrays.sort(data, mComparator.getComparator());
             for (final GenericFile file : data) {
-                mContent.add(file);
-                final MultiListenerFileObserver observer = mObserverCache
-                        .getOrCreate(file, OBSERVER_EVENTS);
-                observer.addOnEventListener(this);
-                observer.startWatching();
-                mFileObservers.add(observer);
+                addWatched(file);
             }
         }
         this.notifyDataSetChanged();
     }
 
+    /**
+     * Adds data to the data set by {@link #updateData(GenericFile[])}, for directories that
+     * are listed in chunks. The chunk is merged into the sorted content, which is not sorted
+     * again
+     *
+     * @param data Data to add
+     */
+    public void appendData(@NonNull final List<GenericFile> data) {
+        for (final GenericFile file : data) {
+            watch(file);
+        }
+        mContent.addSorted(data, mComparator.getComparator());
+        this.notifyDataSetChanged();
+    }
+
+    private void addWatched(@NonNull final GenericFile file) {
+        mContent.add(file);
+        watch(file);
+    }
+
+    private void watch(@NonNull final GenericFile file) {
+        final MultiListenerFileObserver observer = mObserverCache
+                .getOrCreate(file, OBSERVER_EVENTS);
+        observer.addOnEventListener(this);
+        observer.startWatching();
+        mFileObservers.add(observer);
+    }
+
+    /**
+     * Starts computing sizes of the directories in this Adapter, if enabled in {@link Settings}.
+     * The sizes are shown and the content is resorted as they are computed
+     *
+     * @param parent Directory the content of this Adapter was listed from
+     */
+    public void loadDirectorySizes(@NonNull final GenericFile parent) {
+        cancelDirectorySizes();
+        if (!mSettings.listShowDirectorySizesEnabled()) {
+            return;
+        }
+        final List<GenericFile> directories = new ArrayList<>();
+        final int size = mContent.size();
+        for (int i = 0; i < size; i++) {
+            if (mContent.isDirectory(i)) {
+                directories.add(getItem(i));
+            }
+        }
+        if (directories.isEmpty()) {
+            return;
+        }
+        mDirectorySizesTask = new DirectorySizesTask(mSettings,
+                directories.toArray(new GenericFile[directories.size()]),
+                new DirectorySizesTask.DirectorySizesListener() {
+                    @Override
+                    public void onDirectorySizesUpdated() {
+                        if (mComparator == FileSortType.SIZE_ASC ||
+                                mComparator == FileSortType.SIZE_DESC) {
+                            mContent.sort(mComparator.getComparator());
+                        }
+                        notifyDataSetChanged();
+                    }
+                });
+        // not executed serially, so that listing doesn't wait for the sizes
+        mDirectorySizesTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, parent);
+    }
+
+    private void cancelDirectorySizes() {
+        if (mDirectorySizesTask != null) {
+            mDirectorySizesTask.cancel(true);
+            mDirectorySizesTask = null;
+        }
+    }
+
     /**
      * Removes references for all {@link android.os.FileObserver}s
      */
@@ -204,10 +304,9 @@ public abstract class BrowserBaseAdapter implements ListAdapter,
      */
     public final void addFiles(final GenericFile... files) {
         for (final GenericFile file : files) {
-            mContent.add(file);
             mFileObservers.add(mObserverCache.getOrCreate(file, OBSERVER_EVENTS));
         }
-        Collections.sort(mContent, mComparator.getComparator());
+        mContent.addSorted(Arrays.asList(files), mComparator.getComparator());
         notifyDataSetChanged();
     }
 
@@ -218,10 +317,39 @@ public abstract class BrowserBaseAdapter implements ListAdapter,
      */
     public void setCompareType(final FileSortType comp) {
         mComparator = comp;
-        Collections.sort(mContent, comp.getComparator());
+        mContent.sort(comp.getComparator());
         notifyDataSetChanged();
     }
 
+    /**
+     * Loads attributes of the items following the position in background, so that they are
+     * loaded when the items are shown. Should be called when the item at position is shown
+     *
+     * @param position Position of the shown item
+     */
+    protected final void prefetchAttributes(final int position) {
+        final int end = Math.min(position + 1 + PREFETCH_WINDOW, mContent.size());
+        if (end - mPrefetchedPosition < PREFETCH_WINDOW / 2 || mExecutor == null) {
+            return;
+        }
+        final int start = Math.max(position + 1, mPrefetchedPosition);
+        final List<JavaFile> files = new ArrayList<>(end - start);
+        for (int i = start; i < end; i++) {
+            final GenericFile file = getItem(i);
+            if (file instanceof JavaFile) {
+                files.add((JavaFile) file);
+            }
+        }
+        mPrefetchedPosition = end;
+        if (!files.isEmpty()) {
+            try {
+                mExecutor.submit(new PrefetchJob(files));
+            } catch (Exception e) {
+                Log.w("BrowserBaseAdapter", "Error submitting PrefetchJob:" + e);
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -235,7 +363,12 @@ public abstract class BrowserBaseAdapter implements ListAdapter,
      */
     @Override
     public GenericFile getItem(final int pos) {
-        return this.mContent.get(pos);
+        GenericFile item = mItems.get(pos);
+        if (item == null) {
+            item = mContent.get(pos);
+            mItems.put(pos, item);
+        }
+        return item;
     }
 
     /**
@@ -298,6 +431,9 @@ public abstract class BrowserBaseAdapter implements ListAdapter,
      * and any View reflecting the data set should refresh itself.
      */
     protected synchronized final void notifyDataSetChanged() {
+        // the content may be reordered, so the created and prefetched items are no longer valid
+        mItems.evictAll();
+        mPrefetchedPosition = 0;
         this.mDataSetObservable.notifyChanged();
     }
 
@@ -338,6 +474,7 @@ public abstract class BrowserBaseAdapter implements ListAdapter,
      */
     void onEventUIThread(final int event,
                                       @NonNull final GenericFile file) {
+        DirectorySizeCache.getInstance().invalidate(file.getAbsolutePath());
         switch (event & FileObserver.ALL_EVENTS) {
             case FileObserver.CREATE:
                 //Do nothing. The event is handled in Browser
@@ -361,43 +498,23 @@ public abstract class BrowserBaseAdapter implements ListAdapter,
      * @param modified The modified file
      */
     private void onFileModified(@NonNull final GenericFile modified) {
-        final GenericFile affectedFile = getFileByPath(modified.getAbsolutePath());
-        if (affectedFile != null) {
-            final int index = mContent.indexOf(affectedFile);
-            if (index != -1) {
-                mContent.set(index, modified);
-            } else {
-                mContent.add(modified);
-                Collections.sort(mContent, mComparator.getComparator());
-            }
+        final int index = mContent.indexOf(modified.getAbsolutePath());
+        if (index != -1) {
+            mContent.set(index, modified);
+            mItems.evictAll();
         }
     }
 
     private void onFileDeleted(@NonNull final GenericFile deleted) {
-        final GenericFile affectedFile = getFileByPath(deleted.getAbsolutePath());
-        if (affectedFile != null) {
-            mContent.remove(affectedFile);
+        final int index = mContent.indexOf(deleted.getAbsolutePath());
+        if (index != -1) {
+            final GenericFile affectedFile = getItem(index);
+            mContent.remove(index);
+            mItems.evictAll();
             removeObserverForPath(PFMFileUtils.fullPath(affectedFile));
         }
     }
 
-    @Nullable
-    private GenericFile getFileByPath(@NonNull final String path) {
-        for (final GenericFile file : mContent) {
-            if (file.getAbsolutePath().equals(path)) {
-                return file;
-            }
-            try {
-                if (file.getCanonicalPath().equals(path)) {
-                    return file;
-                }
-            } catch (IOException ignored) {
-                //ignored
-            }
-        }
-        return null;
-    }
-
     /**
      * Removes {@link android.os.FileObserver} that monitors the path from cache
      *
@@ -553,6 +670,29 @@ public abstract class BrowserBaseAdapter implements ListAdapter,
         }
     }
 
+    /**
+     * Executor job for loading attributes of files
+     */
+    private static final class PrefetchJob implements Runnable {
+
+        @NonNull
+        private final List<JavaFile> mFiles;
+
+        PrefetchJob(@NonNull final List<JavaFile> files) {
+            mFiles = files;
+        }
+
+        @Override
+        public void run() {
+            for (final JavaFile file : mFiles) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                file.loadAttributes();
+            }
+        }
+    }
+
     /**
      * Executor job for loading preview from file
      */
@@ -42,6 +42,7 @@ public final class BrowserGridAdapter extends BrowserBaseAdapter {
             // and notifyDataSetChanged is not yet called
             return v;
         }
+        prefetchAttributes(pos);
 
         Holder h;
         
@@ -16,6 +16,7 @@ package com.docd.purefm.adapters;
 
 import com.docd.purefm.R;
 import com.docd.purefm.file.CommandLineFile;
+import com.docd.purefm.file.DirectorySizeCache;
 import com.docd.purefm.file.GenericFile;
 import com.docd.purefm.utils.PFMFileUtils;
 import com.docd.purefm.utils.PFMTextUtils;
@@ -59,6 +60,7 @@ public final class BrowserListAdapter extends BrowserBaseAdapter {
             // and notifyDataSetChanged is not yet called
             return v;
         }
+        prefetchAttributes(pos);
         
         Holder h;
         
@@ -106,8 +108,15 @@ public final class BrowserListAdapter extends BrowserBaseAdapter {
             h.mDate.setText(null);
         }
 
-        if (mSettings.listShowFileSizeEnabled() && !f.isDirectory()) {
-            final long fileSize = f.length();
+        final long fileSize;
+        if (!mSettings.listShowFileSizeEnabled()) {
+            fileSize = -1L;
+        } else if (f.isDirectory()) {
+            fileSize = DirectorySizeCache.getInstance().peek(f.getAbsolutePath());
+        } else {
+            fileSize = f.length();
+        }
+        if (fileSize != -1L) {
             String humanReadableFileSize = mHumanReadableLength.get(fileSize);
             if (humanReadableFileSize == null) {
                 humanReadableFileSize = PFMFileUtils.byteCountToDisplaySize(BigInteger.valueOf(fileSize));
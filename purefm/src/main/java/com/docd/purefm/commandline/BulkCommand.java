@@ -0,0 +1,298 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.commandline;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.docd.purefm.Environment;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Busybox command that takes many source paths in a single invocation, like
+ * rm -rf a b c or mv -f a b c target.
+ *
+ * The sources are split into several commands so that arguments of each command fit in
+ * {@link #getArgumentBudget()}. Busybox keeps going after a source fails and prints an error
+ * message that quotes the failed path, so per-source failures are found
+ * by {@link #getFailedSources(List, int)} in the output of the command. If the output doesn't
+ * tell which sources failed, the paths of {@link #getCheckedPaths()} are checked for existence
+ * and the failures are found by {@link #getFailedSources(boolean[])}.
+ */
+public abstract class BulkCommand extends BusyboxCommand {
+
+    /**
+     * Maximum length of arguments and environment of a new process. 128 KiB is the lowest
+     * value of Linux kernels Android runs on, newer kernels allow more
+     */
+    private static final int ARG_MAX = 131072;
+
+    /**
+     * Size of a pointer in argv and envp, assuming 64-bit
+     */
+    private static final int POINTER_SIZE = 8;
+
+    /**
+     * Reserved for the difference between environment of the app and environment of the shell
+     */
+    private static final int ENVIRONMENT_MARGIN = 4096;
+
+    private static int sArgumentBudget;
+
+    @NonNull
+    private final List<String> mSources;
+
+    @Nullable
+    private final String mTarget;
+
+    /**
+     * @param applet busybox applet with options
+     * @param sources source paths
+     * @param target target directory path, or null if the command has no target
+     */
+    protected BulkCommand(@NonNull final String applet,
+                          @NonNull final List<String> sources,
+                          @Nullable final String target) {
+        super(buildCommand(applet, sources, target));
+        mSources = Collections.unmodifiableList(sources);
+        mTarget = target;
+    }
+
+    @NonNull
+    private static String buildCommand(@NonNull final String applet,
+                                       @NonNull final List<String> sources,
+                                       @Nullable final String target) {
+        final StringBuilder command = new StringBuilder(applet);
+        for (final String source : sources) {
+            command.append(' ');
+            command.append(CommandLineUtils.getCommandLineString(source));
+        }
+        if (target != null) {
+            command.append(' ');
+            command.append(CommandLineUtils.getCommandLineString(target));
+        }
+        return command.toString();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Lane getLane() {
+        return Lane.BACKGROUND;
+    }
+
+    @NonNull
+    public List<String> getSources() {
+        return mSources;
+    }
+
+    /**
+     * Returns the sources the command failed for
+     *
+     * @param output output of the command, including error messages
+     * @param exitCode exit code of the command, or -1 if it was terminated
+     * @return failed sources, or null if the command failed, but the failed sources can't be
+     *         told from the output
+     */
+    @Nullable
+    public List<String> getFailedSources(@NonNull final List<String> output, final int exitCode) {
+        if (exitCode == 0) {
+            return Collections.emptyList();
+        }
+        // both source paths and paths of their copies in target are mapped to the source
+        final Map<String, String> sources = new HashMap<>();
+        for (final String source : mSources) {
+            sources.put(source, source);
+            if (mTarget != null) {
+                sources.put(new File(mTarget, new File(source).getName()).getPath(), source);
+            }
+        }
+        final Set<String> failed = new LinkedHashSet<>();
+        for (final String line : output) {
+            final String path = getQuotedPath(line);
+            if (path != null) {
+                final String source = findSource(sources, path);
+                if (source != null) {
+                    failed.add(source);
+                }
+            }
+        }
+        if (failed.isEmpty()) {
+            return null;
+        }
+        return new ArrayList<>(failed);
+    }
+
+    /**
+     * Returns paths which existence tells whether the sources failed, when the output doesn't.
+     * These are the sources if the command has no target, like rm, otherwise the copies of the
+     * sources in the target, like for mv and cp
+     *
+     * @return paths in the order of the sources
+     */
+    @NonNull
+    public List<String> getCheckedPaths() {
+        if (mTarget == null) {
+            return mSources;
+        }
+        final List<String> paths = new ArrayList<>(mSources.size());
+        for (final String source : mSources) {
+            paths.add(new File(mTarget, new File(source).getName()).getPath());
+        }
+        return paths;
+    }
+
+    /**
+     * Returns the sources the command failed for, by existence of {@link #getCheckedPaths()}.
+     * A source failed if it still exists when the command has no target, or if its copy
+     * doesn't exist in the target
+     *
+     * @param exist whether every checked path exists, in the order of the sources
+     * @return failed sources
+     */
+    @NonNull
+    public List<String> getFailedSources(@NonNull final boolean[] exist) {
+        final List<String> failed = new ArrayList<>();
+        final int size = mSources.size();
+        for (int i = 0; i < size; i++) {
+            if (exist[i] == (mTarget == null)) {
+                failed.add(mSources.get(i));
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Returns the source the path is the same as or is under
+     *
+     * @param sources sources mapped by the paths that belong to them
+     * @param path path from an error message
+     * @return source or null if the path doesn't belong to any source
+     */
+    @Nullable
+    private static String findSource(@NonNull final Map<String, String> sources,
+                                     @NonNull String path) {
+        while (!path.isEmpty()) {
+            final String source = sources.get(path);
+            if (source != null) {
+                return source;
+            }
+            final int separator = path.lastIndexOf(File.separatorChar);
+            if (separator == -1) {
+                return null;
+            }
+            path = path.substring(0, separator);
+        }
+        return null;
+    }
+
+    /**
+     * Returns path quoted in an error message, like
+     * rm: can't remove '/system/app/a.apk': Read-only file system
+     *
+     * @param line error message
+     * @return quoted path or null if the line doesn't quote a path
+     */
+    @Nullable
+    static String getQuotedPath(@NonNull final String line) {
+        final int start = line.indexOf(" '");
+        if (start == -1) {
+            return null;
+        }
+        int end = line.lastIndexOf("':");
+        if (end <= start + 1) {
+            end = line.lastIndexOf('\'');
+        }
+        if (end <= start + 2) {
+            return null;
+        }
+        return line.substring(start + 2, end);
+    }
+
+    /**
+     * Splits the sources into groups, each small enough to be passed to a single command
+     *
+     * @param sources source paths
+     * @param fixedArguments arguments that are passed to every command besides the sources
+     * @return groups of sources in the original order
+     */
+    @NonNull
+    static List<List<String>> split(@NonNull final Collection<String> sources,
+                                    @NonNull final String... fixedArguments) {
+        int fixedLength = argumentLength(Environment.sBusybox);
+        for (final String argument : fixedArguments) {
+            fixedLength += argumentLength(argument);
+        }
+        final int budget = getArgumentBudget() - fixedLength;
+        final List<List<String>> groups = new ArrayList<>();
+        List<String> group = new ArrayList<>();
+        int length = 0;
+        for (final String source : sources) {
+            final int sourceLength = argumentLength(source);
+            if (!group.isEmpty() && length + sourceLength > budget) {
+                groups.add(group);
+                group = new ArrayList<>();
+                length = 0;
+            }
+            group.add(source);
+            length += sourceLength;
+        }
+        if (!group.isEmpty()) {
+            groups.add(group);
+        }
+        return groups;
+    }
+
+    /**
+     * Returns the length of arguments a new process can take, that is {@link #ARG_MAX} minus the
+     * size of the environment
+     *
+     * @return maximum length of arguments
+     */
+    static int getArgumentBudget() {
+        if (sArgumentBudget == 0) {
+            int environment = ENVIRONMENT_MARGIN + POINTER_SIZE;
+            for (final Map.Entry<String, String> variable : System.getenv().entrySet()) {
+                environment += argumentLength(variable.getKey()) +
+                        argumentLength(variable.getValue());
+            }
+            sArgumentBudget = ARG_MAX - environment;
+        }
+        return sArgumentBudget;
+    }
+
+    /**
+     * Returns the space the argument takes in argv: UTF-8 bytes, null terminator and pointer
+     *
+     * @param argument argument
+     * @return number of bytes the argument takes
+     */
+    private static int argumentLength(@Nullable final String argument) {
+        if (argument == null) {
+            return POINTER_SIZE;
+        }
+        return CommandMetrics.utf8Length(argument) + 1 + POINTER_SIZE;
+    }
+}
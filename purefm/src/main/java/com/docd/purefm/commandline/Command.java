@@ -14,6 +14,12 @@
  */
 package com.docd.purefm.commandline;
 
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Base Command. Extends Stericson Command and adds a CommandListener
  * support that can be set instead of custom class creation
@@ -21,6 +27,39 @@ package com.docd.purefm.commandline;
  */
 public class Command extends com.stericson.RootTools.execution.Command {
 
+    /**
+     * Lane of the shell pool the command is executed in.
+     * Interactive commands are executed in a shell that is never occupied by background commands,
+     * so that long-running background commands can't block navigation
+     */
+    public enum Lane {
+        INTERACTIVE, BACKGROUND
+    }
+
+    /**
+     * Termination reason of a command that was cancelled with {@link #cancel()}
+     */
+    public static final String REASON_CANCELLED = "Cancelled";
+
+    /**
+     * Termination reason of a command that did not complete within it's timeout
+     */
+    public static final String REASON_TIMED_OUT = "Timed out";
+
+    /**
+     * Timeout of {@link Lane#INTERACTIVE} commands, unless set with {@link #setTimeout(long)}
+     */
+    public static final long TIMEOUT_INTERACTIVE = 30000L;
+
+    /**
+     * Timeout value that means the command is never timed out
+     */
+    public static final long TIMEOUT_NONE = 0L;
+
+    private static final long TIMEOUT_DEFAULT = -1L;
+
+    private static final AtomicInteger sNextId = new AtomicInteger();
+
     /**
      * Notifies command events
      *
@@ -57,11 +96,40 @@ public class Command extends com.stericson.RootTools.execution.Command {
      */
     private CommandListener listener;
 
+    /**
+     * Command id
+     */
+    private final int id;
+
+    private volatile long mTimeout = TIMEOUT_DEFAULT;
+
+    /**
+     * Guarded by this
+     */
+    private long mDeadline;
+
+    /**
+     * Written with this held
+     */
+    private volatile String mTerminationReason;
+
+    /**
+     * Shell executing this command. Guarded by this
+     */
+    private ShellProcess mShell;
+
+    /**
+     * {@link System#nanoTime()} when the command was queued and when it's execution started
+     */
+    private volatile long mQueuedAt;
+    private volatile long mStartedAt;
+
     /**
      * {@inheritDoc}
      */
     public Command(int id, boolean handlerEnabled, String... command) {
         super(id, handlerEnabled, command);
+        this.id = id;
     }
 
     /**
@@ -69,13 +137,210 @@ public class Command extends com.stericson.RootTools.execution.Command {
      */
     public Command(int id, String... command) {
         super(id, command);
+        this.id = id;
     }
 
     /**
      * {@inheritDoc}
      */
     public Command(String... command) {
-        super(ShellHolder.getNextCommandId(), command);
+        this(getNextId(), command);
+    }
+
+    /**
+     * Returns unique id for a new command
+     *
+     * @return next command id
+     */
+    public static int getNextId() {
+        return sNextId.getAndIncrement();
+    }
+
+    /**
+     * Returns command id
+     *
+     * @return command id
+     */
+    public final int getId() {
+        return this.id;
+    }
+
+    /**
+     * Returns the lane of the shell pool this command should be executed in.
+     * Commands that may run for a long time should override this and return
+     * {@link Lane#BACKGROUND}
+     *
+     * @return lane of the shell pool
+     */
+    public Lane getLane() {
+        return Lane.INTERACTIVE;
+    }
+
+    /**
+     * Sets the time this command may be executed for, after which it is terminated with
+     * {@link #REASON_TIMED_OUT}. The time spent in the queue is not counted.
+     * Must be set before executing
+     *
+     * @param timeout timeout in milliseconds, or {@link #TIMEOUT_NONE}
+     */
+    public final void setTimeout(final long timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Timeout must not be negative");
+        }
+        mTimeout = timeout;
+    }
+
+    /**
+     * Returns the timeout set with {@link #setTimeout(long)}. If not set, the timeout is
+     * {@link #TIMEOUT_INTERACTIVE} for interactive commands and {@link #TIMEOUT_NONE} for
+     * background commands
+     *
+     * @return timeout in milliseconds, or {@link #TIMEOUT_NONE}
+     */
+    public final long getTimeout() {
+        final long timeout = mTimeout;
+        if (timeout != TIMEOUT_DEFAULT) {
+            return timeout;
+        }
+        return getLane() == Lane.INTERACTIVE ? TIMEOUT_INTERACTIVE : TIMEOUT_NONE;
+    }
+
+    /**
+     * Returns whether the command only reads the file system. Such a command that is cancelled
+     * while being executed is left to complete in it's shell with the output discarded, which
+     * is cheaper than killing the shell and opening a new one. Commands that change the file
+     * system are killed together with the shell, so that the changes stop as soon as possible
+     *
+     * @return true if the command has no side effects
+     */
+    public boolean isReadOnly() {
+        return false;
+    }
+
+    /**
+     * Cancels the command. A queued command is not executed. If the command is being executed
+     * and is {@link #isReadOnly()}, it's output is discarded and it completes in background.
+     * Otherwise the processes it started are killed together with the shell, and the shell is
+     * replaced. The command is terminated with {@link #REASON_CANCELLED}
+     */
+    public final void cancel() {
+        requestTermination(REASON_CANCELLED);
+    }
+
+    /**
+     * Cancels the command if it's execution has not started yet, without affecting the shell
+     *
+     * @return true if the command was queued and will not be executed
+     */
+    final synchronized boolean cancelIfQueued() {
+        if (mStartedAt != 0L || mTerminationReason != null) {
+            return false;
+        }
+        mTerminationReason = REASON_CANCELLED;
+        return true;
+    }
+
+    /**
+     * Cancels the command. Unlike the superclass implementation, does not close the other shells
+     *
+     * @param reason ignored
+     */
+    @Override
+    public void terminate(final String reason) {
+        cancel();
+    }
+
+    /**
+     * Returns the reason the command was or will be terminated for
+     *
+     * @return {@link #REASON_CANCELLED}, {@link #REASON_TIMED_OUT}, or null if the command was
+     *         not cancelled and did not time out
+     */
+    @Nullable
+    public final String getTerminationReason() {
+        return mTerminationReason;
+    }
+
+    /**
+     * Called when the command is queued
+     */
+    final void onQueued() {
+        mQueuedAt = System.nanoTime();
+    }
+
+    /**
+     * Returns the time after which the command should be terminated
+     *
+     * @return deadline in {@link SystemClock#elapsedRealtime()} time base, or 0 if none
+     */
+    final synchronized long getDeadline() {
+        return mDeadline;
+    }
+
+    /**
+     * Called by the shell before executing the command. Starts counting the timeout
+     *
+     * @param shell Shell the command is executed in
+     * @return false if the command must not be executed because the termination was requested
+     */
+    final synchronized boolean onExecutionStarted(@NonNull final ShellProcess shell) {
+        if (mTerminationReason != null) {
+            return false;
+        }
+        mShell = shell;
+        mStartedAt = System.nanoTime();
+        final long timeout = getTimeout();
+        mDeadline = timeout == TIMEOUT_NONE ? 0L : SystemClock.elapsedRealtime() + timeout;
+        return true;
+    }
+
+    final long getQueuedAt() {
+        return mQueuedAt;
+    }
+
+    final long getStartedAt() {
+        return mStartedAt;
+    }
+
+    /**
+     * Returns whether the command is being executed by the shell
+     *
+     * @param shell Shell to check
+     * @return true if the execution started in the shell and did not finish yet
+     */
+    final synchronized boolean isExecutingIn(@NonNull final ShellProcess shell) {
+        return mShell == shell;
+    }
+
+    /**
+     * Called by the shell when the command finished, before the listener is notified
+     */
+    final synchronized void onExecutionFinished() {
+        mShell = null;
+    }
+
+    /**
+     * Terminates the command for the reason. If the command is being executed, the shell
+     * executing it is killed, unless a read-only command is cancelled, which is drained instead
+     *
+     * @param reason termination reason
+     */
+    final void requestTermination(@NonNull final String reason) {
+        final ShellProcess shell;
+        synchronized (this) {
+            if (mTerminationReason != null) {
+                return;
+            }
+            mTerminationReason = reason;
+            shell = mShell;
+        }
+        if (shell != null) {
+            if (REASON_CANCELLED.equals(reason) && isReadOnly()) {
+                shell.drain(this);
+            } else {
+                shell.kill();
+            }
+        }
     }
 
     /**
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.commandline;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Commands that are executed in the same shell in a single round-trip.
+ * Every command receives it's own output and exit code. The batch itself completes after
+ * all commands complete, with exit code of the first failed command, or zero if all succeeded.
+ *
+ * The timeout and cancellation apply to the batch as a whole. The commands of the batch are
+ * terminated together with the batch, their own timeouts and cancellation are ignored.
+ * When a read-only batch is cancelled, the commands that were already written complete, and the
+ * rest are terminated without execution.
+ *
+ * @author Doctoror
+ */
+public final class CommandBatch extends Command {
+
+    @NonNull
+    private final List<Command> mCommands;
+
+    @NonNull
+    private final Lane mLane;
+
+    /**
+     * Creates batch of commands
+     *
+     * @param commands Commands to execute. Must not be empty
+     */
+    public CommandBatch(@NonNull final List<? extends Command> commands) {
+        super(buildCommand(commands));
+        mCommands = Collections.unmodifiableList(new ArrayList<Command>(commands));
+        Lane lane = Lane.INTERACTIVE;
+        for (final Command command : commands) {
+            if (command.getLane() == Lane.BACKGROUND) {
+                lane = Lane.BACKGROUND;
+                break;
+            }
+        }
+        mLane = lane;
+    }
+
+    @NonNull
+    private static String buildCommand(@NonNull final List<? extends Command> commands) {
+        if (commands.isEmpty()) {
+            throw new IllegalArgumentException("Batch must contain at least one command");
+        }
+        final StringBuilder command = new StringBuilder();
+        for (final Command c : commands) {
+            command.append(c.getCommand());
+        }
+        return command.toString();
+    }
+
+    @NonNull
+    List<Command> getCommands() {
+        return mCommands;
+    }
+
+    /**
+     * Returns {@link Lane#BACKGROUND} if any of the commands should be executed in background
+     * lane, {@link Lane#INTERACTIVE} otherwise
+     *
+     * @return lane of the shell pool
+     */
+    @Override
+    public Lane getLane() {
+        return mLane;
+    }
+
+    /**
+     * Returns true if all commands are read-only
+     *
+     * @return whether the batch has no side effects
+     */
+    @Override
+    public boolean isReadOnly() {
+        for (final Command command : mCommands) {
+            if (!command.isReadOnly()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
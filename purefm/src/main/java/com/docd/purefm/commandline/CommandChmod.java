@@ -47,7 +47,7 @@ public final class CommandChmod extends BusyboxCommand {
      * @param permissions Permissions to apply to path
      */
     public CommandChmod(final String path, final Permissions permissions) {
-        super("chmod " + CommandLineUtils.toOctalPermission(permissions) +
+        super("chmod " + permissions.toOctalString() +
                 " " + CommandLineUtils.getCommandLineString(path));
     }
 }
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.commandline;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * cp -rfp for many files to the same directory at once. See {@link BulkCommand}
+ */
+public final class CommandCopyAll extends BulkCommand {
+
+    private static final String APPLET = "cp";
+    private static final String OPTIONS = "-rfp";
+
+    /**
+     * Builds copy commands for the files
+     *
+     * @param sources Absolute paths of files to copy
+     * @param targetDir Absolute path of existing directory to copy the files to
+     * @return commands that copy all the files, in the order of the sources
+     */
+    @NonNull
+    public static List<CommandCopyAll> create(@NonNull final Collection<String> sources,
+                                              @NonNull final String targetDir) {
+        final List<List<String>> groups = split(sources, APPLET, OPTIONS, targetDir);
+        final List<CommandCopyAll> commands = new ArrayList<>(groups.size());
+        for (final List<String> group : groups) {
+            commands.add(new CommandCopyAll(group, targetDir));
+        }
+        return commands;
+    }
+
+    private CommandCopyAll(@NonNull final List<String> sources, @NonNull final String targetDir) {
+        super(APPLET + " " + OPTIONS, sources, targetDir);
+    }
+}
@@ -56,4 +56,11 @@ public final class CommandCopyRecursively extends BusyboxCommand {
         this.target = target;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Lane getLane() {
+        return Lane.BACKGROUND;
+    }
 }
@@ -14,6 +14,7 @@
  */
 package com.docd.purefm.commandline;
 
+import com.docd.purefm.Environment;
 import com.docd.purefm.file.GenericFile;
 
 import org.apache.commons.io.FileUtils;
@@ -25,10 +26,10 @@ import java.util.List;
  * du - estimate file space usage
  * -s  display only a total for each argument
  */
-public final class CommandDu extends BusyboxCommand {
+public final class CommandDu extends Command {
 
     public CommandDu(@NonNull final GenericFile file) {
-        super("du -s " + file.getAbsolutePath());
+        super(CommandLineBuilder.du(Environment.sBusybox, file.getAbsolutePath()));
     }
 
     public static long du_s(@NonNull final GenericFile file) {
@@ -53,4 +54,20 @@ public final class CommandDu extends BusyboxCommand {
             return 0L;
         }
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Lane getLane() {
+        return Lane.BACKGROUND;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
 }
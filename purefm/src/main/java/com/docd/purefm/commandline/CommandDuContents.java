@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.commandline;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.docd.purefm.Environment;
+import com.docd.purefm.file.GenericFile;
+import com.docd.purefm.settings.Settings;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * du - estimate file space usage
+ * -s  display only a total for each argument
+ *
+ * Prints total size of every directory in a directory, one line per directory, as soon as the
+ * size of the directory is computed. Directories which start with . are included if hidden files
+ * are enabled in {@link Settings}. Symlinks to directories are not followed.
+ *
+ * Output lines look like "1234\t./name", where size is in kilobytes
+ */
+public final class CommandDuContents extends Command {
+
+    /**
+     * Returns whether busybox has find and xargs applets
+     *
+     * @return true if this command can be executed
+     */
+    public static boolean isAvailable() {
+        return CommandLineUtils.isForEachChildAvailable();
+    }
+
+    public CommandDuContents(@NonNull final GenericFile dir,
+                             @NonNull final Settings settings) {
+        super(buildCommand(dir, settings));
+    }
+
+    private static String buildCommand(@NonNull final GenericFile file,
+                                       @NonNull final Settings settings) {
+        if (!file.isDirectory()) {
+            throw new RuntimeException("You should pass a directory here");
+        }
+        return CommandLineBuilder.duContents(Environment.sBusybox, file.getAbsolutePath(),
+                settings.listShowHiddenFilesEnabled());
+    }
+
+    /**
+     * Returns name of the directory of the output line
+     *
+     * @param line output line
+     * @return name of the directory, or null if the line is malformed
+     */
+    @Nullable
+    public static String getName(@NonNull final String line) {
+        final int tab = line.indexOf('\t');
+        if (tab == -1 || tab == line.length() - 1) {
+            return null;
+        }
+        int start = tab + 1;
+        if (line.startsWith("./", start)) {
+            start += 2;
+        }
+        int end = line.length();
+        while (end > start + 1 && line.charAt(end - 1) == '/') {
+            end--;
+        }
+        return start == end ? null : line.substring(start, end);
+    }
+
+    /**
+     * Returns size of the directory of the output line
+     *
+     * @param line output line
+     * @return size in bytes, or -1 if the line is malformed
+     */
+    public static long getSize(@NonNull final String line) {
+        final int tab = line.indexOf('\t');
+        if (tab <= 0) {
+            return -1L;
+        }
+        try {
+            return Long.parseLong(line.substring(0, tab)) * FileUtils.ONE_KB;
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Lane getLane() {
+        return Lane.BACKGROUND;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+}
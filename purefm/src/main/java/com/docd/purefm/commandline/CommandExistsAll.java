@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.commandline;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.List;
+
+/**
+ * test -e for many files at once. Prints index of every existing file, one per line.
+ * Symlinks are reported as existing even if their targets don't exist.
+ *
+ * The test is a shell builtin, so the paths are not limited by the argument length.
+ */
+public final class CommandExistsAll extends Command {
+
+    /**
+     * Builds test -e command for multiple paths
+     *
+     * @param paths Paths of files to test
+     */
+    public CommandExistsAll(@NonNull final List<String> paths) {
+        super(buildCommand(paths));
+    }
+
+    @NonNull
+    private static String buildCommand(@NonNull final List<String> paths) {
+        final StringBuilder command = new StringBuilder(paths.size() * 32 + 80);
+        command.append("i=0; for f in");
+        for (final String path : paths) {
+            command.append(' ');
+            command.append(CommandLineUtils.getCommandLineString(path));
+        }
+        command.append("; do if [ -e \"$f\" ] || [ -L \"$f\" ]; then echo $i; fi; ");
+        command.append("i=$((i+1)); done");
+        return command.toString();
+    }
+
+    /**
+     * Tests whether the files exist
+     *
+     * @param paths Paths of files to test
+     * @return whether every file exists, in the order of the paths, or null if the command failed
+     */
+    @Nullable
+    public static boolean[] exist(@NonNull final List<String> paths) {
+        final boolean[] exist = new boolean[paths.size()];
+        if (paths.isEmpty()) {
+            return exist;
+        }
+        final List<String> result = CommandLine.executeForResult(new CommandExistsAll(paths));
+        if (result == null) {
+            return null;
+        }
+        for (final String line : result) {
+            try {
+                final int index = Integer.parseInt(line.trim());
+                if (index >= 0 && index < exist.length) {
+                    exist[index] = true;
+                }
+            } catch (NumberFormatException e) {
+                // output can't be matched with the input paths
+                return null;
+            }
+        }
+        return exist;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+}
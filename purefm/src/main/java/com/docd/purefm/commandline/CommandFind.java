@@ -16,6 +16,8 @@ package com.docd.purefm.commandline;
 
 import android.support.annotation.NonNull;
 
+import com.docd.purefm.Environment;
+
 /**
  * find - search for files in a directory hierarchy
  *
@@ -32,21 +34,16 @@ import android.support.annotation.NonNull;
  *            p      named pipe (FIFO)
  *            f      regular file
  *
- * -exec command ;
- *            Execute  command;  true if 0 status is returned.  All following arguments to
- *            find are taken to be arguments to the command until an  argument  consisting
- *            of `;' is encountered.  The string `{}' is replaced by the current file name
- *            being processed everywhere it occurs in the arguments to  the  command,  not
- *            just  in  arguments where it is alone, as in some versions of find.  Both of
- *            these constructions might need to be escaped (with a `\') or quoted to  pro‐
- *            tect  them  from expansion by the shell.  See the EXAMPLES section for exam‐
- *            ples of the use of the -exec option.  The specified command is run once  for
- *            each  matched  file.   The  command  is  executed in the starting directory.
- *            There are unavoidable security problems surrounding use of the -exec action;
- *            you should use the -execdir option instead.
+ * -print0
+ *            Print the full file name on the standard output, followed by a null character
  *
+ * The found files are passed to a single stat or ls -lApedn through xargs, which runs as few
+ * processes as the argument length allows, instead of running a process per found file.
+ * If busybox has no xargs, falls back to -exec for every found file.
  */
-public final class CommandFind extends BusyboxCommand {
+public final class CommandFind extends Command {
+
+    private final boolean mStatOutput;
 
     /**
      * Builds find command
@@ -56,24 +53,41 @@ public final class CommandFind extends BusyboxCommand {
      */
     public CommandFind(@NonNull final String startDirectory,
                        @NonNull final String... what) {
-        super(buildCommand(startDirectory, what));
+        this(startDirectory, what, CommandStatContents.isAvailable() &&
+                Environment.isBusyboxUtilAvailable("xargs"));
+    }
+
+    private CommandFind(@NonNull final String startDirectory,
+                        @NonNull final String[] what,
+                        final boolean statOutput) {
+        super(CommandLineBuilder.find(Environment.sBusybox, startDirectory, what, statOutput,
+                Environment.isBusyboxUtilAvailable("xargs")));
+        mStatOutput = statOutput;
+    }
+
+    /**
+     * Returns the format of output lines
+     *
+     * @return true if the lines are in {@link CommandStatContents#FORMAT}, where the name is
+     *         the full path. Otherwise the lines are ls -lApedn output
+     */
+    public boolean isStatOutput() {
+        return mStatOutput;
+    }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Lane getLane() {
+        return Lane.BACKGROUND;
     }
 
-    private static String buildCommand(@NonNull final String startDirectory, @NonNull final String[] what) {
-        final StringBuilder command = new StringBuilder();
-        command.append("find ");
-        command.append(CommandLineUtils.getCommandLineString(startDirectory));
-        for (int i = 0; i < what.length; i++) {
-            command.append(" -type f -iname ");
-            command.append('*');
-            command.append(CommandLineUtils.getCommandLineString(what[i]));
-            command.append('*');
-            command.append(" -exec busybox ls -lApedn {} \\;");
-            if (i != what.length - 1) {
-                command.append(" -o");
-            }
-        }
-        return command.toString();
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isReadOnly() {
+        return true;
     }
 }
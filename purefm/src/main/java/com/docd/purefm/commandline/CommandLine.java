@@ -17,11 +17,17 @@ package com.docd.purefm.commandline;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import com.stericson.RootTools.RootTools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
 /**
- * Executes Shell commands and waits for termination
+ * Executes Shell commands and waits for termination.
+ * Commands may be executed from multiple threads concurrently, each is executed in a shell of
+ * the lane returned by {@link Command#getLane()}
  *
  * @author Doctoror
  */
@@ -29,10 +35,15 @@ public final class CommandLine {
 
     private static final int EXIT_CODE_SUCCESS = 0;
 
+    /**
+     * Number of output lines buffered by {@link #executeForOutput(Command)}
+     */
+    private static final int OUTPUT_CAPACITY = 256;
+
     private CommandLine() {}
 
     @Nullable
-    public static synchronized List<String> executeForResult(@NonNull final Command command) {
+    public static List<String> executeForResult(@NonNull final Command command) {
         final List<String> result = new LinkedList<>();
         final ExecutionStatus status = new ExecutionStatus();
         command.setCommandListener(new Command.CommandListener() {
@@ -51,8 +62,8 @@ public final class CommandLine {
 
             @Override
             public void commandCompleted(int i, int exitCode) {
-                status.exitCode = exitCode;
                 synchronized (status) {
+                    status.exitCode = exitCode;
                     status.finished = true;
                     status.notify();
                 }
@@ -65,7 +76,8 @@ public final class CommandLine {
                     try {
                         status.wait();
                     } catch (InterruptedException e) {
-                        command.terminate("Interrupted");
+                        command.cancel();
+                        Thread.currentThread().interrupt();
                     }
                 }
             }
@@ -76,7 +88,7 @@ public final class CommandLine {
         return null;
     }
 
-    public static synchronized boolean execute(@NonNull final Command command) {
+    public static boolean execute(@NonNull final Command command) {
         final ExecutionStatus status = new ExecutionStatus();
         command.setCommandListener(new Command.CommandListener() {
             @Override
@@ -94,8 +106,8 @@ public final class CommandLine {
 
             @Override
             public void commandCompleted(int id, int exitCode) {
-                status.exitCode = exitCode;
                 synchronized (status) {
+                    status.exitCode = exitCode;
                     status.finished = true;
                     status.notify();
                 }
@@ -108,7 +120,8 @@ public final class CommandLine {
                     try {
                         status.wait();
                     } catch (InterruptedException e) {
-                        command.terminate("Interrupted");
+                        command.cancel();
+                        Thread.currentThread().interrupt();
                     }
                 }
             }
@@ -117,6 +130,165 @@ public final class CommandLine {
         return false;
     }
 
+    /**
+     * Starts executing the command and returns it's output that can be consumed while the command
+     * is still running. See {@link CommandOutput} for details.
+     *
+     * The command is not timed out, since a slow consumer holds it back. It is cancelled when
+     * the output is closed before the command finishes
+     *
+     * @param command Command to execute
+     * @return output of the command, or null if there is no shell to execute the command in
+     */
+    @Nullable
+    public static CommandOutput executeForOutput(@NonNull final Command command) {
+        command.setTimeout(Command.TIMEOUT_NONE);
+        final CommandOutput output = new CommandOutput(command, OUTPUT_CAPACITY);
+        if (ShellHolder.getInstance().execute(command)) {
+            return output;
+        }
+        return null;
+    }
+
+    /**
+     * Executes the commands in the same shell in a single round-trip
+     * and waits for all of them to complete
+     *
+     * @param commands Commands to execute
+     * @return outputs of the commands in the same order. The output of a command that failed
+     *         is null
+     */
+    @NonNull
+    public static List<List<String>> executeForResults(
+            @NonNull final List<? extends Command> commands) {
+        final int size = commands.size();
+        final List<List<String>> results = new ArrayList<>(size);
+        if (size == 0) {
+            return results;
+        }
+        final int[] exitCodes = new int[size];
+        Arrays.fill(exitCodes, -1);
+        for (int i = 0; i < size; i++) {
+            final List<String> result = new LinkedList<>();
+            final int index = i;
+            commands.get(i).setCommandListener(new Command.CommandListener() {
+                @Override
+                public void commandOutput(int id, String line) {
+                    result.add(line);
+                }
+
+                @Override
+                public void commandTerminated(int id, String reason) {
+
+                }
+
+                @Override
+                public void commandCompleted(int id, int exitCode) {
+                    exitCodes[index] = exitCode;
+                }
+            });
+            results.add(result);
+        }
+        // exit codes are written before the batch completes and are visible after execute returns
+        execute(new CommandBatch(commands));
+        for (int i = 0; i < size; i++) {
+            if (exitCodes[i] != EXIT_CODE_SUCCESS) {
+                results.set(i, null);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Executes the commands in the same shell in a single round-trip
+     * and waits for all of them to complete
+     *
+     * @param commands Commands to execute
+     * @return whether each command completed successfully, in the same order as commands
+     */
+    @NonNull
+    public static boolean[] execute(@NonNull final List<? extends Command> commands) {
+        final List<List<String>> results = executeForResults(commands);
+        final int size = results.size();
+        final boolean[] succeeded = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            succeeded[i] = results.get(i) != null;
+        }
+        return succeeded;
+    }
+
+    /**
+     * Executes the bulk command and waits for it to complete
+     *
+     * @param command Command to execute
+     * @return sources the command failed for. All sources if the command was not executed
+     */
+    @NonNull
+    public static List<String> execute(@NonNull final BulkCommand command) {
+        final List<String> output = new ArrayList<>();
+        final ExecutionStatus status = new ExecutionStatus();
+        command.setCommandListener(new Command.CommandListener() {
+            @Override
+            public void commandOutput(int id, String line) {
+                output.add(line);
+            }
+
+            @Override
+            public void commandTerminated(int id, String reason) {
+                synchronized (status) {
+                    status.finished = true;
+                    status.notify();
+                }
+            }
+
+            @Override
+            public void commandCompleted(int id, int exitCode) {
+                synchronized (status) {
+                    status.exitCode = exitCode;
+                    status.finished = true;
+                    status.notify();
+                }
+            }
+        });
+
+        if (ShellHolder.getInstance().execute(command)) {
+            synchronized (status) {
+                if (!status.finished) {
+                    try {
+                        status.wait();
+                    } catch (InterruptedException e) {
+                        command.cancel();
+                        Thread.currentThread().interrupt();
+                        return command.getSources();
+                    }
+                }
+            }
+            final List<String> failed = command.getFailedSources(output, status.exitCode);
+            if (failed != null) {
+                return failed;
+            }
+            // the failures are not in the output, so the results are checked on the file system
+            final boolean[] exist = CommandExistsAll.exist(command.getCheckedPaths());
+            return exist == null ? command.getSources() : command.getFailedSources(exist);
+        }
+        return command.getSources();
+    }
+
+    /**
+     * Remounts the file system that contains the path and invalidates cached probes.
+     * Writers should acquire a {@link RemountManager.Lease} instead, so that concurrent
+     * writers don't restore the mount type under each other
+     *
+     * @param path path on the file system to remount
+     * @param mountType "RW" or "RO"
+     * @return true if the file system was remounted
+     */
+    public static boolean remount(@NonNull final String path, @NonNull final String mountType) {
+        final boolean result = RootTools.remount(path, mountType);
+        ProbeCache.invalidateAll();
+        return result;
+    }
+
     public static boolean execute(@NonNull final String command) {
         return ShellHolder.getInstance().execute(new Command(ShellHolder.getNextCommandId(), command));
     }
@@ -125,45 +297,4 @@ public final class CommandLine {
         public int exitCode = -1;
         public boolean finished;
     }
-
-//    private static String writeCommand(final String command, final DataOutputStream outputStream) throws IOException {
-//        /*
-//         * Termination string should also contain symbols not allowed in filesystems to reduce
-//         * possibility of misinterpreting the stdout output with termination string using ls command
-//         */
-//        final String terminationLine = "/:" + new String(Hex.encodeHex(DigestUtils.md5(command)));
-//        outputStream.writeBytes(appendTerminationCommands(command, terminationLine));
-//        outputStream.flush();
-//        return terminationLine;
-//    }
-//
-//    private static String appendTerminationCommands(final String command, final String terminationString) {
-//        return command + ";echo \"" + terminationString + "\";echo $?\n";
-//    }
-//
-//    private static boolean cleanInputStream(final BufferedReader reader, final String terminationLine) throws IOException {
-//        String line;
-//        while ((line = reader.readLine()) != null && !line.equals(terminationLine));
-//        final String errorCode = reader.readLine();
-//        try {
-//            return Integer.parseInt(errorCode) == 0;
-//        } catch (NumberFormatException e) {
-//            Log.w("inputStreamToStringList", "Expected error code, but received \'" + errorCode + "\'");
-//            return false;
-//        }
-//    }
-//
-//    private static boolean inputStreamToStringList(final BufferedReader reader, final String terminationLine, final List<String> target) throws IOException {
-//        String line;
-//        while ((line = reader.readLine()) != null && !line.equals(terminationLine)) {
-//            target.add(line);
-//        }
-//        final String errorCode = reader.readLine();
-//        try {
-//            return Integer.parseInt(errorCode) == 0;
-//        } catch (NumberFormatException e) {
-//            Log.w("inputStreamToStringList", "Expected error code, but received \'" + errorCode + "\'");
-//            return false;
-//        }
-//    }
 }
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.commandline;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Builds command lines of listing, search and size commands.
+ *
+ * Doesn't depend on the Android framework, so that the same command lines are measured by
+ * the benchmarks. The applets are run from the busybox passed to every method, or found in
+ * PATH if the busybox is null.
+ *
+ * @author Doctoror
+ */
+final class CommandLineBuilder {
+
+    private CommandLineBuilder(){}
+
+    /**
+     * Output line format of stat. Fields are separated by '/' that can't be a part of a file name:
+     *
+     * 0 raw mode in hex, including file type bits
+     * 1 user ID of owner
+     * 2 group ID of owner
+     * 3 total size in bytes
+     * 4 time of last modification, seconds since Epoch
+     * 5 inode number
+     * 6 device number in decimal
+     * 7 file name, prefixed with ./ in directory listings
+     */
+    static final String STAT_FORMAT = "%f/%u/%g/%s/%Y/%i/%d/%n";
+
+    private static final String UNIX_ESCAPE_EXPRESSION = "(\\(|\\)|\\[|\\]|\\s|\'|\"|`|\\{|\\}|&|\\\\|\\?)";
+
+    /**
+     * Adds escaping. Used for file paths.
+     *
+     * @param input Input command line param
+     * @return input string with escaped characters
+     */
+    @NonNull
+    static String escape(@NonNull final String input) {
+        return input.replaceAll(UNIX_ESCAPE_EXPRESSION, "\\\\$1");
+    }
+
+    /**
+     * Builds a command that prints stat of every entry of the directory in {@link #STAT_FORMAT}
+     *
+     * @param busybox path of busybox
+     * @param directory absolute path of the directory
+     * @param hidden whether to include entries which start with .
+     * @return command line
+     */
+    @NonNull
+    static String statContents(@Nullable final String busybox,
+                               @NonNull final String directory,
+                               final boolean hidden) {
+        // The subshell prevents cd from changing the working directory of the shell.
+        final StringBuilder command = new StringBuilder(200);
+        command.append("(cd ");
+        command.append(escape(directory));
+        command.append(" && [ -r . ] && { ");
+        appendForEachChild(command, busybox, "stat -c '" + STAT_FORMAT + '\'', hidden, false);
+        command.append("; })");
+        return command.toString();
+    }
+
+    /**
+     * Builds a command that prints du -s of every directory in the directory
+     *
+     * @param busybox path of busybox
+     * @param directory absolute path of the directory
+     * @param hidden whether to include directories which start with .
+     * @return command line
+     */
+    @NonNull
+    static String duContents(@Nullable final String busybox,
+                             @NonNull final String directory,
+                             final boolean hidden) {
+        final StringBuilder command = new StringBuilder(200);
+        command.append("(cd ");
+        command.append(escape(directory));
+        command.append(" && { ");
+        appendForEachChild(command, busybox, "du -s", hidden, true);
+        command.append("; })");
+        return command.toString();
+    }
+
+    /**
+     * Builds a command that prints total size of the file
+     *
+     * @param busybox path of busybox
+     * @param path absolute path of the file
+     * @return command line
+     */
+    @NonNull
+    static String du(@Nullable final String busybox, @NonNull final String path) {
+        final StringBuilder command = new StringBuilder(100);
+        appendApplet(command, busybox, "du -s ");
+        command.append(escape(path));
+        return command.toString();
+    }
+
+    /**
+     * Builds a command that finds regular files which names contain any of the patterns,
+     * ignoring case
+     *
+     * @param busybox path of busybox
+     * @param startDirectory Directory to search in
+     * @param what Names of files to find
+     * @param statOutput whether to print found files in {@link #STAT_FORMAT}, otherwise with ls
+     * @param xargs whether xargs is available. Otherwise ls is executed for every found file
+     * @return command line
+     */
+    @NonNull
+    static String find(@Nullable final String busybox,
+                       @NonNull final String startDirectory,
+                       @NonNull final String[] what,
+                       final boolean statOutput,
+                       final boolean xargs) {
+        final StringBuilder command = new StringBuilder(200);
+        appendApplet(command, busybox, "find ");
+        command.append(escape(startDirectory));
+        command.append(" -type f \\(");
+        for (int i = 0; i < what.length; i++) {
+            if (i != 0) {
+                command.append(" -o");
+            }
+            // the wildcards are escaped so that the shell doesn't expand them
+            command.append(" -iname \\*");
+            command.append(escape(what[i]));
+            command.append("\\*");
+        }
+        command.append(" \\)");
+        if (statOutput && xargs) {
+            command.append(" -print0 | ");
+            appendApplet(command, busybox, "xargs -0 -r ");
+            appendApplet(command, busybox, "stat -c '");
+            command.append(STAT_FORMAT);
+            command.append("' --");
+        } else if (xargs) {
+            command.append(" -print0 | ");
+            appendApplet(command, busybox, "xargs -0 -r ");
+            appendApplet(command, busybox, "ls -lApedn --");
+        } else {
+            command.append(" -exec ");
+            appendApplet(command, busybox, "ls -lApedn {} \\;");
+        }
+        return command.toString();
+    }
+
+    /**
+     * Appends a command that executes busybox applet with the entries of the working directory
+     * as arguments. Unlike a glob, that puts every entry into a single argument list and fails
+     * with E2BIG on large directories, xargs runs the applet as many times as the argument
+     * length limit requires. The entries are passed as ./name.
+     *
+     * Entries that can't be processed make the applet exit with 1, and xargs with 123, so the
+     * appended command fails only on greater exit codes.
+     *
+     * @param command Command to append to
+     * @param busybox path of busybox
+     * @param applet busybox applet with options
+     * @param hidden whether to include entries which start with .
+     * @param directoriesOnly whether to include only directories, not following symlinks
+     */
+    private static void appendForEachChild(@NonNull final StringBuilder command,
+                                           @Nullable final String busybox,
+                                           @NonNull final String applet,
+                                           final boolean hidden,
+                                           final boolean directoriesOnly) {
+        appendApplet(command, busybox, "find . -mindepth 1 -maxdepth 1");
+        if (directoriesOnly) {
+            command.append(" -type d");
+        }
+        if (!hidden) {
+            command.append(" ! -name '.*'");
+        }
+        command.append(" -print0 2>/dev/null | ");
+        appendApplet(command, busybox, "xargs -0 -r ");
+        appendApplet(command, busybox, applet);
+        command.append(" -- 2>/dev/null; s=$?; [ $s -le 1 ] || [ $s -eq 123 ]");
+    }
+
+    private static void appendApplet(@NonNull final StringBuilder command,
+                                     @Nullable final String busybox,
+                                     @NonNull final String applet) {
+        if (busybox != null) {
+            command.append(busybox);
+            command.append(' ');
+        }
+        command.append(applet);
+    }
+}
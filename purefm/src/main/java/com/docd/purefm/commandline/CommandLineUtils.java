@@ -15,8 +15,6 @@
 package com.docd.purefm.commandline;
 
 import com.docd.purefm.Environment;
-import com.docd.purefm.file.Permissions;
-import com.stericson.RootTools.RootTools;
 
 import android.support.annotation.NonNull;
 
@@ -29,8 +27,6 @@ final class CommandLineUtils {
 
     private CommandLineUtils(){}
 
-    private static final String UNIX_ESCAPE_EXPRESSION = "(\\(|\\)|\\[|\\]|\\s|\'|\"|`|\\{|\\}|&|\\\\|\\?)";
-
     /**
      * Adds escaping. Used for file paths.
      *
@@ -38,73 +34,34 @@ final class CommandLineUtils {
      * @return input string with escaped characters
      */
     public static String getCommandLineString(String input) {
-        return input.replaceAll(UNIX_ESCAPE_EXPRESSION, "\\\\$1");
+        return CommandLineBuilder.escape(input);
     }
 
     /**
-     * Returns octal-formatted permission
+     * Returns whether the commands which are executed for each child of a directory
+     * can be built by {@link CommandLineBuilder} with this busybox
      *
-     * @param p Permissions to generate octal format for
-     * @return octal-formatted permission representation
+     * @return true if busybox has find and xargs applets
      */
-    @NonNull
-    static String toOctalPermission(final Permissions p) {
-        byte user = 00;
-        byte group = 00;
-        byte other = 00;
-        
-        if (p.ur) {
-            user += 04;
-        }
-        if (p.uw) {
-            user += 02;
-        }
-        if (p.ux) {
-            user += 01;
-        }
-        
-        if (p.gr) {
-            group += 04;
-        }
-        if (p.gw) {
-            group += 02;
-        }
-        if (p.gx) {
-            group += 01;
-        }
-        
-        if (p.or) {
-            other += 04;
-        }
-        if (p.ow) {
-            other += 02;
-        }
-        if (p.ox) {
-            other += 01;
-        }
-        
-        @SuppressWarnings("StringBufferReplaceableByString")
-        final StringBuilder perm = new StringBuilder(3);
-        perm.append(user);
-        perm.append(group);
-        perm.append(other);
-        
-        return perm.toString();
+    static boolean isForEachChildAvailable() {
+        return Environment.isBusyboxUtilAvailable("find") &&
+                Environment.isBusyboxUtilAvailable("xargs");
     }
 
     public static boolean copyRecursively(@NonNull final CommandCopyRecursively command) {
-        final boolean wasRemounted;
+        final RemountManager.Lease lease;
         if (command.target.startsWith(Environment.sAndroidRootDirectory.getAbsolutePath())) {
-            RootTools.remount(command.target, "RW");
-            wasRemounted = true;
+            lease = RemountManager.getInstance().acquire(command.target);
         } else {
-            wasRemounted = false;
+            lease = null;
         }
-        final boolean result = CommandLine.execute(command);
-        if (wasRemounted) {
-            RootTools.remount(command.target, "RO");
+        try {
+            return CommandLine.execute(command);
+        } finally {
+            if (lease != null) {
+                lease.release();
+            }
         }
-        return result;
     }
     
 //    public static String printPermission(final boolean su, final File file) {
@@ -57,4 +57,12 @@ public final class CommandListContents extends BusyboxCommand {
         }
         return command.toString();
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
 }
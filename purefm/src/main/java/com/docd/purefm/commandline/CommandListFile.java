@@ -51,4 +51,12 @@ public final class CommandListFile extends BusyboxCommand {
         }
         return command.toString();
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
 }
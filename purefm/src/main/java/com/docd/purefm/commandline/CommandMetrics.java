@@ -0,0 +1,327 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.commandline;
+
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects execution metrics of shell commands per {@link Command} class: time spent in the queue,
+ * execution time, output size and outcome counts.
+ *
+ * Values are kept in histograms with power of two buckets, so recording is a few atomic
+ * increments and doesn't allocate. Percentiles are therefore approximate, reported as the upper
+ * bound of the bucket.
+ */
+public final class CommandMetrics {
+
+    /**
+     * How the command finished
+     */
+    enum Outcome {
+        SUCCEEDED, FAILED, TIMED_OUT, CANCELLED, TERMINATED
+    }
+
+    private static final ConcurrentMap<Class<? extends Command>, Stats> sStats =
+            new ConcurrentHashMap<>();
+
+    private static volatile long sSince = System.currentTimeMillis();
+
+    private CommandMetrics() {}
+
+    /**
+     * Records execution of a command
+     *
+     * @param command Command class
+     * @param queueNanos Time the command spent in the queue
+     * @param executionNanos Time the command was executed, 0 if not executed
+     * @param lines Number of output lines
+     * @param bytes Number of output bytes, not including line separators
+     * @param outcome How the command finished
+     */
+    static void record(@NonNull final Class<? extends Command> command,
+                       final long queueNanos,
+                       final long executionNanos,
+                       final int lines,
+                       final long bytes,
+                       @NonNull final Outcome outcome) {
+        Stats stats = sStats.get(command);
+        if (stats == null) {
+            final Stats created = new Stats(command.getSimpleName().isEmpty() ?
+                    command.getName() : command.getSimpleName());
+            stats = sStats.putIfAbsent(command, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        stats.record(queueNanos, executionNanos, lines, bytes, outcome);
+    }
+
+    /**
+     * Records a queued command that was terminated without being executed
+     *
+     * @param command Command that was not executed
+     * @param outcome Why the command was not executed
+     */
+    static void recordNotExecuted(@NonNull final Command command,
+                                  @NonNull final Outcome outcome) {
+        record(command.getClass(), System.nanoTime() - command.getQueuedAt(), 0L, 0, 0L, outcome);
+    }
+
+    /**
+     * Returns outcome of the completed command by the exit code
+     *
+     * @param exitCode exit code of the completed command
+     * @return outcome of the completed command
+     */
+    @NonNull
+    static Outcome outcomeOf(final int exitCode) {
+        return exitCode == 0 ? Outcome.SUCCEEDED : Outcome.FAILED;
+    }
+
+    /**
+     * Returns outcome of the terminated command
+     *
+     * @param terminationReason termination reason returned by
+     *                          {@link Command#getTerminationReason()}
+     * @return outcome of the terminated command
+     */
+    @NonNull
+    static Outcome outcomeOf(final String terminationReason) {
+        if (Command.REASON_TIMED_OUT.equals(terminationReason)) {
+            return Outcome.TIMED_OUT;
+        }
+        if (Command.REASON_CANCELLED.equals(terminationReason)) {
+            return Outcome.CANCELLED;
+        }
+        return Outcome.TERMINATED;
+    }
+
+    /**
+     * Returns number of UTF-8 bytes of the string
+     *
+     * @param line String to count bytes of
+     * @return number of bytes the string takes in UTF-8
+     */
+    static int utf8Length(@NonNull final String line) {
+        final int length = line.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            final char c = line.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    bytes++;
+                } else if (Character.isHighSurrogate(c)) {
+                    // four bytes for two chars
+                    bytes += 2;
+                    i++;
+                } else if (!ShellOutputReader.isEscapedByte(c)) {
+                    bytes += 2;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Discards all collected metrics
+     */
+    public static void reset() {
+        sStats.clear();
+        sSince = System.currentTimeMillis();
+    }
+
+    /**
+     * Writes collected metrics as text. Command classes are ordered by total execution time,
+     * the most expensive first.
+     *
+     * @param writer Writer to write to
+     */
+    public static void dump(@NonNull final Writer writer) {
+        final PrintWriter out = new PrintWriter(writer);
+        out.println("Command metrics since " + new Date(sSince));
+        out.println("Times are in milliseconds, percentiles are upper bounds");
+        final List<Stats> stats = new ArrayList<>(sStats.values());
+        Collections.sort(stats, new Comparator<Stats>() {
+            @Override
+            public int compare(final Stats lhs, final Stats rhs) {
+                final long l = lhs.mExecution.getSum();
+                final long r = rhs.mExecution.getSum();
+                return l < r ? 1 : (l == r ? 0 : -1);
+            }
+        });
+        for (final Stats s : stats) {
+            out.println();
+            s.dump(out);
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes collected metrics as text to the file, overwriting it
+     *
+     * @param file File to write to
+     * @throws IOException if failed to write
+     */
+    public static void dump(@NonNull final File file) throws IOException {
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            dump(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Metrics of a command class
+     */
+    private static final class Stats {
+
+        private final String mName;
+
+        private final AtomicLongArray mOutcomes = new AtomicLongArray(Outcome.values().length);
+        private final AtomicLong mLines = new AtomicLong();
+
+        private final Histogram mQueue = new Histogram();
+        private final Histogram mExecution = new Histogram();
+        private final Histogram mBytes = new Histogram();
+
+        Stats(@NonNull final String name) {
+            mName = name;
+        }
+
+        void record(final long queueNanos,
+                    final long executionNanos,
+                    final int lines,
+                    final long bytes,
+                    @NonNull final Outcome outcome) {
+            mOutcomes.incrementAndGet(outcome.ordinal());
+            mQueue.add(TimeUnit.NANOSECONDS.toMicros(queueNanos));
+            if (executionNanos != 0L) {
+                mExecution.add(TimeUnit.NANOSECONDS.toMicros(executionNanos));
+                mLines.addAndGet(lines);
+                mBytes.add(bytes);
+            }
+        }
+
+        void dump(@NonNull final PrintWriter out) {
+            out.println(mName);
+            out.print(" ");
+            for (final Outcome outcome : Outcome.values()) {
+                out.print(' ');
+                out.print(outcome.name().toLowerCase());
+                out.print(' ');
+                out.print(mOutcomes.get(outcome.ordinal()));
+            }
+            out.println();
+            out.println("  queue     " + mQueue.toString(1000));
+            out.println("  execution " + mExecution.toString(1000));
+            out.println("  bytes     " + mBytes.toString(1) + " lines " + mLines.get());
+        }
+    }
+
+    /**
+     * Histogram of non-negative values with power of two buckets. Bucket n holds values
+     * in range [2^(n-1), 2^n), bucket 0 holds zeroes.
+     */
+    private static final class Histogram {
+
+        private static final int BUCKETS = 48;
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        void add(final long value) {
+            final long v = value < 0L ? 0L : value;
+            final int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(v));
+            mBuckets.incrementAndGet(bucket);
+            mCount.incrementAndGet();
+            mSum.addAndGet(v);
+            long max;
+            while ((max = mMax.get()) < v && !mMax.compareAndSet(max, v)) {
+                // retry
+            }
+        }
+
+        long getSum() {
+            return mSum.get();
+        }
+
+        /**
+         * Returns the upper bound of the bucket that contains the percentile
+         *
+         * @param percentile percentile in range (0, 1]
+         * @return upper bound of the percentile value
+         */
+        long getPercentile(final double percentile) {
+            final long count = mCount.get();
+            if (count == 0L) {
+                return 0L;
+            }
+            final long rank = (long) Math.ceil(count * percentile);
+            long seen = 0L;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += mBuckets.get(i);
+                if (seen >= rank) {
+                    return i == 0 ? 0L : Math.min(1L << i, mMax.get());
+                }
+            }
+            return mMax.get();
+        }
+
+        @NonNull
+        String toString(final long divisor) {
+            final long count = mCount.get();
+            final StringBuilder result = new StringBuilder(96);
+            result.append("count ").append(count);
+            if (count != 0L) {
+                result.append(" mean ").append(format(mSum.get() / count, divisor));
+                result.append(" p50 ").append(format(getPercentile(0.5), divisor));
+                result.append(" p90 ").append(format(getPercentile(0.9), divisor));
+                result.append(" p99 ").append(format(getPercentile(0.99), divisor));
+                result.append(" max ").append(format(mMax.get(), divisor));
+                result.append(" total ").append(format(mSum.get(), divisor));
+            }
+            return result.toString();
+        }
+
+        @NonNull
+        private static String format(final long value, final long divisor) {
+            if (divisor == 1L) {
+                return Long.toString(value);
+            }
+            return String.format(Locale.US, "%.1f", (double) value / divisor);
+        }
+    }
+}
@@ -49,4 +49,12 @@ public final class CommandMove extends BusyboxCommand {
         this.source = source;
         this.target = target;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Lane getLane() {
+        return Lane.BACKGROUND;
+    }
 }
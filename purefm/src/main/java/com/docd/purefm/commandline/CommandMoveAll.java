@@ -0,0 +1,52 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.commandline;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * mv -f for many files to the same directory at once. See {@link BulkCommand}
+ */
+public final class CommandMoveAll extends BulkCommand {
+
+    private static final String APPLET = "mv";
+    private static final String OPTIONS = "-f";
+
+    /**
+     * Builds move commands for the files
+     *
+     * @param sources Absolute paths of files to move
+     * @param targetDir Absolute path of existing directory to move the files to
+     * @return commands that move all the files, in the order of the sources
+     */
+    @NonNull
+    public static List<CommandMoveAll> create(@NonNull final Collection<String> sources,
+                                              @NonNull final String targetDir) {
+        final List<List<String>> groups = split(sources, APPLET, OPTIONS, targetDir);
+        final List<CommandMoveAll> commands = new ArrayList<>(groups.size());
+        for (final List<String> group : groups) {
+            commands.add(new CommandMoveAll(group, targetDir));
+        }
+        return commands;
+    }
+
+    private CommandMoveAll(@NonNull final List<String> sources, @NonNull final String targetDir) {
+        super(APPLET + " " + OPTIONS, sources, targetDir);
+    }
+}
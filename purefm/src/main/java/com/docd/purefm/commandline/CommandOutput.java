@@ -0,0 +1,216 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.commandline;
+
+import android.support.annotation.NonNull;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Output of a command that is still being executed. Iterates over the output lines as they are
+ * printed by the command.
+ *
+ * At most capacity lines are buffered. When the buffer is full, the shell stops reading the
+ * command output until the lines are consumed, so a slow consumer holds the command back instead
+ * of the whole output being collected in memory.
+ *
+ * The shell executing the command is occupied until the output is consumed or closed. The consumer
+ * must not wait for other commands of the same lane while iterating, or it may wait forever.
+ * Closing the output before the command finishes cancels the command. A read-only command that
+ * is already being executed completes in background with the output discarded, without
+ * replacing the shell, see {@link Command#isReadOnly()}.
+ *
+ * @author Doctoror
+ */
+public final class CommandOutput implements Iterator<String>, Closeable {
+
+    private static final int EXIT_CODE_SUCCESS = 0;
+
+    /**
+     * Marks the end of output in the queue. Compared by reference.
+     */
+    @SuppressWarnings("RedundantStringConstructorCall")
+    private static final String END = new String("");
+
+    @NonNull
+    private final Command mCommand;
+
+    private final BlockingQueue<String> mLines;
+
+    private volatile boolean mIsClosed;
+
+    /**
+     * Guarded by this
+     */
+    private boolean mIsFinished;
+
+    /**
+     * Guarded by this
+     */
+    private int mExitCode = -1;
+
+    private String mNext;
+    private boolean mIsEndReached;
+
+    CommandOutput(@NonNull final Command command, final int capacity) {
+        mCommand = command;
+        mLines = new ArrayBlockingQueue<>(capacity);
+        command.setCommandListener(new Command.CommandListener() {
+            @Override
+            public void commandOutput(final int id, final String line) {
+                if (!mIsClosed) {
+                    put(line);
+                }
+            }
+
+            @Override
+            public void commandTerminated(final int id, final String reason) {
+                finish(-1);
+            }
+
+            @Override
+            public void commandCompleted(final int id, final int exitCode) {
+                finish(exitCode);
+            }
+        });
+    }
+
+    private void put(@NonNull final String line) {
+        try {
+            mLines.put(line);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void finish(final int exitCode) {
+        synchronized (this) {
+            mExitCode = exitCode;
+            mIsFinished = true;
+            notifyAll();
+        }
+        if (!mIsClosed) {
+            put(END);
+        }
+    }
+
+    /**
+     * Returns true if there are more output lines. Blocks until the next line is printed or
+     * the command finishes
+     *
+     * @return true if there are more output lines
+     */
+    @Override
+    public boolean hasNext() {
+        if (mNext != null) {
+            return true;
+        }
+        if (mIsEndReached || mIsClosed) {
+            return false;
+        }
+        final String line;
+        try {
+            line = mLines.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        //noinspection StringEquality
+        if (line == END) {
+            mIsEndReached = true;
+            return false;
+        }
+        mNext = line;
+        return true;
+    }
+
+    /**
+     * Returns the next output line. Blocks until the next line is printed or
+     * the command finishes
+     *
+     * @return next output line
+     * @throws NoSuchElementException if there are no more lines
+     */
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final String next = mNext;
+        mNext = null;
+        return next;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("remove() is not supported");
+    }
+
+    /**
+     * Waits for the command to finish and returns the exit code.
+     * Lines that were not consumed are discarded.
+     *
+     * @return exit code of the command, or -1 if the command was terminated
+     */
+    public int waitFor() {
+        discard();
+        synchronized (this) {
+            while (!mIsFinished) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return -1;
+                }
+            }
+            return mExitCode;
+        }
+    }
+
+    /**
+     * Waits for the command to finish and returns whether it completed successfully
+     *
+     * @return true if the command exited with zero exit code
+     */
+    public boolean waitForSuccess() {
+        return waitFor() == EXIT_CODE_SUCCESS;
+    }
+
+    /**
+     * Discards the remaining output. If the command is still being executed or queued,
+     * it is cancelled, so that the output nobody reads is not delivered
+     */
+    @Override
+    public void close() {
+        discard();
+        final boolean finished;
+        synchronized (this) {
+            finished = mIsFinished;
+        }
+        if (!finished) {
+            mCommand.cancel();
+        }
+    }
+
+    private void discard() {
+        mIsClosed = true;
+        mNext = null;
+        mLines.clear();
+    }
+}
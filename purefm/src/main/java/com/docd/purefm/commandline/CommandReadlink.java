@@ -17,6 +17,9 @@ package com.docd.purefm.commandline;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -26,6 +29,13 @@ import java.util.List;
  *            canonicalize by following every symlink in every component of the given name
  *            recursively; all but the last component must exist
  *
+ * Multiple paths are resolved in a single command, one output line per path.
+ * A path which can't be resolved produces an empty line. The resolved path of a directory
+ * is followed by a separator.
+ *
+ * Results are cached in {@link ProbeCache#CANONICAL_PATHS}, which is shared with
+ * {@link com.docd.purefm.file.CanonicalPaths}, so that paths resolved by either are not
+ * resolved again.
  */
 public final class CommandReadlink extends Command {
 
@@ -34,15 +44,95 @@ public final class CommandReadlink extends Command {
     }
 
     /**
-     * Excutes readlink command and returns result
+     * Builds readlink command for multiple paths
+     *
+     * @param paths Paths of files to readlink
+     */
+    public CommandReadlink(@NonNull final List<String> paths) {
+        super(buildCommand(paths));
+    }
+
+    @NonNull
+    private static String buildCommand(@NonNull final List<String> paths) {
+        final StringBuilder command = new StringBuilder(paths.size() * 32 + 48);
+        command.append("for f in");
+        for (final String path : paths) {
+            command.append(' ');
+            command.append(CommandLineUtils.getCommandLineString(path));
+        }
+        command.append("; do if [ -d \"$f\" ]; then echo \"$(readlink -f \"$f\")/\"; ");
+        command.append("else readlink -f \"$f\" || echo; fi; done");
+        return command.toString();
+    }
+
+    /**
+     * Excutes readlink command and returns result. Results are cached in
+     * {@link ProbeCache#CANONICAL_PATHS}
      *
      * @param path Path of file to readlink
      * @return canonical path of input file returned by readlink
      */
     @Nullable
     public static String readlink(@NonNull final String path) {
-        final List<String> result = CommandLine.executeForResult(
-                new CommandReadlink(CommandLineUtils.getCommandLineString(path)));
-        return result == null || result.isEmpty() ? null : result.get(0);
+        // resolved the same way as multiple paths, so that the cached values have the same format
+        final List<String> result = readlink(Collections.singletonList(path));
+        if (result == null) {
+            return null;
+        }
+        final String resolved = result.get(0);
+        if (resolved != null && resolved.length() > 1 && resolved.endsWith(File.separator)) {
+            return resolved.substring(0, resolved.length() - 1);
+        }
+        return resolved;
+    }
+
+    /**
+     * Executes readlink command for every path that is not cached in
+     * {@link ProbeCache#CANONICAL_PATHS} in a single command and returns results
+     *
+     * @param paths Paths of files to readlink
+     * @return canonical paths in the same order as input paths, where the path that could not
+     *         be resolved is null, and the path of a directory ends with a separator.
+     *         Returns null if the command failed.
+     */
+    @Nullable
+    public static List<String> readlink(@NonNull final List<String> paths) {
+        final int size = paths.size();
+        final List<String> resolved = new ArrayList<>(size);
+        final List<String> uncached = new ArrayList<>(size);
+        for (final String path : paths) {
+            final String cached = ProbeCache.CANONICAL_PATHS.get(path);
+            if (cached == null) {
+                uncached.add(path);
+            }
+            resolved.add(cached);
+        }
+        if (uncached.isEmpty()) {
+            return resolved;
+        }
+        final List<String> result = CommandLine.executeForResult(new CommandReadlink(uncached));
+        if (result == null || result.size() != uncached.size()) {
+            // output can't be matched with the input paths
+            return null;
+        }
+        int resultIndex = 0;
+        for (int i = 0; i < size; i++) {
+            if (resolved.get(i) == null) {
+                final String line = result.get(resultIndex++);
+                if (!line.isEmpty()) {
+                    resolved.set(i, line);
+                    ProbeCache.CANONICAL_PATHS.put(paths.get(i), line);
+                }
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isReadOnly() {
+        return true;
     }
 }
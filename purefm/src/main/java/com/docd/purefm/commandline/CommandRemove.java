@@ -34,4 +34,12 @@ public final class CommandRemove extends BusyboxCommand {
         super("rm -rf ".concat(
                 CommandLineUtils.getCommandLineString(file.getAbsolutePath())));
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Lane getLane() {
+        return Lane.BACKGROUND;
+    }
 }
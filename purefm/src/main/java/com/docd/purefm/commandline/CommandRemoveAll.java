@@ -0,0 +1,50 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.commandline;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * rm -rf for many files at once. See {@link BulkCommand}
+ */
+public final class CommandRemoveAll extends BulkCommand {
+
+    private static final String APPLET = "rm";
+    private static final String OPTIONS = "-rf";
+
+    /**
+     * Builds remove commands for the files
+     *
+     * @param paths Absolute paths of files to remove
+     * @return commands that remove all the files, in the order of the paths
+     */
+    @NonNull
+    public static List<CommandRemoveAll> create(@NonNull final Collection<String> paths) {
+        final List<List<String>> groups = split(paths, APPLET, OPTIONS);
+        final List<CommandRemoveAll> commands = new ArrayList<>(groups.size());
+        for (final List<String> group : groups) {
+            commands.add(new CommandRemoveAll(group));
+        }
+        return commands;
+    }
+
+    private CommandRemoveAll(@NonNull final List<String> paths) {
+        super(APPLET + " " + OPTIONS, paths, null);
+    }
+}
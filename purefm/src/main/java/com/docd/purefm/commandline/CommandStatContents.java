@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.commandline;
+
+import android.support.annotation.NonNull;
+
+import com.docd.purefm.Environment;
+import com.docd.purefm.file.GenericFile;
+import com.docd.purefm.settings.Settings;
+
+/**
+ * stat - display file or file system status
+ *
+ * -c FORMAT use the specified FORMAT instead of the default
+ *
+ * Lists contents of a directory in {@link #FORMAT}, one line per file.
+ * Entries which start with . are included if hidden files are enabled in {@link Settings}.
+ *
+ * Unlike ls output, the output does not depend on locale and the columns can't be broken
+ * by the file names. The entries are passed to stat through find and xargs, so that large
+ * directories don't exceed the argument length limit.
+ */
+public final class CommandStatContents extends Command {
+
+    /**
+     * Output line format, see {@link CommandLineBuilder#STAT_FORMAT}
+     */
+    public static final String FORMAT = CommandLineBuilder.STAT_FORMAT;
+
+    public static final int FIELD_NAME = 7;
+
+    /**
+     * Returns whether busybox has stat, find and xargs applets
+     *
+     * @return true if this command can be executed
+     */
+    public static boolean isAvailable() {
+        return Environment.isBusyboxUtilAvailable("stat") &&
+                CommandLineUtils.isForEachChildAvailable();
+    }
+
+    public CommandStatContents(@NonNull final GenericFile dir,
+                               @NonNull final Settings settings) {
+        super(buildCommand(dir, settings));
+    }
+
+    private static String buildCommand(@NonNull final GenericFile file,
+                                       @NonNull final Settings settings) {
+        if (!file.isDirectory()) {
+            throw new RuntimeException("You should pass a directory here");
+        }
+        return CommandLineBuilder.statContents(Environment.sBusybox, file.getAbsolutePath(),
+                settings.listShowHiddenFilesEnabled());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.commandline;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches results of side-effect-free shell probes and path resolution, so that repeated queries
+ * for the same paths don't cost a shell round-trip or a walk over the path.
+ *
+ * Every cache has it's own time to live and maximum size. When the size is exceeded, the least
+ * recently used entry is evicted. Failed probes are not cached.
+ *
+ * Operations that change the file system must call {@link #invalidatePath(String)} for the
+ * affected paths, or {@link #invalidateAll()} if the changes can't be tracked to paths,
+ * like after remount or shell change. Caches outside of this package are notified of the
+ * invalidation through {@link InvalidationListener}.
+ *
+ * @param <V> type of cached values
+ */
+public final class ProbeCache<V> {
+
+    /**
+     * Applets of busybox, keyed by busybox path
+     */
+    public static final ProbeCache<Set<String>> BUSYBOX_APPLETS =
+            new ProbeCache<>(TimeUnit.MINUTES.toMillis(30), 4);
+
+    /**
+     * File system types returned by {@link CommandStat}, keyed by path
+     */
+    public static final ProbeCache<String> FILE_SYSTEMS =
+            new ProbeCache<>(TimeUnit.MINUTES.toMillis(10), 128);
+
+    /**
+     * Canonical paths, keyed by absolute path. Filled both by {@link CommandReadlink} and by
+     * {@link com.docd.purefm.file.CanonicalPaths}. The path of a directory ends with a separator,
+     * as printed by {@link CommandReadlink}
+     */
+    public static final ProbeCache<String> CANONICAL_PATHS =
+            new ProbeCache<>(TimeUnit.MINUTES.toMillis(2), 2048);
+
+    private static final List<InvalidationListener> sInvalidationListeners =
+            new CopyOnWriteArrayList<>();
+
+    private final long mTimeToLive;
+
+    /**
+     * Guarded by this
+     */
+    private final LinkedHashMap<String, Entry<V>> mEntries;
+
+    private ProbeCache(final long timeToLive, final int maxSize) {
+        mTimeToLive = timeToLive;
+        mEntries = new LinkedHashMap<String, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Entry<V>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns cached value
+     *
+     * @param key key of the value
+     * @return cached value, or null if there is no value or it has expired
+     */
+    @Nullable
+    public synchronized V get(@NonNull final String key) {
+        final Entry<V> entry = mEntries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expires <= SystemClock.elapsedRealtime()) {
+            mEntries.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    public synchronized void put(@NonNull final String key, @NonNull final V value) {
+        mEntries.put(key, new Entry<>(value, SystemClock.elapsedRealtime() + mTimeToLive));
+    }
+
+    /**
+     * Removes values of the path and of the files under it. String values that point to the path
+     * or to the files under it are removed as well
+     *
+     * @param path absolute path of the changed file
+     */
+    public synchronized void invalidate(@NonNull final String path) {
+        final Iterator<Map.Entry<String, Entry<V>>> iterator = mEntries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<String, Entry<V>> entry = iterator.next();
+            final V value = entry.getValue().value;
+            if (isSameOrUnder(entry.getKey(), path) ||
+                    (value instanceof String && isSameOrUnder((String) value, path))) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+    /**
+     * Invalidates cached probes of the path and of the files under it. Must be called after the
+     * file is removed, moved or renamed
+     *
+     * @param path absolute path of the changed file
+     */
+    public static void invalidatePath(@NonNull final String path) {
+        // entries of the files under the canonical path are not under an alias path
+        final String cached = CANONICAL_PATHS.get(path);
+        final String realPath = cached == null ? null : toCanonicalPath(cached);
+        FILE_SYSTEMS.invalidate(path);
+        CANONICAL_PATHS.invalidate(path);
+        if (realPath != null && !realPath.equals(path)) {
+            FILE_SYSTEMS.invalidate(realPath);
+            CANONICAL_PATHS.invalidate(realPath);
+        }
+        for (final InvalidationListener listener : sInvalidationListeners) {
+            listener.onPathInvalidated(path);
+            if (realPath != null && !realPath.equals(path)) {
+                listener.onPathInvalidated(realPath);
+            }
+        }
+    }
+
+    /**
+     * Invalidates all cached probes. Must be called when the changes can't be tracked to paths
+     */
+    public static void invalidateAll() {
+        BUSYBOX_APPLETS.clear();
+        FILE_SYSTEMS.clear();
+        CANONICAL_PATHS.clear();
+        for (final InvalidationListener listener : sInvalidationListeners) {
+            listener.onAllInvalidated();
+        }
+    }
+
+    /**
+     * Returns canonical path of the {@link #CANONICAL_PATHS} value
+     *
+     * @param value cached value
+     * @return canonical path without the separator of a directory
+     */
+    @NonNull
+    public static String toCanonicalPath(@NonNull final String value) {
+        if (value.length() > 1 && value.endsWith(File.separator)) {
+            return value.substring(0, value.length() - 1);
+        }
+        return value;
+    }
+
+    /**
+     * Returns {@link #CANONICAL_PATHS} value of the canonical path
+     *
+     * @param canonicalPath canonical path without a trailing separator
+     * @param directory whether the file is a directory
+     * @return value to cache
+     */
+    @NonNull
+    public static String toCachedValue(@NonNull final String canonicalPath,
+                                       final boolean directory) {
+        return directory && !canonicalPath.endsWith(File.separator) ?
+                canonicalPath + File.separatorChar : canonicalPath;
+    }
+
+    /**
+     * Registers a listener that is notified when paths are invalidated
+     *
+     * @param listener listener to register
+     */
+    public static void addInvalidationListener(@NonNull final InvalidationListener listener) {
+        sInvalidationListeners.add(listener);
+    }
+
+    private static boolean isSameOrUnder(@NonNull final String candidate,
+                                         @NonNull final String path) {
+        if (!candidate.startsWith(path)) {
+            return false;
+        }
+        final int length = path.length();
+        return candidate.length() == length ||
+                candidate.charAt(length) == File.separatorChar ||
+                path.endsWith(File.separator);
+    }
+
+    /**
+     * Listener of invalidation of the caches, for caches that depend on the same paths
+     */
+    public interface InvalidationListener {
+
+        /**
+         * Called after the path and the files under it were invalidated
+         *
+         * @param path absolute path of the changed file
+         */
+        void onPathInvalidated(@NonNull String path);
+
+        /**
+         * Called after all caches were cleared
+         */
+        void onAllInvalidated();
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long expires;
+
+        Entry(@NonNull final V value, final long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+}
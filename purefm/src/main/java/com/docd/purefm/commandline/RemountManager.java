@@ -0,0 +1,461 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.commandline;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remounts read-only file systems as read-write for the time they are written to.
+ *
+ * Writers acquire a {@link Lease} for the path they write to. Leases are counted per mount point,
+ * the file system is remounted as read-write by the first lease and restored to read-only
+ * {@link #RESTORE_DELAY} after the last lease is released, so that a burst of operations shares
+ * a single read-write window. File systems that were already read-write are left as they are.
+ *
+ * Mount points remounted as read-write are persisted, so that if the process dies before
+ * restoring them, they are restored by {@link #init(Context)} on the next start. On a crash,
+ * restoring is attempted for at most {@link #CRASH_RESTORE_TIMEOUT}, so that the crash is not
+ * delayed by the shell.
+ */
+public final class RemountManager {
+
+    private static final String TAG = "RemountManager";
+
+    private static final long RESTORE_DELAY = 2000L;
+
+    /**
+     * Time the crashing thread waits for the mount points to be restored
+     */
+    private static final long CRASH_RESTORE_TIMEOUT = 1000L;
+
+    private static final String PREFERENCES_NAME = "remount";
+    private static final String KEY_MOUNT_POINTS = "mount_points";
+
+    private static final String PROC_MOUNTS = "/proc/mounts";
+
+    private static final Object sInstanceLock = new Object();
+    private static RemountManager sInstance;
+
+    @NonNull
+    public static RemountManager getInstance() {
+        if (sInstance == null) {
+            synchronized (sInstanceLock) {
+                if (sInstance == null) {
+                    sInstance = new RemountManager();
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * Guards the entries
+     */
+    private final Object mLock = new Object();
+
+    /**
+     * Held while remounting, so that remounts of the same mount point are applied in order
+     */
+    private final Object mRemountLock = new Object();
+
+    private final Map<String, Entry> mEntries = new HashMap<>();
+
+    private final ScheduledExecutorService mExecutor;
+
+    private SharedPreferences mPreferences;
+
+    private RemountManager() {
+        mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull final Runnable r) {
+                final Thread thread = new Thread(r, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Restores mount points left read-write by a previous process and tries to restore the mount
+     * points if the application crashes. Should be called once at application start
+     *
+     * @param context Context to use
+     */
+    public void init(@NonNull final Context context) {
+        final Set<String> stale;
+        synchronized (mLock) {
+            mPreferences = context.getApplicationContext().getSharedPreferences(
+                    PREFERENCES_NAME, Context.MODE_PRIVATE);
+            stale = new HashSet<>(mPreferences.getStringSet(KEY_MOUNT_POINTS,
+                    new HashSet<String>()));
+            for (final String mountPoint : stale) {
+                final Entry entry = getEntry(mountPoint);
+                entry.writable = true;
+                entry.owned = true;
+            }
+        }
+        if (!stale.isEmpty()) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (final String mountPoint : stale) {
+                        restoreIfUnused(getEntry(mountPoint));
+                    }
+                }
+            });
+        }
+
+        final Thread.UncaughtExceptionHandler handler =
+                Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(final Thread thread, final Throwable ex) {
+                try {
+                    restoreAllBeforeCrash();
+                } finally {
+                    if (handler != null) {
+                        handler.uncaughtException(thread, ex);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Remounts the file system that contains the path as read-write, unless it's already
+     * remounted. Blocks until remounted. The lease must be released when writing is done,
+     * even if it failed.
+     *
+     * @param path path that will be written to
+     * @return lease that must be released
+     */
+    @NonNull
+    public Lease acquire(@NonNull final String path) {
+        final MountInfo mount = findMount(path);
+        final Entry entry = getEntry(mount == null ? path : mount.mountPoint);
+        synchronized (mLock) {
+            entry.count++;
+            if (entry.restore != null) {
+                entry.restore.cancel(false);
+                entry.restore = null;
+            }
+        }
+        synchronized (mRemountLock) {
+            final boolean remount;
+            synchronized (mLock) {
+                remount = !entry.writable;
+            }
+            if (remount) {
+                // a mount point that is already read-write is not touched and is checked again
+                // by the next lease, since it may be remounted as read-only by others
+                final MountInfo current = findMount(entry.mountPoint);
+                if (current == null || current.readOnly) {
+                    if (CommandLine.remount(entry.mountPoint, "RW")) {
+                        setWritable(entry, true, true);
+                    } else {
+                        Log.w(TAG, "Failed to remount " + entry.mountPoint + " as read-write");
+                    }
+                }
+            }
+        }
+        return new Lease(entry);
+    }
+
+    /**
+     * Restores all file systems remounted as read-write immediately, even if there are
+     * unreleased leases
+     */
+    public void restoreAll() {
+        synchronized (mRemountLock) {
+            final Entry[] entries;
+            synchronized (mLock) {
+                entries = mEntries.values().toArray(new Entry[mEntries.size()]);
+            }
+            for (final Entry entry : entries) {
+                restore(entry);
+            }
+        }
+    }
+
+    /**
+     * Restores all file systems on a separate thread, waiting for at most
+     * {@link #CRASH_RESTORE_TIMEOUT}. The crashing thread may hold the locks, and the shell may
+     * not respond, and the mount points that are not restored in time are restored on the next
+     * start anyway
+     */
+    private void restoreAllBeforeCrash() {
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                restoreAll();
+            }
+        }, TAG);
+        thread.setDaemon(true);
+        thread.start();
+        try {
+            thread.join(CRASH_RESTORE_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void release(@NonNull final Entry entry) {
+        synchronized (mLock) {
+            if (--entry.count == 0 && entry.owned) {
+                entry.restore = mExecutor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        restoreIfUnused(entry);
+                    }
+                }, RESTORE_DELAY, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void restoreIfUnused(@NonNull final Entry entry) {
+        synchronized (mRemountLock) {
+            synchronized (mLock) {
+                if (entry.count != 0) {
+                    return;
+                }
+                entry.restore = null;
+            }
+            restore(entry);
+        }
+    }
+
+    /**
+     * Restores the entry to read-only if it was remounted as read-write.
+     * Must be called with {@link #mRemountLock} held
+     *
+     * @param entry entry to restore
+     */
+    private void restore(@NonNull final Entry entry) {
+        final boolean owned;
+        synchronized (mLock) {
+            owned = entry.owned;
+        }
+        if (owned) {
+            if (!CommandLine.remount(entry.mountPoint, "RO")) {
+                Log.w(TAG, "Failed to restore " + entry.mountPoint + " as read-only");
+            }
+        }
+        setWritable(entry, false, false);
+    }
+
+    private void setWritable(@NonNull final Entry entry,
+                             final boolean writable,
+                             final boolean owned) {
+        synchronized (mLock) {
+            entry.writable = writable;
+            entry.owned = owned;
+            if (mPreferences != null) {
+                final Set<String> mountPoints = new HashSet<>();
+                for (final Entry e : mEntries.values()) {
+                    if (e.owned) {
+                        mountPoints.add(e.mountPoint);
+                    }
+                }
+                mPreferences.edit().putStringSet(KEY_MOUNT_POINTS, mountPoints).apply();
+            }
+        }
+    }
+
+    @NonNull
+    private Entry getEntry(@NonNull final String mountPoint) {
+        synchronized (mLock) {
+            Entry entry = mEntries.get(mountPoint);
+            if (entry == null) {
+                entry = new Entry(mountPoint);
+                mEntries.put(mountPoint, entry);
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * Finds the mount that contains the path in {@link #PROC_MOUNTS}
+     *
+     * @param path path to find mount of
+     * @return the mount with the longest mount point the path is under, or null if failed to read
+     */
+    @Nullable
+    static MountInfo findMount(@NonNull final String path) {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(PROC_MOUNTS));
+            MountInfo result = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final MountInfo mount = MountInfo.parse(line);
+                if (mount != null && isSameOrUnder(path, mount.mountPoint) &&
+                        (result == null ||
+                                mount.mountPoint.length() >= result.mountPoint.length())) {
+                    result = mount;
+                }
+            }
+            return result;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read " + PROC_MOUNTS + ": " + e);
+            return null;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static boolean isSameOrUnder(@NonNull final String path,
+                                         @NonNull final String mountPoint) {
+        if (!path.startsWith(mountPoint)) {
+            return false;
+        }
+        final int length = mountPoint.length();
+        return path.length() == length ||
+                path.charAt(length) == File.separatorChar ||
+                mountPoint.endsWith(File.separator);
+    }
+
+    /**
+     * Lease of read-write mount. Releasing more than once has no effect
+     */
+    public final class Lease {
+
+        private final Entry mEntry;
+
+        private boolean mReleased;
+
+        Lease(@NonNull final Entry entry) {
+            mEntry = entry;
+        }
+
+        public void release() {
+            synchronized (this) {
+                if (mReleased) {
+                    return;
+                }
+                mReleased = true;
+            }
+            RemountManager.this.release(mEntry);
+        }
+    }
+
+    /**
+     * State of a mount point. Guarded by {@link #mLock}
+     */
+    private static final class Entry {
+
+        final String mountPoint;
+
+        /**
+         * Number of unreleased leases
+         */
+        int count;
+
+        /**
+         * Whether the mount point is read-write
+         */
+        boolean writable;
+
+        /**
+         * Whether the mount point was remounted as read-write by this manager
+         * and must be restored
+         */
+        boolean owned;
+
+        ScheduledFuture<?> restore;
+
+        Entry(@NonNull final String mountPoint) {
+            this.mountPoint = mountPoint;
+        }
+    }
+
+    /**
+     * Line of {@link #PROC_MOUNTS}
+     */
+    public static final class MountInfo {
+
+        public final String mountPoint;
+        public final boolean readOnly;
+
+        private MountInfo(@NonNull final String mountPoint, final boolean readOnly) {
+            this.mountPoint = mountPoint;
+            this.readOnly = readOnly;
+        }
+
+        /**
+         * Parses a line like "/dev/block/mmcblk0p9 /system ext4 ro,relatime 0 0".
+         * Spaces and other special characters in the mount point are escaped as octal codes
+         *
+         * @param line line to parse
+         * @return parsed line or null if the line is malformed
+         */
+        @Nullable
+        public static MountInfo parse(@NonNull final String line) {
+            final String[] fields = line.split(" ");
+            if (fields.length < 4) {
+                return null;
+            }
+            final String options = fields[3];
+            return new MountInfo(unescape(fields[1]),
+                    options.equals("ro") || options.startsWith("ro,"));
+        }
+
+        @NonNull
+        private static String unescape(@NonNull final String field) {
+            if (field.indexOf('\\') == -1) {
+                return field;
+            }
+            final StringBuilder result = new StringBuilder(field.length());
+            for (int i = 0; i < field.length(); i++) {
+                final char c = field.charAt(i);
+                // the three octal digits end at i + 4, which may be the end of the field
+                if (c == '\\' && i + 4 <= field.length()) {
+                    try {
+                        result.append((char) Integer.parseInt(field.substring(i + 1, i + 4), 8));
+                        i += 3;
+                        continue;
+                    } catch (NumberFormatException e) {
+                        // not an escape sequence
+                    }
+                }
+                result.append(c);
+            }
+            return result.toString();
+        }
+    }
+}
@@ -17,50 +17,45 @@
  */
 package com.docd.purefm.commandline;
 
-import android.util.Pair;
-
 import com.docd.purefm.settings.Settings;
-import com.stericson.RootTools.RootTools;
-import com.stericson.RootTools.exceptions.RootDeniedException;
-import com.stericson.RootTools.execution.Shell;
 
 import android.support.annotation.Nullable;
 
-import java.io.IOException;
-import java.util.concurrent.TimeoutException;
-
 final class ShellFactory {
     private ShellFactory() {}
 
+    /**
+     * Returns new root shell pool
+     *
+     * @return root shell pool, or null if superuser was denied or timed-out
+     */
     @Nullable
-    static Pair<Boolean, Shell> getRootShell() {
-        try {
-            return new Pair<>(true, RootTools.getShell(true));
-        } catch (IOException | RootDeniedException | TimeoutException e) {
+    static ShellPool getRootShell() {
+        final ShellProcess shell = ShellProcess.open(true);
+        if (shell == null) {
             return null;
         }
+        return new ShellPool(shell, Settings.getInstance().getRootShellCount());
     }
 
     /**
-     * Returns new shell
+     * Returns new shell pool. If superuser is enabled, tries to open root shell pool first
      *
-     * @return boolean indicating whether the Shell is root shell and the shell,
-     *         or null if timed-out
-     * @throws IOException when an IO error occurs
+     * @return shell pool, or null if failed to open or timed-out
      */
     @Nullable
-    public static Pair<Boolean, Shell> getShell() throws IOException {
-        final boolean suEnabled = Settings.getInstance().isSuEnabled();
-        try {
-            return new Pair<>(suEnabled, RootTools.getShell(suEnabled));
-        } catch (RootDeniedException | TimeoutException e) {
-            try {
-                return new Pair<>(false, RootTools.getShell(false));
-            } catch (RootDeniedException e1) {
-                throw new RuntimeException("Access denied for non-superuser shell?", e);
-            } catch (TimeoutException e1) {
-                return null;
+    static ShellPool getShell() {
+        final Settings settings = Settings.getInstance();
+        if (settings.isSuEnabled()) {
+            final ShellPool rootShell = getRootShell();
+            if (rootShell != null) {
+                return rootShell;
             }
         }
+        final ShellProcess shell = ShellProcess.open(false);
+        if (shell == null) {
+            return null;
+        }
+        return new ShellPool(shell, settings.getShellCount());
     }
 }
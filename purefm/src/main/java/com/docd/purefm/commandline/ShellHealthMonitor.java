@@ -0,0 +1,265 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.commandline;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks health of the shell pool with heartbeat commands in the interactive lane and acts as
+ * a circuit breaker.
+ *
+ * The shell is unhealthy after {@link #FAILURE_THRESHOLD} heartbeats in a row failed, timed out
+ * or the average latency exceeded {@link #SLOW_LATENCY}. The pool is then replaced in
+ * background, and the shell is healthy again after the first fast heartbeat.
+ *
+ * The latency is measured from the start of execution. A heartbeat that waited in the queue for
+ * {@link #HEARTBEAT_TIMEOUT} because the shells are busy with other commands is withdrawn and
+ * counts neither as passed nor as failed.
+ *
+ * Heartbeats are sent only if the shell was used since the previous heartbeat, or while it's
+ * unhealthy, so an idle shell is left alone.
+ */
+final class ShellHealthMonitor {
+
+    private static final String TAG = "ShellHealthMonitor";
+
+    interface Callback {
+
+        /**
+         * Returns the pool to check
+         *
+         * @return current pool, or null if there is no pool
+         */
+        @Nullable
+        ShellPool getShellPool();
+
+        /**
+         * Called when the shell became unhealthy or still is unhealthy and it's pool is closed.
+         * Should replace the pool in background
+         */
+        void recover();
+
+        /**
+         * Called once per change of health
+         *
+         * @param healthy whether the shell is healthy
+         */
+        void onHealthChanged(boolean healthy);
+    }
+
+    private static final long HEARTBEAT_INTERVAL = 15000L;
+    private static final long RECOVERY_HEARTBEAT_INTERVAL = 3000L;
+    private static final long HEARTBEAT_TIMEOUT = 5000L;
+
+    /**
+     * Result of a heartbeat that was not executed because the shells were busy
+     */
+    private static final long BUSY = -2L;
+
+    /**
+     * Average heartbeat latency in milliseconds over which the shell is considered slow
+     */
+    private static final long SLOW_LATENCY = 2000L;
+
+    private static final int FAILURE_THRESHOLD = 2;
+
+    /**
+     * Weight of the latest latency in the average
+     */
+    private static final double LATENCY_WEIGHT = 0.3;
+
+    @NonNull
+    private final Callback mCallback;
+
+    private final ScheduledExecutorService mExecutor;
+
+    private volatile boolean mHealthy = true;
+    private volatile boolean mUsed;
+
+    /**
+     * Accessed only by the monitor thread
+     */
+    private int mFailures;
+    private double mAverageLatency;
+    private boolean mStarted;
+
+    ShellHealthMonitor(@NonNull final Callback callback) {
+        mCallback = callback;
+        mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull final Runnable r) {
+                final Thread thread = new Thread(r, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Starts sending heartbeats, unless already started
+     */
+    void start() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!mStarted) {
+                    mStarted = true;
+                    schedule(HEARTBEAT_INTERVAL);
+                }
+            }
+        });
+    }
+
+    /**
+     * Should be called when a command is executed in the shell
+     */
+    void onCommand() {
+        mUsed = true;
+    }
+
+    boolean isHealthy() {
+        return mHealthy;
+    }
+
+    /**
+     * Average heartbeat latency
+     *
+     * @return average latency in milliseconds
+     */
+    long getAverageLatency() {
+        return (long) mAverageLatency;
+    }
+
+    private void schedule(final long delay) {
+        mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                check();
+                schedule(mHealthy ? HEARTBEAT_INTERVAL : RECOVERY_HEARTBEAT_INTERVAL);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void check() {
+        if (mHealthy && !mUsed) {
+            return;
+        }
+        mUsed = false;
+        final ShellPool pool = mCallback.getShellPool();
+        if (pool == null) {
+            return;
+        }
+        final long latency = heartbeat(pool);
+        if (latency == BUSY) {
+            // check again when the shells are free
+            mUsed = true;
+            return;
+        }
+        final boolean passed;
+        if (latency == -1L) {
+            passed = false;
+        } else {
+            mAverageLatency = mAverageLatency == 0.0 ? latency :
+                    mAverageLatency + LATENCY_WEIGHT * (latency - mAverageLatency);
+            passed = mHealthy ? mAverageLatency <= SLOW_LATENCY : latency <= SLOW_LATENCY;
+        }
+
+        if (passed) {
+            mFailures = 0;
+            if (!mHealthy) {
+                mAverageLatency = latency;
+                mHealthy = true;
+                mCallback.onHealthChanged(true);
+            }
+        } else if (mHealthy) {
+            if (++mFailures >= FAILURE_THRESHOLD) {
+                Log.w(TAG, "Shell is unhealthy, average latency " + getAverageLatency() + " ms");
+                mHealthy = false;
+                mCallback.onHealthChanged(false);
+                mCallback.recover();
+            }
+        } else if (pool.isClosed()) {
+            mCallback.recover();
+        }
+    }
+
+    /**
+     * Executes heartbeat command in the pool and waits for it to complete
+     *
+     * @param pool Pool to execute the heartbeat in
+     * @return time from the start of execution to completion in milliseconds, -1 if failed or
+     *         timed out, or {@link #BUSY} if the heartbeat was not executed within
+     *         {@link #HEARTBEAT_TIMEOUT} because the shells were busy
+     */
+    private static long heartbeat(@NonNull final ShellPool pool) {
+        final Command command = new Command("true");
+        command.setTimeout(HEARTBEAT_TIMEOUT);
+        final CommandLine.ExecutionStatus status = new CommandLine.ExecutionStatus();
+        command.setCommandListener(new Command.CommandListener() {
+            @Override
+            public void commandOutput(int id, String line) {
+
+            }
+
+            @Override
+            public void commandTerminated(int id, String reason) {
+                synchronized (status) {
+                    status.finished = true;
+                    status.notify();
+                }
+            }
+
+            @Override
+            public void commandCompleted(int id, int exitCode) {
+                synchronized (status) {
+                    status.exitCode = exitCode;
+                    status.finished = true;
+                    status.notify();
+                }
+            }
+        });
+        final long queuedUntil = System.nanoTime() +
+                TimeUnit.MILLISECONDS.toNanos(HEARTBEAT_TIMEOUT);
+        if (!pool.execute(command)) {
+            return -1L;
+        }
+        synchronized (status) {
+            while (!status.finished) {
+                final long remaining = queuedUntil - System.nanoTime();
+                if (remaining <= 0L && command.cancelIfQueued()) {
+                    return BUSY;
+                }
+                try {
+                    // once started, the command is terminated by it's own timeout
+                    status.wait(remaining > 0L ?
+                            TimeUnit.NANOSECONDS.toMillis(remaining) + 1L : HEARTBEAT_TIMEOUT);
+                } catch (InterruptedException e) {
+                    command.cancel();
+                    Thread.currentThread().interrupt();
+                    return -1L;
+                }
+            }
+        }
+        return status.exitCode == 0 ?
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - command.getStartedAt()) : -1L;
+    }
+}
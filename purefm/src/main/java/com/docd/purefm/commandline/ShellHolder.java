@@ -19,22 +19,27 @@ import android.os.Looper;
 import android.os.Message;
 import android.support.annotation.NonNull;
 import android.util.Log;
-import android.util.Pair;
 
 import com.docd.purefm.settings.Settings;
-import com.stericson.RootTools.execution.Shell;
 
 import android.support.annotation.Nullable;
 
-import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
- * ShellHolder holds shared Shell instance
+ * ShellHolder holds shared {@link ShellPool} instance
  */
 public final class ShellHolder {
 
@@ -42,15 +47,17 @@ public final class ShellHolder {
         void onShellChanged(boolean hasShell, boolean isRootShell);
     }
 
-    private static final int REASK_FOR_ROOT_SHELL_THRESHOLD = 6;
+    /**
+     * Delays of requesting root shell in background after superuser was not granted
+     */
+    private static final long ROOT_PROBE_DELAY_MIN = 30000L;
+    private static final long ROOT_PROBE_DELAY_MAX = 30L * 60L * 1000L;
 
     private static final Object sInstanceLock = new Object();
     private static ShellHolder sInstance;
 
-    private static int sCommandId;
-
     public static int getNextCommandId() {
-        return sCommandId++;
+        return Command.getNextId();
     }
 
     @NonNull
@@ -72,12 +79,31 @@ public final class ShellHolder {
 
     private final Handler mHandler;
 
+    /**
+     * Opens shells and requests root shell in background
+     */
+    private final ScheduledExecutorService mOpener;
+
+    private final ShellHealthMonitor mHealthMonitor;
+
     private boolean mIsRootShell;
-    private Shell mShell;
-    private int mSkipReaskForRootShellCount;
+    private ShellPool mShellPool;
+
+    private Future<ShellPool> mOpening;
+    private ScheduledFuture<?> mRootProbe;
+    private long mRootProbeDelay = ROOT_PROBE_DELAY_MIN;
 
     private ShellHolder() {
         mHandler = new ShellHolderHandler(this);
+        mOpener = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull final Runnable r) {
+                final Thread thread = new Thread(r, "ShellHolder-opener");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mHealthMonitor = new ShellHealthMonitor(new HealthMonitorCallback());
     }
 
     public void addOnShellChangedListener(@NonNull final OnShellChangedListener listener) {
@@ -123,13 +149,11 @@ public final class ShellHolder {
     }
 
     private void releaseShellAsync(final boolean notifyListeners) {
-        if (mShell != null) {
-            try {
-                mShell.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            mShell = null;
+        if (mShellPool != null) {
+            mShellPool.close();
+            mShellPool = null;
+            // results of probes depend on the shell privileges
+            ProbeCache.invalidateAll();
             mIsRootShell = false;
             if (notifyListeners) {
                 mHandler.removeMessages(ShellHolderHandler.MESSAGE_NOTIFY_LISTENERS);
@@ -138,19 +162,46 @@ public final class ShellHolder {
         }
     }
 
-    public boolean execute(@NonNull final Command command) {
-        final Shell shell = getShell();
-        if (shell == null) {
-            Log.w("ShellHolder", "No shell. Execution aborted.");
-            return false;
+    /**
+     * Opens the shell in background if there is no shell of the type requested by
+     * {@link Settings#isSuEnabled()}. Returns immediately.
+     * Should be called at application start and when the settings change, so that the shell
+     * is ready by the time it's needed.
+     */
+    public void prewarm() {
+        if (!Settings.getInstance().useCommandLine()) {
+            return;
         }
-        try {
-            shell.add(command);
-            return true;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return false;
+        synchronized (mShellLock) {
+            mRootProbeDelay = ROOT_PROBE_DELAY_MIN;
+            if (mRootProbe != null) {
+                mRootProbe.cancel(false);
+                mRootProbe = null;
+            }
+            if (!isSuitable(mShellPool, Settings.getInstance().isSuEnabled())) {
+                openAsync(false);
+            }
+        }
+    }
+
+    /**
+     * Queues the command for execution in the shell pool. The command is executed concurrently
+     * with the commands of other lanes and other shells.
+     *
+     * @param command Command to execute
+     * @return false if there is no shell and the command will not be executed
+     */
+    public boolean execute(@NonNull final Command command) {
+        ShellPool shell;
+        while ((shell = getShell()) != null) {
+            if (shell.execute(command)) {
+                mHealthMonitor.onCommand();
+                return true;
+            }
+            // the pool was replaced after it was returned, try the new one
         }
+        Log.w("ShellHolder", "No shell. Execution aborted.");
+        return false;
     }
 
     public boolean hasShell() {
@@ -158,63 +209,157 @@ public final class ShellHolder {
     }
 
     /**
-     * The shell is set by BrowserPagerActivity and is released when BrowserPagerActivity
-     * is destroyed.
-     * Returns current global shell. If current shell is non-root, but root shell is requested,
-     * it will ask for root shell every #REASK_FOR_ROOT_SHELL_THRESHOLD calls.
+     * Returns false if the shell stopped responding or became slow. While the shell is unhealthy
+     * it's replaced in background, and the files that can be accessed without the shell should
+     * be accessed with Java. Never blocks
+     *
+     * @return whether the shell is healthy
+     */
+    public boolean isShellHealthy() {
+        return mHealthMonitor.isHealthy();
+    }
+
+    /**
+     * Unlike {@link #hasShell()}, doesn't open the shell and never blocks
+     *
+     * @return true if the shell is currently opened
+     */
+    public boolean isShellOpened() {
+        synchronized (mShellLock) {
+            return mShellPool != null && !mShellPool.isClosed();
+        }
+    }
+
+    /**
+     * The shell is opened in background by {@link #prewarm()}, or when it's first needed.
+     * Returns current global shell. If root shell is requested, but only non-root shell could be
+     * opened, the non-root shell is returned without waiting, and root shell is requested in
+     * background with growing intervals.
+     * Blocks only if there is no shell that can be used, until the shell is opened, unless the
+     * shell is unhealthy and is being recovered in background.
      *
-     * @return shell shared Shell instance
+     * @return shell shared ShellPool instance
      */
     @Nullable
-    private Shell getShell() {
+    private ShellPool getShell() {
+        final Future<ShellPool> opening;
         synchronized (mShellLock) {
             final boolean suEnabled = Settings.getInstance().isSuEnabled();
-            if (suEnabled && mShell != null && !mIsRootShell) {
-                if (mSkipReaskForRootShellCount >= REASK_FOR_ROOT_SHELL_THRESHOLD) {
-                    mSkipReaskForRootShellCount = 0;
-                    final Pair<Boolean, Shell> result = ShellFactory.getRootShell();
-                    applyResult(result);
-                } else {
-                    mSkipReaskForRootShellCount++;
-                }
+            if (isSuitable(mShellPool, suEnabled)) {
+                return mShellPool;
             }
-            if (!suEnabled && mShell != null && mIsRootShell) {
-                openNewShell();
-                mSkipReaskForRootShellCount = REASK_FOR_ROOT_SHELL_THRESHOLD;
+            if (suEnabled && mShellPool != null && !mShellPool.isClosed()) {
+                // superuser was not granted, continue with non-root shell
+                scheduleRootProbe();
+                return mShellPool;
             }
-            if (mShell == null || !Shell.isAnyShellOpen()) {
-                openNewShell();
-                mSkipReaskForRootShellCount = REASK_FOR_ROOT_SHELL_THRESHOLD;
+            opening = openAsync(false);
+            if (!mHealthMonitor.isHealthy()) {
+                // callers don't wait for the recovery
+                return null;
             }
-            return mShell;
+        }
+        try {
+            return opening.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Log.w("ShellHolder", "Failed to open shell: " + e.getCause());
+            return null;
         }
     }
 
+    private static boolean isSuitable(@Nullable final ShellPool pool, final boolean suEnabled) {
+        return pool != null && !pool.isClosed() && pool.isRoot() == suEnabled;
+    }
+
     /**
-     * Opens new shell. This method is called from {@link #getShell()} and is already synchronized
-     * with {@link #mShellLock}
+     * Opens the shell in background, unless it's already being opened.
+     * Must be called with {@link #mShellLock} held
+     *
+     * @param replace whether to replace the current shell even if it is usable
+     * @return result of opening
      */
-    private void openNewShell() {
-        try {
-            final Pair<Boolean, Shell> result = ShellFactory.getShell();
-            applyResult(result);
-        } catch (IOException e) {
-            Log.w("getShell() error:", e);
+    @NonNull
+    private Future<ShellPool> openAsync(final boolean replace) {
+        if (mOpening != null && !mOpening.isDone()) {
+            return mOpening;
         }
+        mOpening = mOpener.submit(new Callable<ShellPool>() {
+            @Override
+            public ShellPool call() {
+                final boolean suEnabled = Settings.getInstance().isSuEnabled();
+                final boolean hasShell;
+                synchronized (mShellLock) {
+                    hasShell = mShellPool != null && !mShellPool.isClosed();
+                }
+                // if there is a non-root shell already, don't replace it with another one
+                final ShellPool pool = suEnabled && hasShell && !replace ?
+                        ShellFactory.getRootShell() : ShellFactory.getShell();
+                synchronized (mShellLock) {
+                    applyResult(pool);
+                    if (suEnabled && !mIsRootShell) {
+                        scheduleRootProbe();
+                    }
+                    return mShellPool;
+                }
+            }
+        });
+        return mOpening;
+    }
+
+    /**
+     * Schedules opening of root shell, unless already scheduled. The delay doubles after every
+     * failed attempt. Must be called with {@link #mShellLock} held
+     */
+    private void scheduleRootProbe() {
+        if (mRootProbe != null && !mRootProbe.isDone()) {
+            return;
+        }
+        mRootProbe = mOpener.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mShellLock) {
+                    if (!Settings.getInstance().isSuEnabled() || mIsRootShell) {
+                        return;
+                    }
+                }
+                final ShellPool pool = ShellFactory.getRootShell();
+                synchronized (mShellLock) {
+                    if (pool != null) {
+                        if (Settings.getInstance().isSuEnabled()) {
+                            applyResult(pool);
+                            mRootProbeDelay = ROOT_PROBE_DELAY_MIN;
+                        } else {
+                            pool.close();
+                        }
+                    } else {
+                        mRootProbeDelay = Math.min(mRootProbeDelay * 2, ROOT_PROBE_DELAY_MAX);
+                        mRootProbe = null;
+                        scheduleRootProbe();
+                    }
+                }
+            }
+        }, mRootProbeDelay, TimeUnit.MILLISECONDS);
     }
 
     /**
-     * Applies shell result. This method is called from {@link #getShell()} and is already
-     * synchronized with {@link #mShellLock}
+     * Replaces current shell with the result. The commands queued in the previous shell are
+     * completed before it's closed. Must be called with {@link #mShellLock} held
      *
      * @param result {@link ShellFactory#getShell} result
      */
-    private void applyResult(@Nullable final Pair<Boolean, Shell> result) {
+    private void applyResult(@Nullable final ShellPool result) {
         if (result != null) {
-            releaseShellAsync(false);
-            mIsRootShell = result.first;
-            mShell = result.second;
-            mSkipReaskForRootShellCount = 0;
+            if (mShellPool != null) {
+                mShellPool.shutdown();
+                // results of probes depend on the shell privileges
+                ProbeCache.invalidateAll();
+            }
+            mIsRootShell = result.isRoot();
+            mShellPool = result;
+            mHealthMonitor.start();
             mHandler.removeMessages(ShellHolderHandler.MESSAGE_NOTIFY_LISTENERS);
             mHandler.sendEmptyMessage(ShellHolderHandler.MESSAGE_NOTIFY_LISTENERS);
         }
@@ -225,12 +370,37 @@ public final class ShellHolder {
             for (final WeakReference<OnShellChangedListener> ref : sListeners) {
                 final OnShellChangedListener l = ref.get();
                 if (l != null) {
-                    l.onShellChanged(mShell != null, mIsRootShell);
+                    l.onShellChanged(mShellPool != null && mHealthMonitor.isHealthy(),
+                            mIsRootShell);
                 }
             }
         }
     }
 
+    private final class HealthMonitorCallback implements ShellHealthMonitor.Callback {
+
+        @Nullable
+        @Override
+        public ShellPool getShellPool() {
+            synchronized (mShellLock) {
+                return mShellPool;
+            }
+        }
+
+        @Override
+        public void recover() {
+            synchronized (mShellLock) {
+                openAsync(true);
+            }
+        }
+
+        @Override
+        public void onHealthChanged(final boolean healthy) {
+            mHandler.removeMessages(ShellHolderHandler.MESSAGE_NOTIFY_LISTENERS);
+            mHandler.sendEmptyMessage(ShellHolderHandler.MESSAGE_NOTIFY_LISTENERS);
+        }
+    }
+
     private static final class ShellHolderHandler extends Handler {
 
         static final int MESSAGE_NOTIFY_LISTENERS = 13;
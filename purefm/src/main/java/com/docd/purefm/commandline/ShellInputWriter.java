@@ -0,0 +1,108 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.commandline;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Writes commands to the shell as UTF-8. Bytes escaped by {@link ShellOutputReader} are written
+ * as the original bytes, so that names that are not valid UTF-8 can be passed back to the shell.
+ * Unpaired surrogates that are not escaped bytes are written as '?'.
+ * Not thread safe.
+ */
+public final class ShellInputWriter extends Writer {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final OutputStream mOutput;
+
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private int mCount;
+
+    public ShellInputWriter(@NonNull final OutputStream output) {
+        mOutput = output;
+    }
+
+    @Override
+    public void write(@NonNull final char[] buf, final int offset, final int count)
+            throws IOException {
+        final int end = offset + count;
+        for (int i = offset; i < end; i++) {
+            final char c = buf[i];
+            if (c < 0x80) {
+                put(c);
+            } else if (c < 0x800) {
+                put(0xc0 | (c >> 6));
+                put(0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < end &&
+                    Character.isLowSurrogate(buf[i + 1])) {
+                final int codePoint = Character.toCodePoint(c, buf[++i]);
+                put(0xf0 | (codePoint >> 18));
+                put(0x80 | ((codePoint >> 12) & 0x3f));
+                put(0x80 | ((codePoint >> 6) & 0x3f));
+                put(0x80 | (codePoint & 0x3f));
+            } else if (ShellOutputReader.isEscapedByte(c)) {
+                put(ShellOutputReader.toByte(c));
+            } else if (Character.isSurrogate(c)) {
+                put('?');
+            } else {
+                put(0xe0 | (c >> 12));
+                put(0x80 | ((c >> 6) & 0x3f));
+                put(0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    @Override
+    public void write(@NonNull final String str, final int offset, final int count)
+            throws IOException {
+        final char[] chars = new char[count];
+        str.getChars(offset, offset + count, chars, 0);
+        write(chars, 0, count);
+    }
+
+    private void put(final int b) throws IOException {
+        if (mCount == mBuffer.length) {
+            flushBuffer();
+        }
+        mBuffer[mCount++] = (byte) b;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (mCount != 0) {
+            mOutput.write(mBuffer, 0, mCount);
+            mCount = 0;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        mOutput.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            mOutput.close();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.commandline;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Reads lines of shell output as UTF-8.
+ *
+ * Bytes that are not valid UTF-8, like names of files created with a different encoding, are
+ * not replaced, but are kept as chars in range U+DC80..U+DCFF, that are never produced by valid
+ * UTF-8. {@link ShellInputWriter} writes these chars back as the original bytes, so such names
+ * can be passed to later commands.
+ *
+ * The byte and char buffers and the decoder are reused for all lines. ASCII lines, which are
+ * the most of the output, are converted without the decoder.
+ * Not thread safe.
+ */
+public final class ShellOutputReader implements Closeable {
+
+    /**
+     * The first char of the range malformed bytes 0x80..0xFF are mapped to
+     */
+    private static final char ESCAPE_BASE = '\uDC00';
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final InputStream mInput;
+
+    private final CharsetDecoder mDecoder = UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+
+    /**
+     * Bytes read from the input. Bytes in range [mStart, mEnd) are not yet returned as lines
+     */
+    private byte[] mBytes = new byte[BUFFER_SIZE];
+    private int mStart;
+    private int mEnd;
+
+    private CharBuffer mChars = CharBuffer.allocate(BUFFER_SIZE);
+
+    public ShellOutputReader(@NonNull final InputStream input) {
+        mInput = input;
+    }
+
+    /**
+     * Returns true if the char is a byte that is not valid UTF-8
+     *
+     * @param c char to check
+     * @return true if the char is an escaped byte
+     */
+    static boolean isEscapedByte(final char c) {
+        return c >= ESCAPE_BASE + 0x80 && c <= ESCAPE_BASE + 0xff;
+    }
+
+    /**
+     * Returns the byte the escaped char stands for
+     *
+     * @param c char for which {@link #isEscapedByte(char)} is true
+     * @return the original byte
+     */
+    static byte toByte(final char c) {
+        return (byte) (c - ESCAPE_BASE);
+    }
+
+    /**
+     * Reads a line terminated by '\n'. The terminator is not included
+     *
+     * @return the line, or null if the end of the input is reached
+     * @throws IOException if failed to read
+     */
+    @Nullable
+    public String readLine() throws IOException {
+        int scanned = mStart;
+        while (true) {
+            for (int i = scanned; i < mEnd; i++) {
+                if (mBytes[i] == '\n') {
+                    final String line = decode(mStart, i);
+                    mStart = i + 1;
+                    return line;
+                }
+            }
+            scanned = mEnd - mStart;
+            if (!fill()) {
+                if (mStart == mEnd) {
+                    return null;
+                }
+                // the last line is not terminated
+                final String line = decode(mStart, mEnd);
+                mStart = mEnd;
+                return line;
+            }
+            scanned += mStart;
+        }
+    }
+
+    /**
+     * Reads more bytes, moving not yet returned bytes to the beginning of the buffer
+     * and growing it if it's full
+     *
+     * @return false if the end of the input is reached
+     * @throws IOException if failed to read
+     */
+    private boolean fill() throws IOException {
+        final int remaining = mEnd - mStart;
+        if (mStart != 0) {
+            System.arraycopy(mBytes, mStart, mBytes, 0, remaining);
+        } else if (remaining == mBytes.length) {
+            final byte[] bytes = new byte[mBytes.length * 2];
+            System.arraycopy(mBytes, 0, bytes, 0, remaining);
+            mBytes = bytes;
+        }
+        mStart = 0;
+        mEnd = remaining;
+        final int read = mInput.read(mBytes, mEnd, mBytes.length - mEnd);
+        if (read == -1) {
+            return false;
+        }
+        mEnd += read;
+        return true;
+    }
+
+    @NonNull
+    private String decode(final int start, final int end) {
+        final int length = end - start;
+        if (mChars.capacity() < length) {
+            // UTF-8 never decodes to more chars than bytes
+            mChars = CharBuffer.allocate(length);
+        }
+        final char[] chars = mChars.array();
+        boolean ascii = true;
+        for (int i = 0; i < length; i++) {
+            final byte b = mBytes[start + i];
+            if (b < 0) {
+                ascii = false;
+                break;
+            }
+            chars[i] = (char) b;
+        }
+        if (ascii) {
+            return new String(chars, 0, length);
+        }
+
+        final ByteBuffer in = ByteBuffer.wrap(mBytes, start, length);
+        final CharBuffer out = mChars;
+        out.clear();
+        mDecoder.reset();
+        while (true) {
+            final CoderResult result = mDecoder.decode(in, out, true);
+            if (result.isUnderflow()) {
+                break;
+            }
+            // malformed bytes are escaped one by one, the decoder resumes after each
+            for (int i = 0; i < result.length(); i++) {
+                out.put((char) (ESCAPE_BASE + (in.get() & 0xff)));
+            }
+            mDecoder.reset();
+        }
+        mDecoder.flush(out);
+        return new String(chars, 0, out.position());
+    }
+
+    @Override
+    public void close() throws IOException {
+        mInput.close();
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.commandline;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pool of shells of the same type (root or non-root) that execute commands concurrently.
+ *
+ * The first shell is dedicated to {@link Command.Lane#INTERACTIVE} commands. The rest of the
+ * shells execute {@link Command.Lane#BACKGROUND} commands and help with interactive commands
+ * when there are no background commands queued. When the pool has a single shell, it executes
+ * commands of both lanes, preferring interactive ones.
+ *
+ * Within a lane, commands are queued per command class and the classes are served round-robin,
+ * so that a burst of commands of one class does not delay commands of the other classes.
+ */
+final class ShellPool {
+
+    private static final Command.Lane[] LANES_INTERACTIVE = {
+            Command.Lane.INTERACTIVE
+    };
+
+    private static final Command.Lane[] LANES_BACKGROUND = {
+            Command.Lane.BACKGROUND, Command.Lane.INTERACTIVE
+    };
+
+    private static final Command.Lane[] LANES_ALL = {
+            Command.Lane.INTERACTIVE, Command.Lane.BACKGROUND
+    };
+
+    private final Object mLock = new Object();
+
+    private final Map<Command.Lane, LaneQueue> mQueues = new EnumMap<>(Command.Lane.class);
+
+    private final List<Worker> mWorkers;
+
+    private final boolean mIsRoot;
+
+    private boolean mIsClosed;
+
+    /**
+     * Set by {@link #shutdown()}. No new commands are accepted, the queued ones are completed
+     */
+    private boolean mIsShutdown;
+
+    /**
+     * Creates new pool and starts it's workers. Shells other than the first one are opened
+     * when they are first needed.
+     *
+     * @param firstShell Opened shell of the interactive lane. Defines the type of all shells
+     * @param size Number of shells in this pool
+     */
+    ShellPool(@NonNull final ShellProcess firstShell, final int size) {
+        mIsRoot = firstShell.isRoot();
+        for (final Command.Lane lane : Command.Lane.values()) {
+            mQueues.put(lane, new LaneQueue());
+        }
+        final int workers = size < 1 ? 1 : size;
+        mWorkers = new ArrayList<>(workers);
+        mWorkers.add(new Worker(workers == 1 ? LANES_ALL : LANES_INTERACTIVE, firstShell));
+        for (int i = 1; i < workers; i++) {
+            mWorkers.add(new Worker(LANES_BACKGROUND, null));
+        }
+        for (int i = 0; i < workers; i++) {
+            final Worker worker = mWorkers.get(i);
+            worker.setName("ShellPool-" + (mIsRoot ? "su-" : "sh-") + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    boolean isRoot() {
+        return mIsRoot;
+    }
+
+    boolean isClosed() {
+        synchronized (mLock) {
+            return mIsClosed || mIsShutdown;
+        }
+    }
+
+    /**
+     * Queues the command for execution in the lane returned by {@link Command#getLane()}.
+     * The timeout of the command starts counting when it's execution starts
+     *
+     * @param command Command to execute
+     * @return false if the pool is closed or shut down
+     */
+    boolean execute(@NonNull final Command command) {
+        command.onQueued();
+        synchronized (mLock) {
+            if (mIsClosed || mIsShutdown) {
+                return false;
+            }
+            mQueues.get(command.getLane()).add(command);
+            mLock.notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * Stops accepting new commands. The queued commands and commands being executed are
+     * completed, after which the shells are closed. Returns immediately.
+     */
+    void shutdown() {
+        synchronized (mLock) {
+            mIsShutdown = true;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Closes all shells. Queued commands and commands being executed are terminated.
+     */
+    void close() {
+        final List<Command> queued = new ArrayList<>();
+        synchronized (mLock) {
+            if (mIsClosed) {
+                return;
+            }
+            mIsClosed = true;
+            for (final LaneQueue queue : mQueues.values()) {
+                queue.drainTo(queued);
+            }
+            for (final Worker worker : mWorkers) {
+                worker.closeShell();
+            }
+            mLock.notifyAll();
+        }
+        for (final Command command : queued) {
+            CommandMetrics.recordNotExecuted(command, CommandMetrics.Outcome.TERMINATED);
+            command.commandTerminated(command.getId(), "Shell closed");
+        }
+    }
+
+    /**
+     * Waits for the next command in one of the lanes
+     *
+     * @param lanes Lanes to take the command from, in order of preference
+     * @return next command, or null if the pool was closed, or was shut down and there are
+     * no more commands in the lanes
+     */
+    @Nullable
+    private Command next(@NonNull final Command.Lane[] lanes) {
+        synchronized (mLock) {
+            while (!mIsClosed) {
+                for (final Command.Lane lane : lanes) {
+                    final Command command = mQueues.get(lane).poll();
+                    if (command != null) {
+                        return command;
+                    }
+                }
+                if (mIsShutdown) {
+                    return null;
+                }
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    return null;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Commands of a lane queued per command class
+     */
+    private static final class LaneQueue {
+
+        private final LinkedHashMap<Class<? extends Command>, ArrayDeque<Command>> mQueues =
+                new LinkedHashMap<>();
+
+        void add(@NonNull final Command command) {
+            final Class<? extends Command> commandClass = command.getClass();
+            ArrayDeque<Command> queue = mQueues.get(commandClass);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                mQueues.put(commandClass, queue);
+            }
+            queue.add(command);
+        }
+
+        /**
+         * Returns the next command of the class that was served least recently
+         *
+         * @return next command or null if there are no commands
+         */
+        @Nullable
+        Command poll() {
+            final Iterator<Map.Entry<Class<? extends Command>, ArrayDeque<Command>>> iterator =
+                    mQueues.entrySet().iterator();
+            if (!iterator.hasNext()) {
+                return null;
+            }
+            final Map.Entry<Class<? extends Command>, ArrayDeque<Command>> entry =
+                    iterator.next();
+            iterator.remove();
+            final ArrayDeque<Command> queue = entry.getValue();
+            final Command command = queue.poll();
+            if (!queue.isEmpty()) {
+                // moves the class to the end of the line
+                mQueues.put(entry.getKey(), queue);
+            }
+            return command;
+        }
+
+        void drainTo(@NonNull final List<Command> target) {
+            for (final ArrayDeque<Command> queue : mQueues.values()) {
+                target.addAll(queue);
+            }
+            mQueues.clear();
+        }
+    }
+
+    /**
+     * Thread that owns a single shell and executes commands of it's lanes in it
+     */
+    private final class Worker extends Thread {
+
+        private final Command.Lane[] mLanes;
+
+        /**
+         * Guarded by {@link #mLock}
+         */
+        private ShellProcess mShell;
+
+        Worker(@NonNull final Command.Lane[] lanes, @Nullable final ShellProcess shell) {
+            mLanes = lanes;
+            mShell = shell;
+        }
+
+        @Override
+        public void run() {
+            Command command;
+            while ((command = next(mLanes)) != null) {
+                final ShellProcess shell = obtainShell();
+                if (shell == null) {
+                    CommandMetrics.recordNotExecuted(command, CommandMetrics.Outcome.TERMINATED);
+                    command.commandTerminated(command.getId(), "Failed to open shell");
+                    continue;
+                }
+                try {
+                    shell.execute(command);
+                } catch (IOException e) {
+                    shell.close();
+                }
+            }
+            closeShell();
+        }
+
+        /**
+         * Returns current shell, or opens new one if the shell is not yet opened or has died
+         *
+         * @return opened shell or null if failed to open or the pool was closed
+         */
+        @Nullable
+        private ShellProcess obtainShell() {
+            synchronized (mLock) {
+                if (mShell != null && !mShell.isClosed()) {
+                    return mShell;
+                }
+            }
+            final ShellProcess shell = ShellProcess.open(mIsRoot);
+            if (shell == null) {
+                return null;
+            }
+            synchronized (mLock) {
+                if (mIsClosed) {
+                    shell.close();
+                    return null;
+                }
+                mShell = shell;
+                return shell;
+            }
+        }
+
+        void closeShell() {
+            synchronized (mLock) {
+                if (mShell != null) {
+                    mShell.close();
+                    mShell = null;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,529 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.commandline;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single sh or su process that executes {@link Command}s one by one.
+ * After every command an end marker with the sequence number of the command and the exit code is
+ * printed, so that the output of the command can be separated from the output of the next one
+ * without restarting the process, and multiple commands can be written at once.
+ * Stderr is redirected to stdout.
+ *
+ * A command that times out while being executed kills the shell together with all processes
+ * started by it, since there is no other way to interrupt the command reliably. A read-only
+ * command that is cancelled is drained instead: it's output is discarded and the shell is kept,
+ * so that abandoning a listing doesn't cost opening two shells, which for su means two
+ * superuser sessions. The shell is killed only if the command doesn't complete within
+ * {@link #DRAIN_TIMEOUT}.
+ *
+ * This class is not thread-safe. Only one command may be executed at a time. Only
+ * {@link #kill()} and {@link #close()} may be called from other threads.
+ */
+final class ShellProcess {
+
+    private static final String TAG = "ShellProcess";
+
+    /**
+     * Time to wait for the shell to start, including the time the user needs to grant superuser
+     */
+    private static final long OPEN_TIMEOUT = 25000L;
+
+    private static final String UID_ROOT = "uid=0";
+
+    /**
+     * Kills the process with pid passed as the argument and all it's descendants.
+     * Every process is stopped before it's children are looked up, so that it can't start new
+     * processes or continue with the next command when the children are killed.
+     * The parent pid is the fourth field of /proc/[pid]/stat
+     */
+    private static final String KILL_TREE = "k() { kill -STOP \"$1\" 2>/dev/null; " +
+            "for s in /proc/[0-9]*/stat; do read -r p c t pp r < \"$s\" 2>/dev/null && " +
+            "[ \"$pp\" = \"$1\" ] && k \"$p\"; done; kill -9 \"$1\" 2>/dev/null; }; k ";
+
+    /**
+     * Time a cancelled read-only command may take to complete before the shell is killed
+     */
+    private static final long DRAIN_TIMEOUT = 5000L;
+
+    /**
+     * Max number of chars of pipelined commands written before reading their output
+     */
+    private static final int WRITE_WINDOW = 8192;
+
+    /**
+     * Used to destroy the processes that did not start in time and to terminate the commands
+     * that did not complete in time
+     */
+    private static final ScheduledExecutorService sWatchdog =
+            Executors.newSingleThreadScheduledExecutor();
+
+    private final Process mProcess;
+    private final ShellOutputReader mReader;
+    private final ShellInputWriter mWriter;
+
+    /**
+     * End of command marker. Contains symbols not allowed in file names and a random part to
+     * reduce the possibility of misinterpreting the command output with the marker
+     */
+    private final String mEndMarker;
+
+    private final boolean mIsRoot;
+
+    /**
+     * Pid of the shell as seen by the shell itself. For su this is the pid of the root shell
+     * rather than of su
+     */
+    private volatile int mPid;
+
+    private boolean mIsClosed;
+
+    /**
+     * Sequence number of the next command to write
+     */
+    private int mSequence;
+
+    private ShellProcess(@NonNull final Process process, final boolean root) {
+        mProcess = process;
+        mIsRoot = root;
+        mReader = new ShellOutputReader(process.getInputStream());
+        mWriter = new ShellInputWriter(process.getOutputStream());
+        final byte[] random = new byte[8];
+        new SecureRandom().nextBytes(random);
+        final StringBuilder marker = new StringBuilder("/:PFM:");
+        for (final byte b : random) {
+            marker.append(Character.forDigit((b >> 4) & 0xf, 16));
+            marker.append(Character.forDigit(b & 0xf, 16));
+        }
+        mEndMarker = marker.toString();
+    }
+
+    /**
+     * Starts new shell process
+     *
+     * @param root whether to start su or sh
+     * @return new shell process, or null if failed to start, timed out or superuser was denied
+     */
+    @Nullable
+    static ShellProcess open(final boolean root) {
+        final Process process;
+        try {
+            process = new ProcessBuilder(root ? "su" : "sh").redirectErrorStream(true).start();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to start shell: " + e);
+            return null;
+        }
+        final ShellProcess shell = new ShellProcess(process, root);
+        final ScheduledFuture<?> timeout = sWatchdog.schedule(new Runnable() {
+            @Override
+            public void run() {
+                shell.close();
+            }
+        }, OPEN_TIMEOUT, TimeUnit.MILLISECONDS);
+        try {
+            final StringBuilder id = new StringBuilder();
+            final int exitCode = shell.run("echo $$ && id", new OutputListener() {
+                @Override
+                public void onOutput(@NonNull final String line) {
+                    if (shell.mPid == 0) {
+                        try {
+                            shell.mPid = Integer.parseInt(line.trim());
+                        } catch (NumberFormatException e) {
+                            Log.w(TAG, "Expected pid, but received \'" + line + "\'");
+                        }
+                    } else {
+                        id.append(line);
+                    }
+                }
+            });
+            if (exitCode == 0 && (!root || id.indexOf(UID_ROOT) != -1)) {
+                return shell;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to start shell: " + e);
+        } finally {
+            timeout.cancel(false);
+        }
+        shell.close();
+        return null;
+    }
+
+    boolean isRoot() {
+        return mIsRoot;
+    }
+
+    synchronized boolean isClosed() {
+        return mIsClosed;
+    }
+
+    /**
+     * Executes the command and delivers it's output and exit code to the command.
+     * Commands of {@link CommandBatch} are executed with {@link #execute(CommandBatch)}.
+     *
+     * If the termination of the command was requested before it started, the command is
+     * terminated without execution. The timeout is counted from the start of execution.
+     *
+     * @param command Command to execute
+     * @throws IOException if the shell died, was closed or killed during execution
+     */
+    void execute(@NonNull final Command command) throws IOException {
+        final int id = command.getId();
+        if (!command.onExecutionStarted(this)) {
+            final String reason = command.getTerminationReason();
+            CommandMetrics.recordNotExecuted(command, CommandMetrics.outcomeOf(reason));
+            command.commandTerminated(id, reason);
+            return;
+        }
+        final long deadline = command.getDeadline();
+        ScheduledFuture<?> timeout = null;
+        if (deadline != 0L) {
+            final long now = SystemClock.elapsedRealtime();
+            timeout = sWatchdog.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    command.requestTermination(Command.REASON_TIMED_OUT);
+                }
+            }, deadline - now, TimeUnit.MILLISECONDS);
+        }
+        final CommandOutputListener listener = new CommandOutputListener(command);
+        final int exitCode;
+        try {
+            if (command instanceof CommandBatch) {
+                exitCode = execute((CommandBatch) command);
+            } else {
+                exitCode = run(command.getCommand(), listener);
+            }
+        } catch (IOException e) {
+            command.onExecutionFinished();
+            final String reason = getTerminationReason(command, e);
+            listener.record(CommandMetrics.outcomeOf(command.getTerminationReason()));
+            command.commandTerminated(id, reason);
+            throw e;
+        } finally {
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+        }
+        command.onExecutionFinished();
+        final String reason = command.getTerminationReason();
+        if (reason != null) {
+            // drained after cancellation
+            listener.record(CommandMetrics.outcomeOf(reason));
+            command.commandTerminated(id, reason);
+            return;
+        }
+        listener.record(CommandMetrics.outcomeOf(exitCode));
+        command.commandCompleted(id, exitCode);
+    }
+
+    /**
+     * Executes commands of the batch pipelined. Commands are written without waiting for the
+     * previous ones to complete, and their outputs are separated by the end markers.
+     *
+     * To avoid a deadlock when both stdin and stdout buffers of the shell are full, no more than
+     * {@link #WRITE_WINDOW} chars of commands are written before reading the output.
+     * When the batch is drained after cancellation, no more commands are written, and the
+     * commands that were not written are terminated.
+     *
+     * @param batch Batch of commands to execute
+     * @return exit code of the first failed command, or zero if all succeeded
+     * @throws IOException if the shell died, was closed or killed during execution
+     */
+    private int execute(@NonNull final CommandBatch batch) throws IOException {
+        final List<Command> commands = batch.getCommands();
+        final int size = commands.size();
+        final int firstSequence = mSequence;
+        final long queuedAt = batch.getQueuedAt();
+        long previousCompletedAt = batch.getStartedAt();
+        int batchExitCode = 0;
+        int written = 0;
+        int completed = 0;
+        try {
+            while (completed < written ||
+                    (completed < size && batch.getTerminationReason() == null)) {
+                int chars = 0;
+                while (written < size && batch.getTerminationReason() == null &&
+                        (written == completed || chars < WRITE_WINDOW)) {
+                    chars += write(commands.get(written).getCommand());
+                    written++;
+                }
+                mWriter.flush();
+                while (completed < written) {
+                    final Command command = commands.get(completed);
+                    final CommandOutputListener listener = new CommandOutputListener(command);
+                    final int exitCode = read(firstSequence + completed, listener);
+                    completed++;
+                    // the command waited for the previous commands of the batch
+                    final long completedAt = System.nanoTime();
+                    listener.record(previousCompletedAt - queuedAt,
+                            completedAt - previousCompletedAt,
+                            CommandMetrics.outcomeOf(exitCode));
+                    previousCompletedAt = completedAt;
+                    command.commandCompleted(command.getId(), exitCode);
+                    if (batchExitCode == 0) {
+                        batchExitCode = exitCode;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            final String reason = getTerminationReason(batch, e);
+            final CommandMetrics.Outcome outcome =
+                    CommandMetrics.outcomeOf(batch.getTerminationReason());
+            for (int i = completed; i < size; i++) {
+                final Command command = commands.get(i);
+                CommandMetrics.record(command.getClass(),
+                        previousCompletedAt - queuedAt, 0L, 0, 0L, outcome);
+                command.commandTerminated(command.getId(), reason);
+            }
+            throw e;
+        }
+        final String reason = batch.getTerminationReason();
+        if (reason != null) {
+            for (int i = completed; i < size; i++) {
+                final Command command = commands.get(i);
+                CommandMetrics.recordNotExecuted(command, CommandMetrics.outcomeOf(reason));
+                command.commandTerminated(command.getId(), reason);
+            }
+        }
+        return batchExitCode;
+    }
+
+    @NonNull
+    private static String getTerminationReason(@NonNull final Command command,
+                                               @NonNull final IOException e) {
+        final String reason = command.getTerminationReason();
+        return reason != null ? reason : String.valueOf(e.getMessage());
+    }
+
+    /**
+     * Writes the command followed by the end marker and reads the output until the end marker
+     *
+     * @param command Command to execute
+     * @param listener Listener to deliver output lines to
+     * @return exit code of the command
+     * @throws IOException if the shell died or was closed during execution
+     */
+    private int run(@NonNull final String command,
+                    @NonNull final OutputListener listener) throws IOException {
+        final int sequence = mSequence;
+        write(command);
+        mWriter.flush();
+        return read(sequence, listener);
+    }
+
+    /**
+     * Writes the command followed by the end marker with the sequence number of the command
+     * and the exit code. Does not flush.
+     *
+     * @param command Command to write
+     * @return number of chars written
+     * @throws IOException if the shell is closed or failed to write
+     */
+    private int write(@NonNull final String command) throws IOException {
+        if (isClosed()) {
+            throw new IOException("Shell is closed");
+        }
+        final String end = "\necho \"" + mEndMarker + ' ' + mSequence + " $?\"\n";
+        mWriter.write(command);
+        mWriter.write(end);
+        mSequence++;
+        return command.length() + end.length();
+    }
+
+    /**
+     * Reads the output until the end marker of the command
+     *
+     * @param sequence Expected sequence number of the command
+     * @param listener Listener to deliver output lines to
+     * @return exit code of the command
+     * @throws IOException if the shell died, was closed, or the end marker is not the expected one
+     */
+    private int read(final int sequence,
+                     @NonNull final OutputListener listener) throws IOException {
+        String line;
+        while ((line = mReader.readLine()) != null) {
+            final int markerIndex = line.indexOf(mEndMarker);
+            if (markerIndex != -1) {
+                if (markerIndex != 0) {
+                    // the output of the command did not end with a new line
+                    listener.onOutput(line.substring(0, markerIndex));
+                }
+                final String[] end = line.substring(
+                        markerIndex + mEndMarker.length()).trim().split(" ");
+                try {
+                    if (Integer.parseInt(end[0]) != sequence) {
+                        close();
+                        throw new IOException("Expected end of command " + sequence +
+                                ", but received \'" + line + "\'");
+                    }
+                    return Integer.parseInt(end[1]);
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    Log.w(TAG, "Expected exit code, but received \'" + line + "\'");
+                    return -1;
+                }
+            }
+            listener.onOutput(line);
+        }
+        close();
+        throw new IOException("Shell closed");
+    }
+
+    /**
+     * Lets the cancelled command complete with it's output discarded, and kills the shell if
+     * the command is still being executed after {@link #DRAIN_TIMEOUT}.
+     * May be called from any thread
+     *
+     * @param command Cancelled command being executed
+     */
+    void drain(@NonNull final Command command) {
+        sWatchdog.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (command.isExecutingIn(ShellProcess.this)) {
+                    Log.w(TAG, "Cancelled command did not complete in time: " + command);
+                    kill();
+                }
+            }
+        }, DRAIN_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Kills the processes started by the shell and the shell itself.
+     * The command being executed is terminated. The shell is closed immediately, so no more
+     * commands are executed in it, and the processes are killed in background.
+     * May be called from any thread
+     */
+    void kill() {
+        synchronized (this) {
+            if (mIsClosed) {
+                return;
+            }
+            mIsClosed = true;
+        }
+        final Thread killer = new Thread("ShellProcess-kill") {
+            @Override
+            public void run() {
+                killProcessTree();
+                destroy();
+            }
+        };
+        killer.setDaemon(true);
+        killer.start();
+    }
+
+    private void killProcessTree() {
+        if (mPid == 0) {
+            return;
+        }
+        // The process can only be killed by a shell of the same user, since the shell
+        // may be owned by root
+        final ShellProcess killer = open(mIsRoot);
+        if (killer == null) {
+            return;
+        }
+        try {
+            killer.run(KILL_TREE + mPid, new OutputListener() {
+                @Override
+                public void onOutput(@NonNull final String line) {
+
+                }
+            });
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to kill shell: " + e);
+        } finally {
+            killer.close();
+        }
+    }
+
+    /**
+     * Closes the shell destroying the process
+     */
+    void close() {
+        synchronized (this) {
+            if (mIsClosed) {
+                return;
+            }
+            mIsClosed = true;
+        }
+        destroy();
+    }
+
+    private void destroy() {
+        try {
+            mWriter.close();
+        } catch (IOException e) {
+            //ignored
+        }
+        mProcess.destroy();
+    }
+
+    private interface OutputListener {
+        void onOutput(@NonNull String line);
+    }
+
+    /**
+     * Delivers output lines to the command and counts them for {@link CommandMetrics}
+     */
+    private static final class CommandOutputListener implements OutputListener {
+
+        private final Command mCommand;
+
+        private int mLines;
+        private long mBytes;
+
+        CommandOutputListener(@NonNull final Command command) {
+            mCommand = command;
+        }
+
+        @Override
+        public void onOutput(@NonNull final String line) {
+            mLines++;
+            mBytes += CommandMetrics.utf8Length(line);
+            // the output of a drained command is discarded
+            if (mCommand.getTerminationReason() == null) {
+                mCommand.commandOutput(mCommand.getId(), line);
+            }
+        }
+
+        /**
+         * Records metrics of the command that was queued and executed by the pool
+         *
+         * @param outcome How the command finished
+         */
+        void record(@NonNull final CommandMetrics.Outcome outcome) {
+            final long startedAt = mCommand.getStartedAt();
+            record(startedAt - mCommand.getQueuedAt(), System.nanoTime() - startedAt, outcome);
+        }
+
+        void record(final long queueNanos,
+                    final long executionNanos,
+                    @NonNull final CommandMetrics.Outcome outcome) {
+            CommandMetrics.record(mCommand.getClass(), queueNanos, executionNanos,
+                    mLines, mBytes, outcome);
+        }
+    }
+}
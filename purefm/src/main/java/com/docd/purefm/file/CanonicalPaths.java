@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.file;
+
+import com.docd.purefm.commandline.ProbeCache;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Resolves canonical paths of files with {@link ProbeCache#CANONICAL_PATHS}, the same cache
+ * that is filled by {@link com.docd.purefm.commandline.CommandReadlink}.
+ *
+ * {@link File#getCanonicalPath()} checks every component of the path for being a symlink.
+ * Here the canonical path of the parent is taken from the cache, or resolved the same way, and
+ * only the file itself is checked, with a single lstat if {@link Posix} is available. Results are
+ * cached both for the absolute path and for the path in the canonical parent, so that files
+ * accessed by different paths, like /sdcard and /storage/emulated/0, share the entries.
+ *
+ * Paths of files that don't exist are not cached.
+ */
+public final class CanonicalPaths {
+
+    private CanonicalPaths() {
+    }
+
+    /**
+     * Returns canonical path of the file
+     *
+     * @param file File to resolve
+     * @return canonical path of the file
+     * @throws IOException if failed to resolve the path
+     */
+    @NonNull
+    public static String resolve(@NonNull final File file) throws IOException {
+        final String path = file.getAbsolutePath();
+        final String cached = ProbeCache.CANONICAL_PATHS.get(path);
+        if (cached != null) {
+            return ProbeCache.toCanonicalPath(cached);
+        }
+        final File parent = new File(path).getParentFile();
+        if (parent == null) {
+            // the root
+            return path;
+        }
+        final String name = file.getName();
+        if (name.isEmpty() || name.equals(".") || name.equals("..")) {
+            return file.getCanonicalPath();
+        }
+
+        final String canonicalParent = resolve(parent);
+        final String inCanonicalParent = canonicalParent.equals(File.separator) ?
+                canonicalParent + name : canonicalParent + File.separatorChar + name;
+        String value = inCanonicalParent.equals(path) ? null :
+                ProbeCache.CANONICAL_PATHS.get(inCanonicalParent);
+        if (value == null) {
+            value = resolveInCanonicalParent(inCanonicalParent);
+            if (value == null) {
+                return inCanonicalParent;
+            }
+            ProbeCache.CANONICAL_PATHS.put(inCanonicalParent, value);
+        }
+        if (!inCanonicalParent.equals(path)) {
+            ProbeCache.CANONICAL_PATHS.put(path, value);
+        }
+        return ProbeCache.toCanonicalPath(value);
+    }
+
+    /**
+     * Resolves the file which parent path is canonical
+     *
+     * @param path path of the file in the canonical parent
+     * @return canonical path in the format of {@link ProbeCache#CANONICAL_PATHS},
+     *         or null if the file doesn't exist
+     * @throws IOException if failed to resolve the path
+     */
+    @Nullable
+    private static String resolveInCanonicalParent(@NonNull final String path) throws IOException {
+        final Posix posix = Posix.getInstance();
+        if (posix != null) {
+            final Posix.Stat stat = posix.lstat(path);
+            if (stat == null) {
+                return null;
+            }
+            if (!stat.isSymlink()) {
+                return ProbeCache.toCachedValue(path, stat.isDirectory());
+            }
+        }
+        final File file = new File(path);
+        final String canonical = file.getCanonicalPath();
+        if (posix == null && !file.exists()) {
+            return null;
+        }
+        return ProbeCache.toCachedValue(canonical, new File(canonical).isDirectory());
+    }
+}
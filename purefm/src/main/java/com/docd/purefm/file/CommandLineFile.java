@@ -20,9 +20,8 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Locale;
 
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -36,36 +35,30 @@ import com.docd.purefm.commandline.CommandListFile;
 import com.docd.purefm.commandline.CommandMkdir;
 import com.docd.purefm.commandline.CommandMkdirs;
 import com.docd.purefm.commandline.CommandMove;
+import com.docd.purefm.commandline.CommandOutput;
 import com.docd.purefm.commandline.CommandReadlink;
 import com.docd.purefm.commandline.CommandRemove;
+import com.docd.purefm.commandline.CommandStatContents;
 import com.docd.purefm.commandline.CommandTouch;
 import com.docd.purefm.commandline.Constants;
+import com.docd.purefm.commandline.ProbeCache;
 import com.docd.purefm.settings.Settings;
 import com.docd.purefm.utils.MimeTypes;
-import com.docd.purefm.utils.PFMTextUtils;
 
 public final class CommandLineFile implements GenericFile,
         Comparable<GenericFile> {
 
     private static final long serialVersionUID = -8173533665283968040L;
 
-    private static final int LS_PERMISSIONS = 0;
-    // private static final int LS_NUMLINKS = 1;
-    private static final int LS_USER = 2;
-    private static final int LS_GROUP = 3;
-    private static final int LS_FILE_SIZE = 4;
-    // private static final int LS_DAY_OF_WEEK = 5;
-    private static final int LS_MONTH = 6;
-    private static final int LS_DAY_OF_MONTH = 7;
-    private static final int LS_TIME = 8;
-    private static final int LS_YEAR = 9;
-    private static final int LS_FILE = 10;
+    private static final int S_IFMT = 0170000;
+    private static final int S_IFLNK = 0120000;
+    private static final int S_IFDIR = 0040000;
 
     @NonNull
     private final File mFile;
 
     @Nullable
-    private final String mCanonicalPath;
+    private String mCanonicalPath;
     private Permissions mPermissions;
     private long mLength;
     private long mLastmod;
@@ -79,6 +72,9 @@ public final class CommandLineFile implements GenericFile,
     private boolean mIsSymlink;
     private boolean mIsDirectory;
 
+    private long mInode;
+    private long mDevice;
+
     /**
      * Creates a new CommandLineFile using File and canonical path from {@link CommandReadlink}
      *
@@ -99,7 +95,7 @@ public final class CommandLineFile implements GenericFile,
         if (noReadlink) {
             String canonicalPath;
             try {
-                canonicalPath = mFile.getCanonicalPath();
+                canonicalPath = CanonicalPaths.resolve(mFile);
             } catch (IOException e) {
                 canonicalPath = null;
             }
@@ -122,6 +118,20 @@ public final class CommandLineFile implements GenericFile,
         this.mCanonicalPath = CommandReadlink.readlink(mFile.getAbsolutePath());
     }
 
+    /**
+     * Creates a new CommandLineFile using parent File, file name and canonical path.
+     *
+     * @param parent Parent file, or null if the name is a full path
+     * @param name file name
+     * @param canonicalPath Canonical File path, or null if not yet resolved
+     */
+    private CommandLineFile(@Nullable final File parent,
+                            @NonNull final String name,
+                            @Nullable final String canonicalPath) {
+        this.mFile = new File(parent, name);
+        this.mCanonicalPath = canonicalPath;
+    }
+
     /**
      * Creates a new CommandLineFile using file path and canonical path from
      * {@link java.io.File#getAbsolutePath()}
@@ -132,7 +142,7 @@ public final class CommandLineFile implements GenericFile,
         this.mFile = new File(path);
         String canonicalPath;
         try {
-            canonicalPath = mFile.getCanonicalPath();
+            canonicalPath = CanonicalPaths.resolve(mFile);
         } catch (IOException e) {
             canonicalPath = null;
         }
@@ -153,6 +163,24 @@ public final class CommandLineFile implements GenericFile,
     }
 
 
+    /**
+     * Returns inode number of the file, if known
+     *
+     * @return inode number, or 0 if unknown
+     */
+    public long getInode() {
+        return this.mInode;
+    }
+
+    /**
+     * Returns device number of the file, if known
+     *
+     * @return device number, or 0 if unknown
+     */
+    public long getDevice() {
+        return this.mDevice;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -164,6 +192,10 @@ public final class CommandLineFile implements GenericFile,
     @NonNull
     public static CommandLineFile fromFile(@NonNull final Settings settings,
                                            @NonNull final File file) {
+        final FileMetadata cached = FileMetadataCache.get(file);
+        if (cached != null) {
+            return fromMetadata(file, cached);
+        }
         final List<String> res = CommandLine.executeForResult(
                 new CommandListFile(file, settings));
 
@@ -172,32 +204,74 @@ public final class CommandLineFile implements GenericFile,
             return new CommandLineFile(file);
         }
 
-        return fromLSL(null, res.get(0));
+        final CommandLineFile f = fromLSL(null, res.get(0));
+        FileMetadataCache.put(file, new FileMetadata(f));
+        return f;
     }
 
+    /**
+     * Restores a file from {@link FileMetadata} cached in {@link FileMetadataCache} without executing commands
+     *
+     * @param file File to restore
+     * @param metadata cached metadata
+     * @return restored file
+     */
     @NonNull
-    public static CommandLineFile fromLSL(@Nullable final File parent,
-                                          @NonNull final String line) {
+    private static CommandLineFile fromMetadata(@NonNull final File file,
+                                                @NonNull final FileMetadata metadata) {
+        return fromSnapshot(file, metadata.mCanonicalPath, true, metadata.mDirectory,
+                metadata.mSymlink, Permissions.valueOf(metadata.mPermissions), metadata.mOwner,
+                metadata.mGroup, metadata.mLength, metadata.mLastModified, metadata.mInode,
+                metadata.mDevice, metadata.mDirectory ? null : MimeTypes.getMimeType(file));
+    }
 
-        if (line.isEmpty()) {
-            throw new IllegalArgumentException("Bad ls -lApe output: is empty");
+    /**
+     * Creates an existing file of known type without executing commands, for operations that
+     * need only the path and the type of the file. Other attributes are taken from
+     * {@link FileMetadataCache} if cached, otherwise they are not set
+     *
+     * @param file File to create
+     * @param directory whether the file is a directory
+     * @param symlink whether the file is a symlink
+     * @return created file
+     */
+    @NonNull
+    public static CommandLineFile fromType(@NonNull final File file,
+                                           final boolean directory,
+                                           final boolean symlink) {
+        final FileMetadata cached = FileMetadataCache.get(file);
+        if (cached != null) {
+            return fromMetadata(file, cached);
         }
+        return fromSnapshot(file, null, true, directory, symlink, null, 0, 0, 0L, 0L, 0L, 0L,
+                directory ? null : MimeTypes.getMimeType(file));
+    }
 
-        final String[] attrs = getAttrs(line);
-        for (final String attr : attrs) {
-            if (attr == null) {
-                throw new IllegalArgumentException("Bad ls -lApe output: attr was null");
-            }
+    @NonNull
+    public static CommandLineFile fromLSL(@Nullable final File parent,
+                                          @NonNull final String line) {
+        return fromLSL(parent, line, new LsLineParser());
+    }
+
+    /**
+     * Creates CommandLineFile from ls output line
+     *
+     * @param parent Parent file, or null if the line contains full path
+     * @param line ls -lApe output line
+     * @param parser Parser to parse the line with
+     * @return CommandLineFile for ls output line
+     */
+    @NonNull
+    public static CommandLineFile fromLSL(@Nullable final File parent,
+                                          @NonNull final String line,
+                                          @NonNull final LsLineParser parser) {
+        if (!parser.parse(line)) {
+            throw new IllegalArgumentException("Bad ls -lApe output: " + line);
         }
 
-        String name = attrs[LS_FILE];
-        String canonicalPath = null;
+        final String name = parser.getName();
         // if is symlink then resolve real path
-        final int index = name.indexOf("->");
-        if (index != -1) {
-            canonicalPath = name.substring(index + 3).trim();
-            name = name.substring(0, index).trim();
-        }
+        final String canonicalPath = parser.getSymlinkTarget();
 
         final CommandLineFile f;
         if (parent == null) {
@@ -209,102 +283,229 @@ public final class CommandLineFile implements GenericFile,
         } else {
             f = new CommandLineFile(parent, name);
         }
-        init(f, line);
+        init(f, parser);
+        return f;
+    }
+
+    /**
+     * Creates CommandLineFile from ls output line of the directory listing without executing
+     * readlink. If the file is not a symlink, the canonical path is resolved from the parent's
+     * canonical path. Canonical paths of symlinks are left unresolved and should be resolved by
+     * {@link #resolveSymlinks(java.util.List)}
+     *
+     * @param parent Parent file
+     * @param parentCanonicalPath Canonical path of parent file, or null if unknown
+     * @param line ls -lApe output line
+     * @param parser Parser to parse the line with
+     * @return CommandLineFile for ls output line
+     */
+    @NonNull
+    private static CommandLineFile fromLSL(@NonNull final File parent,
+                                           @Nullable final String parentCanonicalPath,
+                                           @NonNull final String line,
+                                           @NonNull final LsLineParser parser) {
+        if (!parser.parse(line)) {
+            throw new IllegalArgumentException("Bad ls -lApe output: " + line);
+        }
+
+        final CommandLineFile f = new CommandLineFile(parent, parser.getName(), null);
+        init(f, parser);
+        if (!f.mIsSymlink && parentCanonicalPath != null) {
+            f.mCanonicalPath = new File(parentCanonicalPath, f.getName()).getAbsolutePath();
+        }
         return f;
     }
 
+    /**
+     * Creates CommandLineFile from {@link CommandStatContents#FORMAT} output line that contains
+     * the full path, like the output of {@link com.docd.purefm.commandline.CommandFind}.
+     * Doesn't execute readlink, the canonical path is resolved when first requested
+     *
+     * @param line stat output line
+     * @return CommandLineFile for stat output line
+     * @throws IllegalArgumentException if the line is not a stat output line
+     */
     @NonNull
-    private static String[] getAttrs(String string) {
-        if (string.length() < 44) {
-            throw new IllegalArgumentException("Bad ls -lApe output: " + string);
-        }
-        final char[] chars = string.toCharArray();
-
-        final String[] results = new String[11];
-        int ind = 0;
-        final StringBuilder current = new StringBuilder();
-
-        Loop: for (int i = 0; i < chars.length; i++) {
-            switch (chars[i]) {
-                case ' ':
-                case '\t':
-                    if (current.length() != 0) {
-                        results[ind] = current.toString();
-                        ind++;
-                        current.setLength(0);
-                        if (ind == 10) {
-                            results[ind] = string.substring(i).trim();
-                            break Loop;
-                        }
-                    }
-                    break;
+    public static CommandLineFile fromStat(@NonNull final String line) {
+        return fromStat(null, null, line);
+    }
 
-                default:
-                    current.append(chars[i]);
-                    break;
+    /**
+     * Creates CommandLineFile from {@link CommandStatContents#FORMAT} output line of the
+     * directory listing without executing readlink. If the file is not a symlink, the canonical
+     * path is resolved from the parent's canonical path. Canonical paths of symlinks are left
+     * unresolved and should be resolved by {@link #resolveSymlinks(java.util.List)}
+     *
+     * @param parent Parent file, or null if the line contains full path
+     * @param parentCanonicalPath Canonical path of parent file, or null if unknown
+     * @param line stat output line
+     * @return CommandLineFile for stat output line
+     */
+    @NonNull
+    private static CommandLineFile fromStat(@Nullable final File parent,
+                                            @Nullable final String parentCanonicalPath,
+                                            @NonNull final String line) {
+        final int[] separators = new int[CommandStatContents.FIELD_NAME];
+        int from = 0;
+        for (int i = 0; i < separators.length; i++) {
+            final int separator = line.indexOf(File.separatorChar, from);
+            if (separator == -1) {
+                throw new IllegalArgumentException("Bad stat output: " + line);
             }
+            separators[i] = separator;
+            from = separator + 1;
         }
 
-        return results;
+        final int mode = (int) parseLong(line, 0, separators[0], 16);
+        int nameStart = separators[CommandStatContents.FIELD_NAME - 1] + 1;
+        if (parent != null && line.startsWith("./", nameStart)) {
+            // listed relative to the parent
+            nameStart += 2;
+        }
+        final String name = line.substring(nameStart);
+        if (name.isEmpty()) {
+            throw new IllegalArgumentException("Bad stat output: " + line);
+        }
+
+        final CommandLineFile f = new CommandLineFile(parent, name, null);
+        f.mIsSymlink = (mode & S_IFMT) == S_IFLNK;
+        f.mIsDirectory = (mode & S_IFMT) == S_IFDIR;
+        f.mPermissions = Permissions.valueOf(mode);
+        f.mOwner = (int) parseLong(line, separators[0] + 1, separators[1], 10);
+        f.mGroup = (int) parseLong(line, separators[1] + 1, separators[2], 10);
+        f.mLength = parseLong(line, separators[2] + 1, separators[3], 10);
+        f.mLastmod = parseLong(line, separators[3] + 1, separators[4], 10) * 1000L;
+        f.mInode = parseLong(line, separators[4] + 1, separators[5], 10);
+        f.mDevice = parseLong(line, separators[5] + 1, separators[6], 10);
+        f.mExists = true;
+        if (!f.mIsDirectory) {
+            f.mMimeType = MimeTypes.getMimeType(f.mFile);
+        }
+        if (!f.mIsSymlink && parentCanonicalPath != null) {
+            f.mCanonicalPath = new File(parentCanonicalPath, name).getAbsolutePath();
+        }
+        return f;
     }
 
     /**
-     * Reads parameters from line and applies them to targetFile
+     * Restores a file from a {@link FileListSnapshot} without executing commands
      *
-     * @param targetFile CommandLineFile to initialize
-     * @param line ls -lApe output
+     * @return restored file
+     */
+    @NonNull
+    static CommandLineFile fromSnapshot(@NonNull final File file,
+                                        @Nullable final String canonicalPath,
+                                        final boolean exists,
+                                        final boolean directory,
+                                        final boolean symlink,
+                                        @Nullable final Permissions permissions,
+                                        final int owner,
+                                        final int group,
+                                        final long length,
+                                        final long lastModified,
+                                        final long inode,
+                                        final long device,
+                                        @Nullable final String mimeType) {
+        final CommandLineFile f = new CommandLineFile(null, file.getPath(), canonicalPath);
+        f.mExists = exists;
+        f.mIsDirectory = directory;
+        f.mIsSymlink = symlink;
+        f.mPermissions = permissions;
+        f.mOwner = owner;
+        f.mGroup = group;
+        f.mLength = length;
+        f.mLastmod = lastModified;
+        f.mInode = inode;
+        f.mDevice = device;
+        f.mMimeType = mimeType;
+        return f;
+    }
+
+    /**
+     * Returns canonical path without resolving it
+     *
+     * @return canonical path, or null if not yet resolved
      */
-    private static void init(final CommandLineFile targetFile, final String line) {
-        if (line.isEmpty()) {
-            throw new IllegalArgumentException("Bad ls -lApe output: is empty");
+    @Nullable
+    String getCanonicalPathOrNull() {
+        return mCanonicalPath;
+    }
+
+    /**
+     * Parses non-negative number from part of the string without creating substrings
+     *
+     * @param s String to parse number from
+     * @param start start index, inclusive
+     * @param end end index, exclusive
+     * @param radix radix of the number
+     * @return parsed number
+     * @throws IllegalArgumentException if the part is empty or contains illegal digits
+     */
+    private static long parseLong(@NonNull final String s, final int start, final int end,
+                                  final int radix) {
+        if (start >= end) {
+            throw new IllegalArgumentException("Expected number at " + start + ": " + s);
         }
-        final String[] attrs = getAttrs(line);
-        for (final String attr : attrs) {
-            if (attr == null) {
-                throw new IllegalArgumentException("Bad ls -lApe output: attr was null");
+        long result = 0;
+        for (int i = start; i < end; i++) {
+            final int digit = Character.digit(s.charAt(i), radix);
+            if (digit == -1) {
+                throw new IllegalArgumentException("Expected number at " + start + ": " + s);
             }
+            result = result * radix + digit;
         }
+        return result;
+    }
 
-        init(targetFile, getAttrs(line));
+    /**
+     * Resolves canonical paths of all symlinks in files using a single readlink command
+     *
+     * @param files Files to resolve canonical paths of symlinks for
+     */
+    private static void resolveSymlinks(@NonNull final List<CommandLineFile> files) {
+        final List<CommandLineFile> symlinks = new ArrayList<>();
+        final List<String> paths = new ArrayList<>();
+        for (final CommandLineFile file : files) {
+            if (file.mIsSymlink) {
+                symlinks.add(file);
+                paths.add(file.getAbsolutePath());
+            }
+        }
+        if (symlinks.isEmpty()) {
+            return;
+        }
+        final List<String> canonicalPaths = CommandReadlink.readlink(paths);
+        if (canonicalPaths != null) {
+            final int size = symlinks.size();
+            for (int i = 0; i < size; i++) {
+                final CommandLineFile symlink = symlinks.get(i);
+                String canonicalPath = canonicalPaths.get(i);
+                if (canonicalPath != null && canonicalPath.endsWith(File.separator)) {
+                    symlink.mIsDirectory = true;
+                    symlink.mMimeType = null;
+                    canonicalPath = canonicalPath.length() == 1 ? null :
+                            canonicalPath.substring(0, canonicalPath.length() - 1);
+                }
+                symlink.mCanonicalPath = canonicalPath;
+            }
+        }
     }
 
     /**
-     * Applies attrs to targetFile
+     * Applies attributes parsed from ls output line to targetFile
      *
      * @param targetFile CommandLineFile to initialize
-     * @param attrs Attributes read from ls -lApe output
-     */
-    private static void init(final CommandLineFile targetFile, String[] attrs) {
-        final String sourceName = attrs[LS_FILE];
-        final String perm = attrs[LS_PERMISSIONS];
-        targetFile.mIsSymlink = perm.charAt(0) == 'l';
-        targetFile.mIsDirectory = sourceName.endsWith(File.separator);
-
-        targetFile.mPermissions = new Permissions(perm);
-        targetFile.mOwner = Integer.parseInt(attrs[LS_USER]);
-        targetFile.mGroup = Integer.parseInt(attrs[LS_GROUP]);
-        final String len = attrs[LS_FILE_SIZE];
-        if (len != null && !len.isEmpty()) {
-            targetFile.mLength = Long.parseLong(len);
-        }
-
-        final Calendar c = Calendar.getInstance(Locale.US);
-        c.set(Calendar.YEAR, Integer.parseInt(attrs[LS_YEAR]));
-        c.set(Calendar.MONTH, PFMTextUtils.stringMonthToInt(attrs[LS_MONTH]));
-        c.set(Calendar.DAY_OF_MONTH, Integer.parseInt(attrs[LS_DAY_OF_MONTH]));
-
-        final int index1 = attrs[LS_TIME].indexOf(':');
-        final int index2        = attrs[LS_TIME].lastIndexOf(':');
-        if (index1 != -1 && index2 != -1) {
-            c.set(Calendar.HOUR_OF_DAY,
-                    Integer.parseInt(attrs[LS_TIME].substring(0, index1)));
-            c.set(Calendar.MINUTE,
-                    Integer.parseInt(attrs[LS_TIME].substring(index1 + 1, index2)));
-            c.set(Calendar.SECOND,
-                    Integer.parseInt(attrs[LS_TIME].substring(index2 + 1)));
-        }
-
-        targetFile.mLastmod = c.getTimeInMillis();
+     * @param parser Parser that parsed the line
+     */
+    private static void init(@NonNull final CommandLineFile targetFile,
+                             @NonNull final LsLineParser parser) {
+        targetFile.mIsSymlink = parser.isSymlink();
+        targetFile.mIsDirectory = parser.isDirectory();
+        targetFile.mPermissions = Permissions.valueOf(parser.getMode());
+        targetFile.mOwner = parser.getOwner();
+        targetFile.mGroup = parser.getGroup();
+        targetFile.mLength = parser.getLength();
+        targetFile.mLastmod = parser.getLastModified();
         targetFile.mExists = true;
         if (!targetFile.mIsDirectory) {
             targetFile.mMimeType = MimeTypes.getMimeType(targetFile.mFile);
@@ -321,6 +522,8 @@ public final class CommandLineFile implements GenericFile,
         this.mMimeType = other.mMimeType;
         this.mIsSymlink = other.mIsSymlink;
         this.mIsDirectory = other.mIsDirectory;
+        this.mInode = other.mInode;
+        this.mDevice = other.mDevice;
     }
 
     /**
@@ -354,7 +557,9 @@ public final class CommandLineFile implements GenericFile,
      */
     @Override
     public boolean delete() {
-        if (CommandLine.execute(new CommandRemove(this.mFile))) {
+        final boolean result = CommandLine.execute(new CommandRemove(this.mFile));
+        ProbeCache.invalidatePath(getAbsolutePath());
+        if (result) {
             this.mExists = false;
             this.mIsDirectory = false;
             this.mIsSymlink = false;
@@ -365,27 +570,105 @@ public final class CommandLineFile implements GenericFile,
         return false;
     }
 
+    /**
+     * Lists contents of this directory using stat, or ls if busybox has no stat. Canonical paths of the listed files are not
+     * resolved for symlinks. The files should be passed to {@link #resolveSymlinks(java.util.List)}
+     *
+     * @return contents of this directory or null if listing failed
+     */
+    @Nullable
+    private List<CommandLineFile> listContents() {
+        // resolved before listing since no other command can be executed while reading the output
+        String canonicalPath;
+        try {
+            canonicalPath = getCanonicalPath();
+        } catch (IOException e) {
+            canonicalPath = null;
+        }
+        final boolean stat = CommandStatContents.isAvailable();
+        final Settings settings = Settings.getInstance();
+        final CommandOutput output = CommandLine.executeForOutput(stat ?
+                new CommandStatContents(this, settings) : new CommandListContents(this, settings));
+        if (output == null) {
+            return null;
+        }
+        final List<CommandLineFile> res = new ArrayList<>();
+        final LsLineParser parser = stat ? null : new LsLineParser();
+        while (output.hasNext()) {
+            final CommandLineFile file = parseLine(canonicalPath, output.next(), parser);
+            if (file != null) {
+                res.add(file);
+            }
+        }
+        if (!output.waitForSuccess()) {
+            return null;
+        }
+        return res;
+    }
+
+    /**
+     * Parses a line of {@link CommandStatContents} or {@link CommandListContents} output
+     *
+     * @param canonicalPath canonical path of this directory
+     * @param line line to parse
+     * @param parser parser of ls -l output, or null if the output is stat output
+     * @return parsed file, or null if the line is not a file line
+     */
+    @Nullable
+    private CommandLineFile parseLine(@Nullable final String canonicalPath,
+                                      @NonNull final String line,
+                                      @Nullable final LsLineParser parser) {
+        final CommandLineFile file;
+        try {
+            file = parser == null ? CommandLineFile.fromStat(mFile, canonicalPath, line) :
+                    CommandLineFile.fromLSL(mFile, canonicalPath, line, parser);
+        } catch (IllegalArgumentException e) {
+            // not a valid ls -l or stat file line
+            return null;
+        }
+        // canonical paths of symlinks are not yet resolved
+        if (canonicalPath != null && !file.mIsSymlink) {
+            FileMetadataCache.put(canonicalPath, file.getName(), new FileMetadata(file));
+        }
+        return file;
+    }
+
     /**
      * {@inheritDoc}
+     * Files are returned as the listing command prints them. Symlinks are returned after
+     * the listing is complete, since resolving them requires another command
      */
     @Nullable
     @Override
-    public CommandLineFile[] listFiles() {
-        final List<String> result = CommandLine.executeForResult(
-                new CommandListContents(this, Settings.getInstance()));
-        if (result == null) {
+    public GenericFileCursor listFilesCursor(@Nullable final GenericFileFilter filter) {
+        // resolved before listing since no other command can be executed while reading the output
+        String canonicalPath;
+        try {
+            canonicalPath = getCanonicalPath();
+        } catch (IOException e) {
+            canonicalPath = null;
+        }
+        final boolean stat = CommandStatContents.isAvailable();
+        final Settings settings = Settings.getInstance();
+        final CommandOutput output = CommandLine.executeForOutput(stat ?
+                new CommandStatContents(this, settings) : new CommandListContents(this, settings));
+        if (output == null) {
             return null;
         }
-        final List<CommandLineFile> res = new ArrayList<>(
-                result.size());
-        for (final String f : result) {
-            try {
-                res.add(CommandLineFile.fromLSL(mFile, f));
-            } catch (IllegalArgumentException e) {
-                //e.printStackTrace();
-                // not a valid ls -l file line
-            }
+        return new Cursor(output, canonicalPath, stat ? null : new LsLineParser(), filter);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Nullable
+    @Override
+    public CommandLineFile[] listFiles() {
+        final List<CommandLineFile> res = listContents();
+        if (res == null) {
+            return null;
         }
+        resolveSymlinks(res);
         final CommandLineFile[] ret = new CommandLineFile[res.size()];
         res.toArray(ret);
         return ret;
@@ -400,23 +683,18 @@ public final class CommandLineFile implements GenericFile,
         if (filter == null) {
             return listFiles();
         }
-        final List<String> result = CommandLine.executeForResult(
-                new CommandListContents(this, Settings.getInstance()));
-        if (result == null) {
+        final List<CommandLineFile> contents = listContents();
+        if (contents == null) {
             return null;
         }
         final List<CommandLineFile> res = new ArrayList<>(
-                result.size());
-        for (final String f : result) {
-            try {
-                final CommandLineFile tmp = CommandLineFile.fromLSL(mFile, f);
-                if (filter.accept(tmp.toFile())) {
-                    res.add(tmp);
-                }
-            } catch (IllegalArgumentException e) {
-                // not a valid ls -l file line
+                contents.size());
+        for (final CommandLineFile tmp : contents) {
+            if (filter.accept(tmp.toFile())) {
+                res.add(tmp);
             }
         }
+        resolveSymlinks(res);
         final CommandLineFile[] ret = new CommandLineFile[res.size()];
         res.toArray(ret);
         return ret;
@@ -431,23 +709,18 @@ public final class CommandLineFile implements GenericFile,
         if (filter == null) {
             return listFiles();
         }
-        final List<String> result = CommandLine.executeForResult(
-                new CommandListContents(this, Settings.getInstance()));
-        if (result == null) {
+        final List<CommandLineFile> contents = listContents();
+        if (contents == null) {
             return null;
         }
         final List<CommandLineFile> res = new ArrayList<>(
-                result.size());
-        for (String f : result) {
-            try {
-                final CommandLineFile tmp = CommandLineFile.fromLSL(mFile, f);
-                if (filter.accept(mFile, tmp.getName())) {
-                    res.add(tmp);
-                }
-            } catch (IllegalArgumentException e) {
-                // not a valid ls -l file line
+                contents.size());
+        for (final CommandLineFile tmp : contents) {
+            if (filter.accept(mFile, tmp.getName())) {
+                res.add(tmp);
             }
         }
+        resolveSymlinks(res);
         final CommandLineFile[] ret = new CommandLineFile[res.size()];
         res.toArray(ret);
         return ret;
@@ -462,23 +735,18 @@ public final class CommandLineFile implements GenericFile,
         if (filter == null) {
             return listFiles();
         }
-        final List<String> result = CommandLine.executeForResult(
-                new CommandListContents(this, Settings.getInstance()));
-        if (result == null) {
+        final List<CommandLineFile> contents = listContents();
+        if (contents == null) {
             return null;
         }
         final List<CommandLineFile> res = new ArrayList<>(
-                result.size());
-        for (final String f : result) {
-            try {
-                final CommandLineFile tmp = CommandLineFile.fromLSL(mFile, f);
-                if (filter.accept(tmp)) {
-                    res.add(tmp);
-                }
-            } catch (IllegalArgumentException e) {
-                // not a valid ls -l file line
+                contents.size());
+        for (final CommandLineFile tmp : contents) {
+            if (filter.accept(tmp)) {
+                res.add(tmp);
             }
         }
+        resolveSymlinks(res);
         final CommandLineFile[] ret = new CommandLineFile[res.size()];
         res.toArray(ret);
         return ret;
@@ -541,6 +809,7 @@ public final class CommandLineFile implements GenericFile,
         final boolean result = CommandLine.execute(
                 new CommandTouch(mFile.getAbsolutePath()));
         if (result) {
+            FileMetadataCache.invalidate(mFile);
             this.apply(CommandLineFile.fromFile(Settings.getInstance(), mFile));
             return true;
         }
@@ -555,6 +824,7 @@ public final class CommandLineFile implements GenericFile,
         final boolean result = CommandLine.execute(
                 new CommandMkdir(mFile.getAbsolutePath()));
         if (result) {
+            FileMetadataCache.invalidate(mFile);
             this.apply(CommandLineFile.fromFile(Settings.getInstance(), mFile));
         }
         return result;
@@ -568,6 +838,7 @@ public final class CommandLineFile implements GenericFile,
         final boolean result = CommandLine.execute(
                 new CommandMkdirs(mFile.getAbsolutePath()));
         if (result) {
+            FileMetadataCache.invalidate(mFile);
             this.apply(CommandLineFile.fromFile(Settings.getInstance(), mFile));
         }
         return result;
@@ -621,7 +892,7 @@ public final class CommandLineFile implements GenericFile,
         if (this.mCanonicalPath != null) {
             return this.mCanonicalPath;
         }
-        return this.mFile.getCanonicalPath();
+        return CanonicalPaths.resolve(this.mFile);
     }
 
     @NonNull
@@ -720,6 +991,8 @@ public final class CommandLineFile implements GenericFile,
     public boolean renameTo(@NonNull final GenericFile newName) {
         final Command move = new CommandMove(getAbsolutePath(), newName.getAbsolutePath());
         final boolean result = CommandLine.execute(move);
+        ProbeCache.invalidatePath(getAbsolutePath());
+        FileMetadataCache.invalidate(newName.toFile());
         if (result) {
             this.mExists = false;
             this.mIsDirectory = false;
@@ -749,6 +1022,7 @@ public final class CommandLineFile implements GenericFile,
         }
         final boolean result = CommandLine.execute(new CommandChmod(
                 mFile.getAbsolutePath(), newPerm));
+        FileMetadataCache.invalidate(mFile);
         if (result) {
             this.mPermissions = newPerm;
         }
@@ -849,4 +1123,94 @@ public final class CommandLineFile implements GenericFile,
     public String toString() {
         return getAbsolutePath();
     }
+
+    private final class Cursor implements GenericFileCursor {
+
+        @NonNull
+        private final CommandOutput mOutput;
+
+        @Nullable
+        private final String mCanonicalPath;
+
+        @Nullable
+        private final LsLineParser mParser;
+
+        @Nullable
+        private final GenericFileFilter mFilter;
+
+        /**
+         * Symlinks, which are returned after the output is consumed
+         */
+        private final List<CommandLineFile> mSymlinks = new ArrayList<>();
+
+        /**
+         * Symlinks that are not yet returned, null until the output is consumed
+         */
+        private Iterator<CommandLineFile> mResolvedSymlinks;
+
+        private boolean mSuccessful;
+
+        Cursor(@NonNull final CommandOutput output,
+               @Nullable final String canonicalPath,
+               @Nullable final LsLineParser parser,
+               @Nullable final GenericFileFilter filter) {
+            mOutput = output;
+            mCanonicalPath = canonicalPath;
+            mParser = parser;
+            mFilter = filter;
+        }
+
+        @Nullable
+        @Override
+        public List<GenericFile> nextChunk(final int maxCount) {
+            final List<GenericFile> chunk = new ArrayList<>();
+            while (chunk.size() < maxCount) {
+                if (mResolvedSymlinks == null) {
+                    if (mOutput.hasNext()) {
+                        final CommandLineFile file = parseLine(mCanonicalPath, mOutput.next(),
+                                mParser);
+                        if (file != null) {
+                            if (file.mIsSymlink) {
+                                mSymlinks.add(file);
+                            } else if (accept(file)) {
+                                chunk.add(file);
+                            }
+                        }
+                        continue;
+                    }
+                    mSuccessful = mOutput.waitForSuccess();
+                    if (mSuccessful) {
+                        resolveSymlinks(mSymlinks);
+                    } else {
+                        mSymlinks.clear();
+                    }
+                    mResolvedSymlinks = mSymlinks.iterator();
+                }
+                if (!mResolvedSymlinks.hasNext()) {
+                    break;
+                }
+                final CommandLineFile symlink = mResolvedSymlinks.next();
+                if (accept(symlink)) {
+                    chunk.add(symlink);
+                }
+            }
+            return chunk.isEmpty() ? null : chunk;
+        }
+
+        private boolean accept(@NonNull final CommandLineFile file) {
+            return mFilter == null || mFilter.accept(file);
+        }
+
+        @Override
+        public boolean isSuccessful() {
+            return mSuccessful;
+        }
+
+        @Override
+        public void close() {
+            mOutput.close();
+            mSymlinks.clear();
+            mResolvedSymlinks = mSymlinks.iterator();
+        }
+    }
 }
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.file;
+
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches total sizes of directories, keyed by absolute path.
+ *
+ * A size is valid while the modification time of the directory is the same as when the size was
+ * computed. The modification time changes only when the direct children of the directory change,
+ * so changes deeper in the tree must be reported with {@link #invalidate(String)}, which also
+ * invalidates the sizes of all parent directories.
+ *
+ * When {@link #MAX_SIZE} is exceeded, the least recently used size is evicted.
+ *
+ * The sizes are used by comparators, so the cache must be modified only on the UI thread,
+ * where the lists are sorted. Otherwise the order could change while sorting.
+ */
+public final class DirectorySizeCache {
+
+    private static final int MAX_SIZE = 1024;
+
+    private static final DirectorySizeCache sInstance = new DirectorySizeCache();
+
+    @NonNull
+    public static DirectorySizeCache getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Guarded by this
+     */
+    private final LinkedHashMap<String, Entry> mEntries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest) {
+                    return size() > MAX_SIZE;
+                }
+            };
+
+    private DirectorySizeCache() {
+
+    }
+
+    /**
+     * Returns cached size of the directory, if the directory was not modified since.
+     * An invalid size is kept until it's replaced or invalidated
+     *
+     * @param directory Directory to get size of
+     * @return size in bytes, or -1 if there is no size or it is not valid
+     */
+    public synchronized long get(@NonNull final GenericFile directory) {
+        final Entry entry = mEntries.get(directory.getAbsolutePath());
+        if (entry == null || entry.lastModified != directory.lastModified()) {
+            return -1L;
+        }
+        return entry.size;
+    }
+
+    /**
+     * Returns cached size without checking the modification time of the directory.
+     * Cheap enough to be used by comparators and while binding views
+     *
+     * @param path Absolute path of the directory
+     * @return size in bytes, or -1 if there is no size
+     */
+    public synchronized long peek(@NonNull final String path) {
+        final Entry entry = mEntries.get(path);
+        return entry == null ? -1L : entry.size;
+    }
+
+    /**
+     * Puts size of the directory
+     *
+     * @param path Absolute path of the directory
+     * @param lastModified Modification time of the directory before the size was computed
+     * @param size size in bytes
+     */
+    public synchronized void put(@NonNull final String path,
+                                 final long lastModified,
+                                 final long size) {
+        mEntries.put(path, new Entry(lastModified, size));
+    }
+
+    /**
+     * Removes sizes of the path, of the directories under it and of all parents of the path
+     *
+     * @param path absolute path of the changed file
+     */
+    public synchronized void invalidate(@NonNull final String path) {
+        final Iterator<String> iterator = mEntries.keySet().iterator();
+        while (iterator.hasNext()) {
+            final String key = iterator.next();
+            if (isSameOrUnder(key, path) || isSameOrUnder(path, key)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+    private static boolean isSameOrUnder(@NonNull final String path,
+                                         @NonNull final String parent) {
+        if (!path.startsWith(parent)) {
+            return false;
+        }
+        final int length = parent.length();
+        return path.length() == length ||
+                path.charAt(length) == File.separatorChar ||
+                parent.endsWith(File.separator);
+    }
+
+    private static final class Entry {
+
+        final long lastModified;
+        final long size;
+
+        Entry(final long lastModified, final long size) {
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+    }
+}
@@ -34,10 +34,9 @@ public final class FileFactory {
         //if (Looper.myLooper() == Looper.getMainLooper()) {
             //throw new RuntimeException("Wrong thread");
         //} TODO check this
-        return settings.useCommandLine() && Environment.hasBusybox() &&
-                ShellHolder.getInstance().hasShell() ?
+        return useCommandLine(settings, new File(path)) ?
                         CommandLineFile.fromFile(settings, new File(path)) :
-                                new JavaFile(path);
+                                newJavaFile(new File(path));
     }
 
     @NonNull
@@ -46,10 +45,9 @@ public final class FileFactory {
         if (Looper.myLooper() == Looper.getMainLooper()) {
             throw new RuntimeException("Wrong thread");
         }
-        return settings.useCommandLine() && Environment.hasBusybox() &&
-                ShellHolder.getInstance().hasShell() ?
+        return useCommandLine(settings, path) ?
                         CommandLineFile.fromFile(settings, path) :
-                                new JavaFile(path);
+                                newJavaFile(path);
     }
 
     @NonNull
@@ -59,9 +57,56 @@ public final class FileFactory {
         if (Looper.myLooper() == Looper.getMainLooper()) {
             throw new RuntimeException("Wrong thread");
         }
-        return settings.useCommandLine() && Environment.hasBusybox() &&
-                ShellHolder.getInstance().hasShell() ?
-                        CommandLineFile.fromFile(settings, new File(parent, name)) :
-                                new JavaFile(parent, name);
+        final File file = new File(parent, name);
+        return useCommandLine(settings, file) ?
+                        CommandLineFile.fromFile(settings, file) :
+                                newJavaFile(file);
+    }
+
+    /**
+     * Creates a {@link PosixFile} if the runtime supports it, otherwise a {@link JavaFile}
+     *
+     * @param file File to wrap
+     * @return new file accessed with Java
+     */
+    @NonNull
+    private static JavaFile newJavaFile(@NonNull final File file) {
+        return Posix.getInstance() != null ? new PosixFile(file) : new JavaFile(file);
+    }
+
+    /**
+     * Returns whether the file should be accessed with the shell. While the shell is unhealthy
+     * and is being recovered, files that can be read with Java are accessed with Java, so that
+     * browsing doesn't wait for the shell
+     *
+     * @param settings Settings to use
+     * @param file file to be accessed
+     * @return true if the file should be accessed with the shell
+     */
+    private static boolean useCommandLine(@NonNull final Settings settings,
+                                          @NonNull final File file) {
+        if (!settings.useCommandLine() || !Environment.hasBusybox()) {
+            return false;
+        }
+        final ShellHolder holder = ShellHolder.getInstance();
+        if (!holder.isShellHealthy() && isReadable(file)) {
+            return false;
+        }
+        return holder.hasShell();
+    }
+
+    /**
+     * Returns whether the file, or the nearest existing parent if the file doesn't exist,
+     * can be read with Java
+     *
+     * @param file file to check
+     * @return true if the file can be read with Java
+     */
+    private static boolean isReadable(@NonNull final File file) {
+        File existing = file;
+        while (existing != null && !existing.exists()) {
+            existing = existing.getParentFile();
+        }
+        return existing != null && existing.canRead();
     }
 }
@@ -0,0 +1,829 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.file;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact list of files, stored as arrays of primitives instead of a {@link GenericFile}
+ * per entry, for listings of hundreds of thousands of files.
+ *
+ * Names are stored in a single char buffer. Parents are shared by the entries, so files of
+ * different directories, like search results, can be stored as well. Type, permissions, size
+ * and modification time are stored in primitive arrays, and mime types of command line files
+ * as ids of interned strings.
+ *
+ * {@link #get(int)} creates a {@link GenericFile} for the entry without system calls, except
+ * for plain {@link JavaFile}s, which don't load attributes until accessed anyway.
+ *
+ * The snapshot is parceled as the arrays, without creating the files, so that large sets of
+ * files can be passed between components cheaply.
+ *
+ * Not thread safe.
+ */
+public final class FileListSnapshot implements Parcelable {
+
+    private static final byte KIND_JAVA = 0;
+    private static final byte KIND_POSIX = 1;
+    private static final byte KIND_COMMAND_LINE = 2;
+
+    private static final int PERMISSIONS_MASK = Permissions.MODE_MASK;
+
+    /**
+     * Flags stored above the permission bits
+     */
+    private static final int FLAG_PERMISSIONS = 1 << 12;
+    private static final int FLAG_EXISTS = 1 << 13;
+    private static final int FLAG_DIRECTORY = 1 << 14;
+    private static final int FLAG_SYMLINK = 1 << 15;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Interned mime types, an id is an index in the list
+     */
+    private static final List<String> sMimeTypes = new ArrayList<>();
+    private static final Map<String, Integer> sMimeTypeIds = new HashMap<>();
+
+    private final List<File> mParents = new ArrayList<>();
+
+    /**
+     * Canonical paths of the parents of command line files, null if unknown
+     */
+    private final List<String> mParentCanonicalPaths = new ArrayList<>();
+    private final Map<String, Integer> mParentIds = new HashMap<>();
+
+    private int mSize;
+
+    private char[] mNames = new char[INITIAL_CAPACITY * 16];
+
+    /**
+     * Number of used chars in mNames, including names of removed entries
+     */
+    private int mNamesLength;
+
+    private int[] mNameStarts = new int[INITIAL_CAPACITY];
+    private int[] mNameLengths = new int[INITIAL_CAPACITY];
+    private int[] mParentIndexes = new int[INITIAL_CAPACITY];
+    private byte[] mKinds = new byte[INITIAL_CAPACITY];
+    private int[] mModes = new int[INITIAL_CAPACITY];
+    private long[] mLengths = new long[INITIAL_CAPACITY];
+    private long[] mLastModified = new long[INITIAL_CAPACITY];
+
+    /**
+     * Attributes of command line files, null until a command line file is added
+     */
+    private int[] mOwners;
+    private int[] mGroups;
+    private long[] mInodes;
+    private long[] mDevices;
+    private short[] mMimeTypeIds;
+
+    /**
+     * Canonical paths of command line files that are not in the canonical parent,
+     * like symlinks. Null until such a file is added
+     */
+    private String[] mCanonicalPaths;
+
+    public static final Creator<FileListSnapshot> CREATOR = new Creator<FileListSnapshot>() {
+        @Override
+        public FileListSnapshot createFromParcel(final Parcel source) {
+            return new FileListSnapshot(source);
+        }
+
+        @Override
+        public FileListSnapshot[] newArray(final int size) {
+            return new FileListSnapshot[size];
+        }
+    };
+
+    public FileListSnapshot() {
+    }
+
+    private FileListSnapshot(@NonNull final Parcel source) {
+        final int parents = source.readInt();
+        for (int i = 0; i < parents; i++) {
+            final String parent = source.readString();
+            mParents.add(parent == null ? null : new File(parent));
+            mParentCanonicalPaths.add(source.readString());
+            mParentIds.put(parentKey(parent), i);
+        }
+
+        final int size = source.readInt();
+        mSize = size;
+        mNames = source.readString().toCharArray();
+        mNamesLength = mNames.length;
+        source.readIntArray(mNameLengths = new int[size]);
+        mNameStarts = new int[size];
+        int position = 0;
+        for (int i = 0; i < size; i++) {
+            mNameStarts[i] = position;
+            position += mNameLengths[i];
+        }
+        source.readIntArray(mParentIndexes = new int[size]);
+        source.readByteArray(mKinds = new byte[size]);
+        source.readIntArray(mModes = new int[size]);
+        source.readLongArray(mLengths = new long[size]);
+        source.readLongArray(mLastModified = new long[size]);
+
+        if (source.readInt() != 0) {
+            source.readIntArray(mOwners = new int[size]);
+            source.readIntArray(mGroups = new int[size]);
+            source.readLongArray(mInodes = new long[size]);
+            source.readLongArray(mDevices = new long[size]);
+            // mime type ids are valid only in this process, so the mime types are sent
+            final String[] mimeTypes = source.createStringArray();
+            final int[] localIds = source.createIntArray();
+            mMimeTypeIds = new short[size];
+            for (int i = 0; i < size; i++) {
+                final int localId = localIds[i];
+                mMimeTypeIds[i] = localId == -1 ? -1 : internMimeType(mimeTypes[localId]);
+            }
+        }
+        if (source.readInt() != 0) {
+            mCanonicalPaths = source.createStringArray();
+        }
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(@NonNull final Parcel dest, final int flags) {
+        final int parents = mParents.size();
+        dest.writeInt(parents);
+        for (int i = 0; i < parents; i++) {
+            final File parent = mParents.get(i);
+            dest.writeString(parent == null ? null : parent.getPath());
+            dest.writeString(mParentCanonicalPaths.get(i));
+        }
+
+        final int size = mSize;
+        dest.writeInt(size);
+        if (!areNamesInOrder()) {
+            compactNames();
+        }
+        dest.writeString(new String(mNames, 0, mNamesLength));
+        dest.writeIntArray(Arrays.copyOf(mNameLengths, size));
+        dest.writeIntArray(Arrays.copyOf(mParentIndexes, size));
+        dest.writeByteArray(mKinds, 0, size);
+        dest.writeIntArray(Arrays.copyOf(mModes, size));
+        dest.writeLongArray(Arrays.copyOf(mLengths, size));
+        dest.writeLongArray(Arrays.copyOf(mLastModified, size));
+
+        if (mOwners != null) {
+            dest.writeInt(1);
+            dest.writeIntArray(Arrays.copyOf(mOwners, size));
+            dest.writeIntArray(Arrays.copyOf(mGroups, size));
+            dest.writeLongArray(Arrays.copyOf(mInodes, size));
+            dest.writeLongArray(Arrays.copyOf(mDevices, size));
+            final List<String> mimeTypes = new ArrayList<>();
+            final Map<Integer, Integer> localIds = new HashMap<>();
+            final int[] ids = new int[size];
+            for (int i = 0; i < size; i++) {
+                final int id = mMimeTypeIds[i];
+                if (id == -1) {
+                    ids[i] = -1;
+                } else {
+                    Integer localId = localIds.get(id);
+                    if (localId == null) {
+                        localId = mimeTypes.size();
+                        mimeTypes.add(getMimeType(id));
+                        localIds.put(id, localId);
+                    }
+                    ids[i] = localId;
+                }
+            }
+            dest.writeStringArray(mimeTypes.toArray(new String[mimeTypes.size()]));
+            dest.writeIntArray(ids);
+        } else {
+            dest.writeInt(0);
+        }
+        if (mCanonicalPaths != null) {
+            dest.writeInt(1);
+            dest.writeStringArray(Arrays.copyOf(mCanonicalPaths, size));
+        } else {
+            dest.writeInt(0);
+        }
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * Removes all entries and releases the memory they used
+     */
+    public void clear() {
+        mParents.clear();
+        mParentCanonicalPaths.clear();
+        mParentIds.clear();
+        mSize = 0;
+        mNames = new char[INITIAL_CAPACITY * 16];
+        mNamesLength = 0;
+        mNameStarts = new int[INITIAL_CAPACITY];
+        mNameLengths = new int[INITIAL_CAPACITY];
+        mParentIndexes = new int[INITIAL_CAPACITY];
+        mKinds = new byte[INITIAL_CAPACITY];
+        mModes = new int[INITIAL_CAPACITY];
+        mLengths = new long[INITIAL_CAPACITY];
+        mLastModified = new long[INITIAL_CAPACITY];
+        mOwners = null;
+        mGroups = null;
+        mInodes = null;
+        mDevices = null;
+        mMimeTypeIds = null;
+        mCanonicalPaths = null;
+    }
+
+    /**
+     * Adds the file to the end of the list
+     *
+     * @param file File to add
+     */
+    public void add(@NonNull final GenericFile file) {
+        ensureCapacity(mSize + 1);
+        // the entry has no name until set
+        mNameStarts[mSize] = 0;
+        mNameLengths[mSize] = 0;
+        set(mSize++, file);
+    }
+
+    /**
+     * Adds the files to the entries sorted with the comparator, keeping them sorted. Only the
+     * added files are sorted, and their positions are found with a binary search, so adding
+     * a chunk to a large list doesn't create a file for every entry like {@link #sort(Comparator)}
+     *
+     * @param files Files to add
+     * @param comparator Comparator the entries are sorted with
+     */
+    public void addSorted(@NonNull final Collection<? extends GenericFile> files,
+                          @NonNull final Comparator<GenericFile> comparator) {
+        final GenericFile[] added = files.toArray(new GenericFile[files.size()]);
+        Arrays.sort(added, comparator);
+        final int oldSize = mSize;
+        final int[] positions = new int[added.length];
+        int low = 0;
+        for (int i = 0; i < added.length; i++) {
+            // after the equal entries, so that the order of equal files is kept
+            int high = oldSize;
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (comparator.compare(get(middle), added[i]) <= 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            positions[i] = low;
+        }
+
+        ensureCapacity(oldSize + added.length);
+        for (int i = oldSize; i < oldSize + added.length; i++) {
+            // the entries have no names until set
+            mNameStarts[i] = 0;
+            mNameLengths[i] = 0;
+        }
+        mSize = oldSize + added.length;
+        int from = oldSize - 1;
+        int to = mSize - 1;
+        for (int i = added.length - 1; i >= 0; i--) {
+            while (from >= positions[i]) {
+                move(from--, to--);
+            }
+            set(to--, added[i]);
+        }
+    }
+
+    /**
+     * Copies the entry to the other index
+     *
+     * @param from index of the entry
+     * @param to index to copy the entry to
+     */
+    private void move(final int from, final int to) {
+        mNameStarts[to] = mNameStarts[from];
+        mNameLengths[to] = mNameLengths[from];
+        mParentIndexes[to] = mParentIndexes[from];
+        mKinds[to] = mKinds[from];
+        mModes[to] = mModes[from];
+        mLengths[to] = mLengths[from];
+        mLastModified[to] = mLastModified[from];
+        if (mOwners != null) {
+            mOwners[to] = mOwners[from];
+            mGroups[to] = mGroups[from];
+            mInodes[to] = mInodes[from];
+            mDevices[to] = mDevices[from];
+            mMimeTypeIds[to] = mMimeTypeIds[from];
+        }
+        if (mCanonicalPaths != null) {
+            mCanonicalPaths[to] = mCanonicalPaths[from];
+        }
+    }
+
+    /**
+     * Replaces the entry with the file
+     *
+     * @param index index of the entry to replace
+     * @param file File to store
+     */
+    public void set(final int index, @NonNull final GenericFile file) {
+        checkIndex(index);
+        final String name = file.getName();
+        ensureNamesCapacity(mNamesLength + name.length());
+        name.getChars(0, name.length(), mNames, mNamesLength);
+        mNameStarts[index] = mNamesLength;
+        mNameLengths[index] = name.length();
+        mNamesLength += name.length();
+        final int parentIndex = getParentIndex(file.getParent());
+        mParentIndexes[index] = parentIndex;
+        if (mCanonicalPaths != null) {
+            mCanonicalPaths[index] = null;
+        }
+
+        if (file instanceof CommandLineFile) {
+            mKinds[index] = KIND_COMMAND_LINE;
+            setCommandLineAttributes(index, parentIndex, (CommandLineFile) file);
+        } else if (file instanceof PosixFile) {
+            mKinds[index] = KIND_POSIX;
+            setAttributes(index, ((PosixFile) file).toSnapshot());
+        } else {
+            // attributes of JavaFile are read on access and are not stored
+            mKinds[index] = KIND_JAVA;
+            mModes[index] = 0;
+            mLengths[index] = 0L;
+            mLastModified[index] = 0L;
+        }
+    }
+
+    private void setAttributes(final int index, @NonNull final GenericFile file) {
+        int mode = 0;
+        if (file.exists()) {
+            mode |= FLAG_EXISTS;
+        }
+        if (file.isDirectory()) {
+            mode |= FLAG_DIRECTORY;
+        }
+        if (file.isSymlink()) {
+            mode |= FLAG_SYMLINK;
+        }
+        final Permissions permissions = file.getPermissions();
+        //noinspection ConstantConditions
+        if (permissions != null) {
+            mode |= FLAG_PERMISSIONS | permissions.toMode();
+        }
+        mModes[index] = mode;
+        mLengths[index] = file.length();
+        mLastModified[index] = file.lastModified();
+    }
+
+    private void setCommandLineAttributes(final int index,
+                                          final int parentIndex,
+                                          @NonNull final CommandLineFile file) {
+        setAttributes(index, file);
+        if (mOwners == null) {
+            final int capacity = mModes.length;
+            mOwners = new int[capacity];
+            mGroups = new int[capacity];
+            mInodes = new long[capacity];
+            mDevices = new long[capacity];
+            mMimeTypeIds = new short[capacity];
+        }
+        mOwners[index] = file.getOwner();
+        mGroups[index] = file.getGroup();
+        mInodes[index] = file.getInode();
+        mDevices[index] = file.getDevice();
+        mMimeTypeIds[index] = internMimeType(file.getMimeType());
+
+        String canonicalPath = file.getCanonicalPathOrNull();
+        if (canonicalPath != null && mParentCanonicalPaths.get(parentIndex) == null &&
+                !file.isSymlink()) {
+            final String suffix = File.separator + file.getName();
+            if (canonicalPath.endsWith(suffix)) {
+                mParentCanonicalPaths.set(parentIndex,
+                        canonicalPath.substring(0, canonicalPath.length() - suffix.length()));
+            }
+        }
+        if (canonicalPath != null && canonicalPath.equals(getCanonicalPathInParent(index))) {
+            canonicalPath = null;
+        }
+        if (canonicalPath != null && mCanonicalPaths == null) {
+            mCanonicalPaths = new String[mModes.length];
+        }
+        if (mCanonicalPaths != null) {
+            mCanonicalPaths[index] = canonicalPath;
+        }
+    }
+
+    /**
+     * Returns canonical path of the entry if it's in the canonical path of it's parent
+     *
+     * @param index index of the entry
+     * @return canonical path, or null if canonical path of the parent is unknown
+     */
+    @Nullable
+    private String getCanonicalPathInParent(final int index) {
+        final String parent = mParentCanonicalPaths.get(mParentIndexes[index]);
+        if (parent == null) {
+            return null;
+        }
+        return parent.equals(File.separator) ? parent + getName(index) :
+                parent + File.separatorChar + getName(index);
+    }
+
+    /**
+     * Removes the entry
+     *
+     * @param index index of the entry to remove
+     */
+    public void remove(final int index) {
+        checkIndex(index);
+        final int moved = mSize - index - 1;
+        System.arraycopy(mNameStarts, index + 1, mNameStarts, index, moved);
+        System.arraycopy(mNameLengths, index + 1, mNameLengths, index, moved);
+        System.arraycopy(mParentIndexes, index + 1, mParentIndexes, index, moved);
+        System.arraycopy(mKinds, index + 1, mKinds, index, moved);
+        System.arraycopy(mModes, index + 1, mModes, index, moved);
+        System.arraycopy(mLengths, index + 1, mLengths, index, moved);
+        System.arraycopy(mLastModified, index + 1, mLastModified, index, moved);
+        if (mOwners != null) {
+            System.arraycopy(mOwners, index + 1, mOwners, index, moved);
+            System.arraycopy(mGroups, index + 1, mGroups, index, moved);
+            System.arraycopy(mInodes, index + 1, mInodes, index, moved);
+            System.arraycopy(mDevices, index + 1, mDevices, index, moved);
+            System.arraycopy(mMimeTypeIds, index + 1, mMimeTypeIds, index, moved);
+        }
+        if (mCanonicalPaths != null) {
+            System.arraycopy(mCanonicalPaths, index + 1, mCanonicalPaths, index, moved);
+            mCanonicalPaths[mSize - 1] = null;
+        }
+        mSize--;
+    }
+
+    /**
+     * Returns name of the entry
+     *
+     * @param index index of the entry
+     * @return name of the entry
+     */
+    @NonNull
+    public String getName(final int index) {
+        checkIndex(index);
+        return new String(mNames, mNameStarts[index], mNameLengths[index]);
+    }
+
+    /**
+     * Returns whether the entry is a directory. For plain {@link JavaFile}s, this makes a
+     * system call
+     *
+     * @param index index of the entry
+     * @return true if the entry is a directory
+     */
+    public boolean isDirectory(final int index) {
+        checkIndex(index);
+        if (mKinds[index] == KIND_JAVA) {
+            return new File(mParents.get(mParentIndexes[index]), getName(index)).isDirectory();
+        }
+        return (mModes[index] & FLAG_DIRECTORY) != 0;
+    }
+
+    /**
+     * Creates a file for the entry
+     *
+     * @param index index of the entry
+     * @return file of the entry
+     */
+    @NonNull
+    public GenericFile get(final int index) {
+        checkIndex(index);
+        final File file = new File(mParents.get(mParentIndexes[index]), getName(index));
+        final int mode = mModes[index];
+        switch (mKinds[index]) {
+            case KIND_POSIX:
+                final Posix.Stat stat = (mode & FLAG_EXISTS) == 0 ? null : new Posix.Stat(
+                        ((mode & FLAG_DIRECTORY) != 0 ? Posix.S_IFDIR : 0) |
+                                (mode & PERMISSIONS_MASK),
+                        mLengths[index], mLastModified[index]);
+                return new PosixFile(file, (mode & FLAG_EXISTS) != 0,
+                        (mode & FLAG_SYMLINK) != 0, stat);
+
+            case KIND_COMMAND_LINE:
+                String canonicalPath = mCanonicalPaths == null ? null : mCanonicalPaths[index];
+                if (canonicalPath == null) {
+                    canonicalPath = getCanonicalPathInParent(index);
+                }
+                final int mimeTypeId = mMimeTypeIds[index];
+                return CommandLineFile.fromSnapshot(file, canonicalPath,
+                        (mode & FLAG_EXISTS) != 0,
+                        (mode & FLAG_DIRECTORY) != 0,
+                        (mode & FLAG_SYMLINK) != 0,
+                        (mode & FLAG_PERMISSIONS) != 0 ?
+                                Permissions.valueOf(mode & PERMISSIONS_MASK) : null,
+                        mOwners[index], mGroups[index],
+                        mLengths[index], mLastModified[index],
+                        mInodes[index], mDevices[index],
+                        mimeTypeId == -1 ? null : getMimeType(mimeTypeId));
+
+            default:
+                return new JavaFile(file);
+        }
+    }
+
+    /**
+     * Returns index of the entry with the path
+     *
+     * @param path absolute or canonical path of the entry
+     * @return index of the entry, or -1 if not found
+     */
+    public int indexOf(@NonNull final String path) {
+        final File file = new File(path);
+        final String name = file.getName();
+        final Integer parentIndex = mParentIds.get(parentKey(file.getParent()));
+        if (parentIndex != null) {
+            for (int i = 0; i < mSize; i++) {
+                if (mParentIndexes[i] == parentIndex && nameEquals(i, name)) {
+                    return i;
+                }
+            }
+        }
+        for (int i = 0; i < mSize; i++) {
+            if (mKinds[i] == KIND_COMMAND_LINE) {
+                String canonicalPath = mCanonicalPaths == null ? null : mCanonicalPaths[i];
+                if (canonicalPath == null) {
+                    canonicalPath = getCanonicalPathInParent(i);
+                }
+                if (path.equals(canonicalPath)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private boolean nameEquals(final int index, @NonNull final String name) {
+        final int length = mNameLengths[index];
+        if (length != name.length()) {
+            return false;
+        }
+        final int start = mNameStarts[index];
+        for (int i = 0; i < length; i++) {
+            if (mNames[start + i] != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sorts the entries. The files are created for the entries for the time of sorting
+     *
+     * @param comparator Comparator to sort with
+     */
+    public void sort(@NonNull final Comparator<GenericFile> comparator) {
+        final GenericFile[] files = new GenericFile[mSize];
+        final Integer[] order = new Integer[mSize];
+        for (int i = 0; i < mSize; i++) {
+            files[i] = get(i);
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer a, final Integer b) {
+                return comparator.compare(files[a], files[b]);
+            }
+        });
+        final int[] permutation = new int[mSize];
+        for (int i = 0; i < mSize; i++) {
+            permutation[i] = order[i];
+        }
+        permute(permutation);
+    }
+
+    /**
+     * Reorders the entries and removes the names of removed entries from the names buffer
+     *
+     * @param order indexes of the entries in the new order
+     */
+    private void permute(@NonNull final int[] order) {
+        final int size = mSize;
+        final int[] nameStarts = new int[mNameStarts.length];
+        final int[] nameLengths = new int[mNameLengths.length];
+        int namesLength = 0;
+        for (int i = 0; i < size; i++) {
+            namesLength += mNameLengths[order[i]];
+        }
+        final char[] names = new char[Math.max(namesLength, INITIAL_CAPACITY)];
+        int position = 0;
+        for (int i = 0; i < size; i++) {
+            final int from = order[i];
+            System.arraycopy(mNames, mNameStarts[from], names, position, mNameLengths[from]);
+            nameStarts[i] = position;
+            nameLengths[i] = mNameLengths[from];
+            position += nameLengths[i];
+        }
+        mNames = names;
+        mNamesLength = position;
+        mNameStarts = nameStarts;
+        mNameLengths = nameLengths;
+
+        final int[] parentIndexes = new int[mParentIndexes.length];
+        final byte[] kinds = new byte[mKinds.length];
+        final int[] modes = new int[mModes.length];
+        final long[] lengths = new long[mLengths.length];
+        final long[] lastModified = new long[mLastModified.length];
+        for (int i = 0; i < size; i++) {
+            final int from = order[i];
+            parentIndexes[i] = mParentIndexes[from];
+            kinds[i] = mKinds[from];
+            modes[i] = mModes[from];
+            lengths[i] = mLengths[from];
+            lastModified[i] = mLastModified[from];
+        }
+        mParentIndexes = parentIndexes;
+        mKinds = kinds;
+        mModes = modes;
+        mLengths = lengths;
+        mLastModified = lastModified;
+
+        if (mOwners != null) {
+            final int[] owners = new int[mOwners.length];
+            final int[] groups = new int[mGroups.length];
+            final long[] inodes = new long[mInodes.length];
+            final long[] devices = new long[mDevices.length];
+            final short[] mimeTypeIds = new short[mMimeTypeIds.length];
+            for (int i = 0; i < size; i++) {
+                final int from = order[i];
+                owners[i] = mOwners[from];
+                groups[i] = mGroups[from];
+                inodes[i] = mInodes[from];
+                devices[i] = mDevices[from];
+                mimeTypeIds[i] = mMimeTypeIds[from];
+            }
+            mOwners = owners;
+            mGroups = groups;
+            mInodes = inodes;
+            mDevices = devices;
+            mMimeTypeIds = mimeTypeIds;
+        }
+        if (mCanonicalPaths != null) {
+            final String[] canonicalPaths = new String[mCanonicalPaths.length];
+            for (int i = 0; i < size; i++) {
+                canonicalPaths[i] = mCanonicalPaths[order[i]];
+            }
+            mCanonicalPaths = canonicalPaths;
+        }
+    }
+
+    private int getParentIndex(@Nullable final String parent) {
+        final String key = parentKey(parent);
+        Integer index = mParentIds.get(key);
+        if (index == null) {
+            index = mParents.size();
+            mParents.add(parent == null ? null : new File(parent));
+            mParentCanonicalPaths.add(null);
+            mParentIds.put(key, index);
+        }
+        return index;
+    }
+
+    @NonNull
+    private static String parentKey(@Nullable final String parent) {
+        return parent == null ? "" : parent;
+    }
+
+    private static short internMimeType(@Nullable final String mimeType) {
+        if (mimeType == null) {
+            return -1;
+        }
+        synchronized (sMimeTypes) {
+            Integer id = sMimeTypeIds.get(mimeType);
+            if (id == null) {
+                if (sMimeTypes.size() >= Short.MAX_VALUE) {
+                    return -1;
+                }
+                id = sMimeTypes.size();
+                sMimeTypes.add(mimeType);
+                sMimeTypeIds.put(mimeType, id);
+            }
+            return id.shortValue();
+        }
+    }
+
+    @NonNull
+    private static String getMimeType(final int id) {
+        synchronized (sMimeTypes) {
+            return sMimeTypes.get(id);
+        }
+    }
+
+    private void checkIndex(final int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + mSize);
+        }
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if (capacity <= mModes.length) {
+            return;
+        }
+        final int newCapacity = Math.max(capacity, mModes.length * 2);
+        mNameStarts = Arrays.copyOf(mNameStarts, newCapacity);
+        mNameLengths = Arrays.copyOf(mNameLengths, newCapacity);
+        mParentIndexes = Arrays.copyOf(mParentIndexes, newCapacity);
+        mKinds = Arrays.copyOf(mKinds, newCapacity);
+        mModes = Arrays.copyOf(mModes, newCapacity);
+        mLengths = Arrays.copyOf(mLengths, newCapacity);
+        mLastModified = Arrays.copyOf(mLastModified, newCapacity);
+        if (mOwners != null) {
+            mOwners = Arrays.copyOf(mOwners, newCapacity);
+            mGroups = Arrays.copyOf(mGroups, newCapacity);
+            mInodes = Arrays.copyOf(mInodes, newCapacity);
+            mDevices = Arrays.copyOf(mDevices, newCapacity);
+            mMimeTypeIds = Arrays.copyOf(mMimeTypeIds, newCapacity);
+        }
+        if (mCanonicalPaths != null) {
+            mCanonicalPaths = Arrays.copyOf(mCanonicalPaths, newCapacity);
+        }
+    }
+
+    private void ensureNamesCapacity(final int capacity) {
+        if (capacity <= mNames.length) {
+            return;
+        }
+        final int used = getUsedNamesLength();
+        if (used < mNamesLength / 2) {
+            // most of the buffer holds names of replaced or removed entries
+            final int required = capacity - mNamesLength + used;
+            compactNames();
+            ensureNamesCapacity(required);
+            return;
+        }
+        mNames = Arrays.copyOf(mNames, Math.max(capacity, mNames.length * 2));
+    }
+
+    private int getUsedNamesLength() {
+        int used = 0;
+        for (int i = 0; i < mSize; i++) {
+            used += mNameLengths[i];
+        }
+        return used;
+    }
+
+    /**
+     * Returns whether the names buffer holds only the names of the entries, in the order of the
+     * entries, as it is parceled
+     *
+     * @return true if the names are in order
+     */
+    private boolean areNamesInOrder() {
+        int position = 0;
+        for (int i = 0; i < mSize; i++) {
+            if (mNameStarts[i] != position) {
+                return false;
+            }
+            position += mNameLengths[i];
+        }
+        return position == mNamesLength;
+    }
+
+    /**
+     * Removes the names of removed and replaced entries from the names buffer
+     */
+    private void compactNames() {
+        final int[] order = new int[mSize];
+        for (int i = 0; i < mSize; i++) {
+            order[i] = i;
+        }
+        permute(order);
+    }
+}
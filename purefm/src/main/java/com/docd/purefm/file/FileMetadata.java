@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.file;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Attributes of an existing file read with the shell, cached in {@link FileMetadataCache}
+ * so that {@link CommandLineFile} doesn't execute ls again for the same path.
+ *
+ * {@link JavaFile} and {@link PosixFile} don't use the entries, since their system calls are
+ * cheaper than a shell round-trip, and the entries would hide changes made by other apps.
+ */
+public final class FileMetadata {
+
+    /**
+     * Estimated size of this object without the canonical path, in bytes
+     */
+    private static final int SHALLOW_SIZE = 64;
+
+    final boolean mSymlink;
+
+    /**
+     * Whether the file, or the target of the symlink, is a directory
+     */
+    final boolean mDirectory;
+
+    /**
+     * Permission bits, as reported by the shell
+     */
+    final int mPermissions;
+
+    final long mLength;
+    final long mLastModified;
+
+    final int mOwner;
+    final int mGroup;
+    final long mInode;
+    final long mDevice;
+
+    /**
+     * Canonical path reported by the shell, null if unknown
+     */
+    @Nullable
+    final String mCanonicalPath;
+
+    /**
+     * Creates metadata read with the shell
+     *
+     * @param file File to take the attributes of
+     */
+    FileMetadata(@NonNull final CommandLineFile file) {
+        final Permissions permissions = file.getPermissions();
+        mSymlink = file.isSymlink();
+        mDirectory = file.isDirectory();
+        //noinspection ConstantConditions
+        mPermissions = permissions == null ? 0 : permissions.toMode();
+        mLength = file.length();
+        mLastModified = file.lastModified();
+        mOwner = file.getOwner();
+        mGroup = file.getGroup();
+        mInode = file.getInode();
+        mDevice = file.getDevice();
+        mCanonicalPath = file.getCanonicalPathOrNull();
+    }
+
+    /**
+     * Returns estimated memory taken by this object
+     *
+     * @return size in bytes
+     */
+    int estimateSize() {
+        return SHALLOW_SIZE + (mCanonicalPath == null ? 0 :
+                FileMetadataCache.estimateSize(mCanonicalPath));
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.file;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.docd.purefm.commandline.ProbeCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches {@link FileMetadata} of existing files, so that files that are created again for the
+ * same path, like on file events, navigation or before pasting, are not stat'ed again.
+ *
+ * Entries are keyed by the canonical path of the parent plus the name, which is the form of
+ * paths of {@link MultiListenerFileObserver} events, so that aliases share the entries.
+ * The entries expire after {@link #TIME_TO_LIVE}. The least recently used entries are evicted
+ * when the estimated memory taken by the entries exceeds {@link #MAX_MEMORY}.
+ *
+ * The entries are kept sorted by path as well, so that the entries of a directory tree are
+ * found with a range lookup instead of a scan over all entries. Paths invalidated with
+ * {@link ProbeCache#invalidatePath(String)} are invalidated here as well.
+ */
+public final class FileMetadataCache {
+
+    private static final long TIME_TO_LIVE = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Maximum estimated memory taken by the entries, in bytes
+     */
+    static final int MAX_MEMORY = 1024 * 1024;
+
+    /**
+     * Estimated size of the entry object and the nodes of both maps, in bytes
+     */
+    private static final int ENTRY_OVERHEAD = 104;
+
+    /**
+     * Estimated size of a String and it's char array without the chars, in bytes
+     */
+    private static final int STRING_OVERHEAD = 40;
+
+    private static final Object sLock = new Object();
+
+    /**
+     * Entries in access order. Guarded by sLock
+     */
+    private static final LinkedHashMap<String, Entry> sEntries =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The same entries sorted by path. Guarded by sLock
+     */
+    private static final TreeMap<String, Entry> sTree = new TreeMap<>();
+
+    /**
+     * Estimated memory taken by the entries. Guarded by sLock
+     */
+    private static int sMemory;
+
+    static {
+        ProbeCache.addInvalidationListener(new ProbeCache.InvalidationListener() {
+            @Override
+            public void onPathInvalidated(@NonNull final String path) {
+                invalidateTree(path);
+            }
+
+            @Override
+            public void onAllInvalidated() {
+                clear();
+            }
+        });
+    }
+
+    private FileMetadataCache() {
+    }
+
+    /**
+     * Returns cached metadata of the file
+     *
+     * @param file File to get metadata of
+     * @return cached metadata, or null if not cached
+     */
+    @Nullable
+    static FileMetadata get(@NonNull final File file) {
+        final String key = keyOf(file);
+        return key == null ? null : get(key);
+    }
+
+    @Nullable
+    private static FileMetadata get(@NonNull final String key) {
+        synchronized (sLock) {
+            final Entry entry = sEntries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expires <= SystemClock.elapsedRealtime()) {
+                removeEntry(key);
+                return null;
+            }
+            return entry.metadata;
+        }
+    }
+
+    static void put(@NonNull final File file, @NonNull final FileMetadata metadata) {
+        final String key = keyOf(file);
+        if (key != null) {
+            put(key, metadata);
+        }
+    }
+
+    /**
+     * Caches metadata of the file which parent's canonical path is known, like of a listed file
+     *
+     * @param canonicalParent canonical path of the parent
+     * @param name name of the file
+     * @param metadata metadata to cache
+     */
+    static void put(@NonNull final String canonicalParent, @NonNull final String name,
+                    @NonNull final FileMetadata metadata) {
+        put(child(canonicalParent, name), metadata);
+    }
+
+    private static void put(@NonNull final String key, @NonNull final FileMetadata metadata) {
+        final Entry entry = new Entry(metadata, SystemClock.elapsedRealtime() + TIME_TO_LIVE,
+                ENTRY_OVERHEAD + estimateSize(key) + metadata.estimateSize());
+        synchronized (sLock) {
+            removeEntry(key);
+            sEntries.put(key, entry);
+            sTree.put(key, entry);
+            sMemory += entry.size;
+            final Iterator<Map.Entry<String, Entry>> eldest = sEntries.entrySet().iterator();
+            while (sMemory > MAX_MEMORY && eldest.hasNext()) {
+                final Map.Entry<String, Entry> evicted = eldest.next();
+                eldest.remove();
+                sTree.remove(evicted.getKey());
+                sMemory -= evicted.getValue().size;
+            }
+        }
+    }
+
+    /**
+     * Removes cached metadata of the path only
+     *
+     * @param path canonical path of the file
+     */
+    static void remove(@NonNull final String path) {
+        synchronized (sLock) {
+            removeEntry(path);
+        }
+    }
+
+    /**
+     * Removes cached metadata of the file and of it's parent, which modification time changes
+     * when the file is created. Unlike {@link #invalidateTree(String)}, entries of files under
+     * the file are kept, so this is cheap enough to be called for every created or modified file
+     *
+     * @param file File that was created or changed
+     */
+    public static void invalidate(@NonNull final File file) {
+        final String key = keyOf(file);
+        if (key != null) {
+            synchronized (sLock) {
+                removeEntry(key);
+                removeEntry(parentOf(key));
+            }
+        }
+    }
+
+    /**
+     * Removes cached metadata of the file, of the files under it and of it's parent.
+     * Must be called after the file is removed, moved or renamed
+     *
+     * @param path absolute path of the file
+     */
+    static void invalidateTree(@NonNull final String path) {
+        final String key = keyOf(new File(path));
+        synchronized (sLock) {
+            removeTree(path);
+            removeEntry(parentOf(path));
+            if (key != null && !key.equals(path)) {
+                // the path is an alias
+                removeTree(key);
+                removeEntry(parentOf(key));
+            }
+        }
+    }
+
+    static void clear() {
+        synchronized (sLock) {
+            sEntries.clear();
+            sTree.clear();
+            sMemory = 0;
+        }
+    }
+
+    /**
+     * Returns estimated memory taken by the entries
+     *
+     * @return memory in bytes
+     */
+    static int getMemory() {
+        synchronized (sLock) {
+            return sMemory;
+        }
+    }
+
+    /**
+     * Returns estimated memory taken by the string
+     *
+     * @param s String to estimate the size of
+     * @return size in bytes
+     */
+    static int estimateSize(@NonNull final String s) {
+        return STRING_OVERHEAD + 2 * s.length();
+    }
+
+    /**
+     * Removes the entry of the path and the entries under it. Must be called with sLock held
+     *
+     * @param path path to remove the entries of
+     */
+    private static void removeTree(@NonNull final String path) {
+        removeEntry(path);
+        final String prefix = path.endsWith(File.separator) ? path : path + File.separatorChar;
+        // the first string after all strings that start with the prefix
+        final String end = prefix.substring(0, prefix.length() - 1) +
+                (char) (File.separatorChar + 1);
+        final Map<String, Entry> tree = sTree.subMap(prefix, end);
+        if (tree.isEmpty()) {
+            return;
+        }
+        final List<String> keys = new ArrayList<>(tree.keySet());
+        for (final String key : keys) {
+            removeEntry(key);
+        }
+    }
+
+    /**
+     * Removes the entry. Must be called with sLock held
+     *
+     * @param key key of the entry
+     */
+    private static void removeEntry(@NonNull final String key) {
+        final Entry entry = sEntries.remove(key);
+        if (entry != null) {
+            sTree.remove(key);
+            sMemory -= entry.size;
+        }
+    }
+
+    /**
+     * Returns the key of the file, which is the canonical path of the parent plus the name
+     *
+     * @param file File to get the key of
+     * @return the key, or null if the file is not cached
+     */
+    @Nullable
+    private static String keyOf(@NonNull final File file) {
+        final String path = file.getAbsolutePath();
+        final File parent = new File(path).getParentFile();
+        if (parent == null) {
+            return path;
+        }
+        final String name = file.getName();
+        if (name.isEmpty() || name.equals(".") || name.equals("..")) {
+            return null;
+        }
+        try {
+            return child(CanonicalPaths.resolve(parent), name);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @NonNull
+    private static String child(@NonNull final String parent, @NonNull final String name) {
+        return parent.equals(File.separator) ?
+                parent + name : parent + File.separatorChar + name;
+    }
+
+    @NonNull
+    private static String parentOf(@NonNull final String path) {
+        final int separator = path.lastIndexOf(File.separatorChar);
+        return separator <= 0 ? File.separator : path.substring(0, separator);
+    }
+
+    private static final class Entry {
+        final FileMetadata metadata;
+        final long expires;
+        final int size;
+
+        Entry(@NonNull final FileMetadata metadata, final long expires, final int size) {
+            this.metadata = metadata;
+            this.expires = expires;
+            this.size = size;
+        }
+    }
+}
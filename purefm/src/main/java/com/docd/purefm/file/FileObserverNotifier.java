@@ -16,6 +16,8 @@ public final class FileObserverNotifier {
     }
 
     public static void notifyCreated(final GenericFile created) {
+        // inotify doesn't deliver events in locations where superuser access is needed
+        FileMetadataCache.invalidate(created.toFile());
         final GenericFile path;
         if (created.isDirectory()) {
             path = created;
@@ -358,6 +358,20 @@ public interface GenericFile extends Serializable {
     @Nullable
     GenericFile[] listFiles(GenericFileFilter filter);
 
+    /**
+     * Starts listing the directory represented by this file. Unlike
+     * {@link #listFiles(GenericFileFilter)}, returns the files in chunks as they are read,
+     * so that the first files can be shown before the whole directory is read.
+     * Returns {@code null} if this file is not a directory or listing could not be started.
+     * If {@code filter} is {@code null} then all files match.
+     *
+     * @param filter
+     *            the filter to match files against, may be {@code null}.
+     * @return cursor over the files or {@code null}. Must be closed
+     */
+    @Nullable
+    GenericFileCursor listFilesCursor(GenericFileFilter filter);
+
     /**
      * Returns an array of strings with the file names in the directory
      * represented by this file. The result is {@code null} if this file is not
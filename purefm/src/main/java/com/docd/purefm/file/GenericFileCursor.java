@@ -0,0 +1,52 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.file;
+
+import android.support.annotation.Nullable;
+
+import java.io.Closeable;
+import java.util.List;
+
+/**
+ * Contents of a directory that is still being listed, returned in chunks as they are read.
+ * Returned by {@link GenericFile#listFilesCursor(GenericFileFilter)}.
+ *
+ * Must be closed when not read to the end, so that the listing stops. Not thread safe.
+ */
+public interface GenericFileCursor extends Closeable {
+
+    /**
+     * Returns the next files of the directory. Blocks until the files are read
+     *
+     * @param maxCount maximum number of files to return
+     * @return at least one and at most maxCount files, or null if there are no more files
+     */
+    @Nullable
+    List<GenericFile> nextChunk(int maxCount);
+
+    /**
+     * Returns whether the whole directory was listed.
+     * Valid after {@link #nextChunk(int)} returned null
+     *
+     * @return false if listing failed, in which case the returned files may be incomplete
+     */
+    boolean isSuccessful();
+
+    /**
+     * Stops listing and releases resources
+     */
+    @Override
+    void close();
+}
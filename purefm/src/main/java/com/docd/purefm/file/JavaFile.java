@@ -20,7 +20,7 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.net.URI;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.commons.io.FileUtils;
@@ -28,63 +28,84 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import com.docd.purefm.Environment;
+import com.docd.purefm.commandline.ProbeCache;
 import com.docd.purefm.utils.MimeTypes;
 import com.docd.purefm.utils.PFMFileUtils;
 import com.docd.purefm.utils.StorageHelper;
 
-public final class JavaFile implements GenericFile, Comparable<GenericFile> {
+/**
+ * {@link GenericFile} backed by {@link File}.
+ *
+ * Permissions, symlink status and mime type are loaded lazily on first access and memoized,
+ * since each of them costs a few system calls. Listing a directory only reads the names, and the
+ * attributes are loaded only for the files that are shown, or in background with
+ * {@link #loadAttributes()}. The attributes are reloaded after this file is modified through it.
+ */
+public class JavaFile implements GenericFile, Comparable<GenericFile> {
 
     private static final long serialVersionUID = -2117911719748590982L;
 
     @NonNull
     private final File mFile;
 
-    @NonNull
-    private final Permissions p;
-
-    private final boolean isSymlink;
+    /**
+     * Lazily loaded attributes, null if not yet loaded
+     */
+    private transient volatile Permissions p;
+    private transient volatile Boolean isSymlink;
 
-    @Nullable
-    private final String mimeType;
+    private transient volatile String mimeType;
+    private transient volatile boolean mimeTypeLoaded;
 
     public JavaFile(@NonNull final File file) {
         this.mFile = file;
-        this.p = this.readPermissions();
-        this.isSymlink = this.detectSymlink();
-        this.mimeType = MimeTypes.getMimeType(file);
     }
     
     public JavaFile(@NonNull final File dir, @NonNull final String name) {
         this.mFile = new File(dir, name);
-        this.p = this.readPermissions();
-        this.isSymlink = this.detectSymlink();
-        this.mimeType = MimeTypes.getMimeType(mFile);
     }
 
     public JavaFile(@NonNull final String dirPath, @NonNull final String name) {
         this.mFile = new File(dirPath, name);
-        this.p = this.readPermissions();
-        this.isSymlink = this.detectSymlink();
-        this.mimeType = MimeTypes.getMimeType(mFile);
     }
 
     public JavaFile(@NonNull final String path) {
         this.mFile = new File(path);
-        this.p = this.readPermissions();
-        this.isSymlink = this.detectSymlink();
-        this.mimeType = MimeTypes.getMimeType(mFile);
     }
 
     public JavaFile(@NonNull final URI uri) {
         this.mFile = new File(uri);
-        this.p = this.readPermissions();
-        this.isSymlink = this.detectSymlink();
-        this.mimeType = MimeTypes.getMimeType(mFile);
     }
 
     /**
-     * {@inheritDoc}
+     * Loads all attributes that are not yet loaded, so that they can be accessed without system
+     * calls. Should be called in background for the files that are about to be shown
      */
+    public void loadAttributes() {
+        getPermissions();
+        isSymlink();
+        getMimeType();
+    }
+
+    /**
+     * Forgets loaded attributes, so that they are loaded again on next access.
+     * Should be called before checking a file that was listed a while ago
+     */
+    public void refresh() {
+        this.p = null;
+        this.isSymlink = null;
+        this.mimeTypeLoaded = false;
+    }
+
+    /**
+     * Forgets loaded attributes, so that they are loaded again on next access.
+     * Must be called after this file is modified
+     */
+    protected void resetAttributes() {
+        refresh();
+        FileMetadataCache.invalidate(mFile);
+    }
+
     @NonNull
     private Permissions readPermissions() {
         boolean canWrite = mFile.canWrite();
@@ -95,7 +116,7 @@ public final class JavaFile implements GenericFile, Comparable<GenericFile> {
                 canWrite = !Environment.isReadOnly(volume);
             }
         }
-        return new Permissions(mFile.canRead(), canWrite, mFile.canExecute());
+        return Permissions.valueOf(mFile.canRead(), canWrite, mFile.canExecute());
     }
 
     /**
@@ -108,11 +129,34 @@ public final class JavaFile implements GenericFile, Comparable<GenericFile> {
         }
         final JavaFile[] res = new JavaFile[files.length];
         for (int i = 0; i < files.length; i++) {
-            res[i] = new JavaFile(files[i]);
+            res[i] = newListedFile(files[i]);
         }
         return res;
     }
 
+    /**
+     * Creates a file of the same type as this one. Used for parent and canonical files
+     *
+     * @param file File to wrap
+     * @return new file
+     */
+    @NonNull
+    protected JavaFile newFile(@NonNull final File file) {
+        return new JavaFile(file);
+    }
+
+    /**
+     * Creates a file of the same type as this one for an entry of a listing. The entries may
+     * keep their attributes for the time of sorting and showing the listing
+     *
+     * @param file File to wrap
+     * @return new file
+     */
+    @NonNull
+    protected JavaFile newListedFile(@NonNull final File file) {
+        return newFile(file);
+    }
+
     private boolean detectSymlink() {
         try {
             return FileUtils.isSymlink(this.mFile);
@@ -127,6 +171,10 @@ public final class JavaFile implements GenericFile, Comparable<GenericFile> {
     @Nullable
     @Override
     public String getMimeType() {
+        if (!this.mimeTypeLoaded) {
+            this.mimeType = MimeTypes.getMimeType(mFile);
+            this.mimeTypeLoaded = true;
+        }
         return this.mimeType;
     }
 
@@ -135,7 +183,12 @@ public final class JavaFile implements GenericFile, Comparable<GenericFile> {
      */
     @Override
     public boolean isSymlink() {
-        return this.isSymlink;
+        Boolean symlink = this.isSymlink;
+        if (symlink == null) {
+            symlink = this.detectSymlink();
+            this.isSymlink = symlink;
+        }
+        return symlink;
     }
 
     /**
@@ -160,16 +213,20 @@ public final class JavaFile implements GenericFile, Comparable<GenericFile> {
      */
     @Override
     public boolean delete() {
+        resetAttributes();
+        boolean result;
         if (mFile.isDirectory()) {
             try {
                 FileUtils.deleteDirectory(mFile);
-                return true;
+                result = true;
             } catch (IOException e) {
-                return false;
+                result = false;
             }
         } else {
-            return this.mFile.delete();
+            result = this.mFile.delete();
         }
+        ProbeCache.invalidatePath(getAbsolutePath());
+        return result;
     }
 
     /**
@@ -210,20 +267,29 @@ public final class JavaFile implements GenericFile, Comparable<GenericFile> {
             return null;
         }
         
-        final List<JavaFile> res = new LinkedList<>();
+        final List<JavaFile> res = new ArrayList<>(files.length);
         for (final File file : files) {
-            final JavaFile f = new JavaFile(file);
+            final JavaFile f = newListedFile(file);
             if (filter.accept(f)) {
                 res.add(f);
             }
         }
-        
-        final JavaFile[] result = new JavaFile[res.size()];
-        int i = 0;
-        for (JavaFile f : res) {
-            result[i++] = f;
+        return res.toArray(new JavaFile[res.size()]);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The names are read at once, and the files are created and filtered chunk by chunk,
+     * since filtering reads the attributes
+     */
+    @Nullable
+    @Override
+    public GenericFileCursor listFilesCursor(@Nullable final GenericFileFilter filter) {
+        final String[] names = this.mFile.list();
+        if (names == null) {
+            return null;
         }
-        return result;
+        return new Cursor(names, filter);
     }
 
     /**
@@ -272,6 +338,7 @@ public final class JavaFile implements GenericFile, Comparable<GenericFile> {
      */
     @Override
     public boolean createNewFile() throws IOException {
+        resetAttributes();
         return this.mFile.createNewFile();
     }
 
@@ -280,6 +347,7 @@ public final class JavaFile implements GenericFile, Comparable<GenericFile> {
      */
     @Override
     public boolean mkdir() {
+        resetAttributes();
         return this.mFile.mkdir();
     }
 
@@ -288,6 +356,7 @@ public final class JavaFile implements GenericFile, Comparable<GenericFile> {
      */
     @Override
     public boolean mkdirs() {
+        resetAttributes();
         return this.mFile.mkdirs();
     }
 
@@ -334,13 +403,13 @@ public final class JavaFile implements GenericFile, Comparable<GenericFile> {
     @NonNull
     @Override
     public String getCanonicalPath() throws IOException {
-        return this.mFile.getCanonicalPath();
+        return CanonicalPaths.resolve(this.mFile);
     }
 
     @NonNull
     @Override
     public JavaFile getCanonicalFile() throws IOException {
-        return new JavaFile(this.mFile.getCanonicalPath());
+        return newFile(new File(getCanonicalPath()));
     }
 
     /**
@@ -393,7 +462,7 @@ public final class JavaFile implements GenericFile, Comparable<GenericFile> {
         if (parent == null) {
             return null;
         }
-        return new JavaFile(parent);
+        return newFile(parent);
     }
 
     /**
@@ -409,7 +478,11 @@ public final class JavaFile implements GenericFile, Comparable<GenericFile> {
      */
     @Override
     public boolean renameTo(@NonNull final GenericFile newName) {
-        return this.mFile.renameTo(newName.toFile());
+        resetAttributes();
+        final boolean result = this.mFile.renameTo(newName.toFile());
+        ProbeCache.invalidatePath(getAbsolutePath());
+        FileMetadataCache.invalidate(newName.toFile());
+        return result;
     }
 
     /**
@@ -418,7 +491,12 @@ public final class JavaFile implements GenericFile, Comparable<GenericFile> {
     @NonNull
     @Override
     public Permissions getPermissions() {
-        return this.p;
+        Permissions permissions = this.p;
+        if (permissions == null) {
+            permissions = this.readPermissions();
+            this.p = permissions;
+        }
+        return permissions;
     }
 
     /**
@@ -426,6 +504,7 @@ public final class JavaFile implements GenericFile, Comparable<GenericFile> {
      */
     @Override
     public boolean applyPermissions(final Permissions newPerm) {
+        resetAttributes();
         boolean result;
         result = mFile.setReadable(newPerm.ur);
         result &= mFile.setWritable(newPerm.uw);
@@ -472,4 +551,44 @@ public final class JavaFile implements GenericFile, Comparable<GenericFile> {
     public String toString() {
         return this.mFile.toString();
     }
+
+    private final class Cursor implements GenericFileCursor {
+
+        private final String[] mNames;
+
+        @Nullable
+        private final GenericFileFilter mFilter;
+
+        private int mPosition;
+
+        Cursor(@NonNull final String[] names, @Nullable final GenericFileFilter filter) {
+            mNames = names;
+            mFilter = filter;
+        }
+
+        @Nullable
+        @Override
+        public List<GenericFile> nextChunk(final int maxCount) {
+            final List<GenericFile> chunk = new ArrayList<>(Math.min(maxCount,
+                    mNames.length - mPosition));
+            while (chunk.size() < maxCount && mPosition < mNames.length) {
+                final JavaFile file = newListedFile(new File(mFile, mNames[mPosition]));
+                mNames[mPosition++] = null;
+                if (mFilter == null || mFilter.accept(file)) {
+                    chunk.add(file);
+                }
+            }
+            return chunk.isEmpty() ? null : chunk;
+        }
+
+        @Override
+        public boolean isSuccessful() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+            mPosition = mNames.length;
+        }
+    }
 }
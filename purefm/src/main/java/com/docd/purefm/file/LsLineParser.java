@@ -0,0 +1,394 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.file;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Single-pass parser of busybox ls -lnpe output lines, for example
+ *
+ * drwxr-xr-x    2 0        0             4096 Sun Jan 26 12:00:00 2014 name/
+ * lrwxrwxrwx    1 0        0               10 Sun Jan 26 12:00:00 2014 link -> target
+ * crw-rw-rw-    1 0        0           1,   3 Sun Jan 26 12:00:00 2014 null
+ *
+ * The fields are read directly from the line into primitives, only the name and the symlink
+ * target are allocated. The start of the day is cached between lines, so converting the date
+ * to milliseconds requires a Calendar computation only when the day changes.
+ *
+ * Not thread-safe. Create an instance per listing and reuse it for every line.
+ */
+public final class LsLineParser {
+
+    private static final long DAY = 86400000L;
+
+    private static final String SYMLINK_ARROW = " -> ";
+
+    private final Calendar mCalendar = Calendar.getInstance(TimeZone.getDefault());
+
+    private int mCachedDayKey = -1;
+    private long mCachedDayStart;
+    private boolean mCachedDayIsRegular;
+
+    private int mPosition;
+
+    private int mMode;
+    private boolean mIsSymlink;
+    private boolean mIsDirectory;
+    private int mOwner;
+    private int mGroup;
+    private long mLength;
+    private long mLastModified;
+    private String mName;
+    private String mSymlinkTarget;
+
+    /**
+     * Parses the line. The values of getters are valid only if this returned true.
+     *
+     * @param line ls -lnpe output line
+     * @return true if the line was parsed, false if it is not a valid ls -lnpe line
+     */
+    public boolean parse(@NonNull final CharSequence line) {
+        final int length = line.length();
+        if (length < 12) {
+            return false;
+        }
+        mPosition = 0;
+
+        final char type = line.charAt(0);
+        mIsSymlink = type == 'l';
+        mIsDirectory = type == 'd';
+        final int mode = Permissions.parseSymbolic(line, 1);
+        if (mode == -1) {
+            return false;
+        }
+        mMode = mode;
+        mPosition = 10;
+
+        // number of links
+        if (skipWhitespace(line) || readNumber(line) == -1) {
+            return false;
+        }
+        if (skipWhitespace(line) || (mOwner = (int) readNumber(line)) == -1) {
+            return false;
+        }
+        if (skipWhitespace(line) || (mGroup = (int) readNumber(line)) == -1) {
+            return false;
+        }
+        if (skipWhitespace(line) || (mLength = readNumber(line)) == -1) {
+            return false;
+        }
+        if (mPosition < length && line.charAt(mPosition) == ',') {
+            // device file, major, minor instead of size
+            mPosition++;
+            if (skipWhitespace(line) || readNumber(line) == -1) {
+                return false;
+            }
+            mLength = 0L;
+        }
+
+        // day of week
+        if (skipWhitespace(line) || skipWord(line)) {
+            return false;
+        }
+        if (skipWhitespace(line)) {
+            return false;
+        }
+        final int month = readMonth(line);
+        if (month == -1) {
+            return false;
+        }
+        final int day;
+        if (skipWhitespace(line) || (day = (int) readNumber(line)) == -1) {
+            return false;
+        }
+        final int hour;
+        final int minute;
+        final int second;
+        if (skipWhitespace(line) || (hour = (int) readNumber(line)) == -1 ||
+                !skipChar(line, ':') || (minute = (int) readNumber(line)) == -1 ||
+                !skipChar(line, ':') || (second = (int) readNumber(line)) == -1) {
+            return false;
+        }
+        final int year;
+        if (skipWhitespace(line) || (year = (int) readNumber(line)) == -1) {
+            return false;
+        }
+        mLastModified = toMillis(year, month, day, hour, minute, second);
+
+        if (skipWhitespace(line)) {
+            return false;
+        }
+        return readName(line);
+    }
+
+    public int getMode() {
+        return mMode;
+    }
+
+    public boolean isSymlink() {
+        return mIsSymlink;
+    }
+
+    /**
+     * Returns true if the file is a directory or a symlink to a directory
+     *
+     * @return true if the file is a directory or a symlink to a directory
+     */
+    public boolean isDirectory() {
+        return mIsDirectory;
+    }
+
+    public int getOwner() {
+        return mOwner;
+    }
+
+    public int getGroup() {
+        return mGroup;
+    }
+
+    public long getLength() {
+        return mLength;
+    }
+
+    public long getLastModified() {
+        return mLastModified;
+    }
+
+    /**
+     * Returns file name, without the directory indicator
+     *
+     * @return file name
+     */
+    @NonNull
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Returns symlink target as printed by ls, without the directory indicator
+     *
+     * @return symlink target, or null if the file is not a symlink
+     */
+    @Nullable
+    public String getSymlinkTarget() {
+        return mSymlinkTarget;
+    }
+
+    /**
+     * Skips whitespace
+     *
+     * @param line line to read
+     * @return true if the end of line reached
+     */
+    private boolean skipWhitespace(@NonNull final CharSequence line) {
+        final int length = line.length();
+        while (mPosition < length) {
+            final char c = line.charAt(mPosition);
+            if (c != ' ' && c != '\t') {
+                return false;
+            }
+            mPosition++;
+        }
+        return true;
+    }
+
+    /**
+     * Skips non-whitespace chars
+     *
+     * @param line line to read
+     * @return true if the end of line reached
+     */
+    private boolean skipWord(@NonNull final CharSequence line) {
+        final int length = line.length();
+        while (mPosition < length) {
+            final char c = line.charAt(mPosition);
+            if (c == ' ' || c == '\t') {
+                return false;
+            }
+            mPosition++;
+        }
+        return true;
+    }
+
+    private boolean skipChar(@NonNull final CharSequence line, final char expected) {
+        if (mPosition < line.length() && line.charAt(mPosition) == expected) {
+            mPosition++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reads non-negative decimal number
+     *
+     * @param line line to read
+     * @return the number, or -1 if there are no digits at current position
+     */
+    private long readNumber(@NonNull final CharSequence line) {
+        final int length = line.length();
+        final int start = mPosition;
+        long result = 0;
+        while (mPosition < length) {
+            final char c = line.charAt(mPosition);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            result = result * 10 + (c - '0');
+            mPosition++;
+        }
+        return mPosition == start ? -1 : result;
+    }
+
+    /**
+     * Reads English abbreviated month name
+     *
+     * @param line line to read
+     * @return month as {@link Calendar} month field, or -1 if not a month
+     */
+    private int readMonth(@NonNull final CharSequence line) {
+        if (mPosition + 3 > line.length()) {
+            return -1;
+        }
+        final char c0 = line.charAt(mPosition);
+        final char c1 = line.charAt(mPosition + 1);
+        final char c2 = line.charAt(mPosition + 2);
+        mPosition += 3;
+        switch (c0) {
+            case 'J':
+                if (c1 == 'a' && c2 == 'n') {
+                    return Calendar.JANUARY;
+                }
+                if (c1 == 'u' && c2 == 'n') {
+                    return Calendar.JUNE;
+                }
+                if (c1 == 'u' && c2 == 'l') {
+                    return Calendar.JULY;
+                }
+                return -1;
+
+            case 'F':
+                return c1 == 'e' && c2 == 'b' ? Calendar.FEBRUARY : -1;
+
+            case 'M':
+                if (c1 == 'a' && c2 == 'r') {
+                    return Calendar.MARCH;
+                }
+                if (c1 == 'a' && c2 == 'y') {
+                    return Calendar.MAY;
+                }
+                return -1;
+
+            case 'A':
+                if (c1 == 'p' && c2 == 'r') {
+                    return Calendar.APRIL;
+                }
+                if (c1 == 'u' && c2 == 'g') {
+                    return Calendar.AUGUST;
+                }
+                return -1;
+
+            case 'S':
+                return c1 == 'e' && c2 == 'p' ? Calendar.SEPTEMBER : -1;
+
+            case 'O':
+                return c1 == 'c' && c2 == 't' ? Calendar.OCTOBER : -1;
+
+            case 'N':
+                return c1 == 'o' && c2 == 'v' ? Calendar.NOVEMBER : -1;
+
+            case 'D':
+                return c1 == 'e' && c2 == 'c' ? Calendar.DECEMBER : -1;
+
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Reads the rest of the line as file name, separating symlink target and the directory
+     * indicator
+     *
+     * @param line line to read
+     * @return false if the name is empty
+     */
+    private boolean readName(@NonNull final CharSequence line) {
+        int nameEnd = line.length();
+        mSymlinkTarget = null;
+        if (mIsSymlink) {
+            final int arrow = indexOf(line, SYMLINK_ARROW, mPosition);
+            if (arrow != -1) {
+                int targetEnd = nameEnd;
+                if (line.charAt(targetEnd - 1) == '/') {
+                    mIsDirectory = true;
+                    if (targetEnd - 1 > arrow + SYMLINK_ARROW.length()) {
+                        targetEnd--;
+                    }
+                }
+                mSymlinkTarget = line.subSequence(
+                        arrow + SYMLINK_ARROW.length(), targetEnd).toString();
+                nameEnd = arrow;
+            }
+        } else if (mIsDirectory && nameEnd - 1 > mPosition && line.charAt(nameEnd - 1) == '/') {
+            nameEnd--;
+        }
+        if (nameEnd <= mPosition) {
+            return false;
+        }
+        mName = line.subSequence(mPosition, nameEnd).toString();
+        return true;
+    }
+
+    private static int indexOf(@NonNull final CharSequence line,
+                               @NonNull final String what,
+                               final int from) {
+        final int last = line.length() - what.length();
+        Outer: for (int i = from; i <= last; i++) {
+            for (int j = 0; j < what.length(); j++) {
+                if (line.charAt(i + j) != what.charAt(j)) {
+                    continue Outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Converts local date and time to milliseconds since Epoch. The start of the day is cached,
+     * and if the day has no daylight saving time transition, time of day is simply added to it.
+     */
+    private long toMillis(final int year, final int month, final int day,
+                          final int hour, final int minute, final int second) {
+        final int dayKey = (year << 9) | (month << 5) | day;
+        if (dayKey != mCachedDayKey) {
+            mCalendar.clear();
+            mCalendar.set(year, month, day);
+            mCachedDayStart = mCalendar.getTimeInMillis();
+            mCalendar.add(Calendar.DAY_OF_MONTH, 1);
+            mCachedDayIsRegular = mCalendar.getTimeInMillis() - mCachedDayStart == DAY;
+            mCachedDayKey = dayKey;
+        }
+        if (mCachedDayIsRegular) {
+            return mCachedDayStart + ((hour * 60L + minute) * 60L + second) * 1000L;
+        }
+        mCalendar.clear();
+        mCalendar.set(year, month, day, hour, minute, second);
+        return mCalendar.getTimeInMillis();
+    }
+}
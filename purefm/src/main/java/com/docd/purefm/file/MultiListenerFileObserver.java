@@ -16,8 +16,11 @@ package com.docd.purefm.file;
 
 import android.os.FileObserver;
 
+import com.docd.purefm.commandline.ProbeCache;
+
 import android.support.annotation.NonNull;
 
+import java.io.File;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -54,6 +57,20 @@ public final class MultiListenerFileObserver extends FileObserver {
 
     @Override
     public void onEvent(final int event, final String pathStub) {
+        // FileObserverNotifier passes full paths
+        final String path = pathStub == null ? this.mPath :
+                pathStub.startsWith(File.separator) ? pathStub :
+                        this.mPath + File.separatorChar + pathStub;
+        // cached probes and canonical paths of moved or deleted files become stale
+        if ((event & (FileObserver.DELETE_SELF | FileObserver.MOVE_SELF)) != 0) {
+            ProbeCache.invalidatePath(this.mPath);
+        } else if ((event & (FileObserver.DELETE | FileObserver.MOVED_FROM)) != 0) {
+            ProbeCache.invalidatePath(path);
+        } else {
+            // created or modified, so only attributes of the file and of this directory change
+            FileMetadataCache.remove(path);
+            FileMetadataCache.remove(this.mPath);
+        }
         for (final OnEventListener listener : this.mListeners) {
             listener.onEvent(event, this.mPath);
         }
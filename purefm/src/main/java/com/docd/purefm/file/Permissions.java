@@ -14,136 +14,263 @@
  */
 package com.docd.purefm.file;
 
+import android.support.annotation.NonNull;
+
+import java.io.ObjectStreamException;
 import java.io.Serializable;
 
+/**
+ * Permission bits of st_mode, including set-user-ID, set-group-ID and sticky bits.
+ *
+ * Instances are interned, there is at most one instance per each of 4096 modes, so obtaining
+ * Permissions for a listed file doesn't allocate. Symbolic and octal representations are
+ * computed once per instance.
+ */
 public final class Permissions implements Serializable {
 
-    private static final long serialVersionUID = 2682238088276963741L;
-    
-    public final boolean ur;
-    public final boolean uw;
-    public final boolean ux;
-    
-    public final boolean gr;
-    public final boolean gw;
-    public final boolean gx;
-    
-    public final boolean or;
-    public final boolean ow;
-    public final boolean ox;
-    
-    private final String output;
-    
-    public Permissions(boolean r, boolean w, boolean x) {
-        this.ur = r;
-        this.uw = w;
-        this.ux = x;
-        
-        this.gr = false;
-        this.gw = false;
-        this.gx = false;
-        
-        this.or = false;
-        this.ow = false;
-        this.ox = false;
-        
-        @SuppressWarnings("StringBufferReplaceableByString")
-        final StringBuilder sb = new StringBuilder();
-        sb.append(ur ? 'r' : '-');
-        sb.append(uw ? 'w' : '-');
-        sb.append(ux ? 'x' : '-');
-        this.output = sb.toString();
-    }
-    
-    public Permissions(
-            boolean ur, boolean uw, boolean ux,
-            boolean gr, boolean gw, boolean gx,
-            boolean or, boolean ow, boolean ox) {
-        
-        this.ur = ur;
-        this.uw = uw;
-        this.ux = ux;
-        
-        this.gr = gr;
-        this.gw = gw;
-        this.gx = gx;
-        
-        this.or = or;
-        this.ow = ow;
-        this.ox = ox;
-        
-        @SuppressWarnings("StringBufferReplaceableByString")
-        final StringBuilder sb = new StringBuilder();
-        sb.append(ur ? 'r' : '-');
-        sb.append(uw ? 'w' : '-');
-        sb.append(ux ? 'x' : '-');
-        sb.append(gr ? 'r' : '-');
-        sb.append(gw ? 'w' : '-');
-        sb.append(gx ? 'x' : '-');
-        sb.append(or ? 'r' : '-');
-        sb.append(ow ? 'w' : '-');
-        sb.append(ox ? 'x' : '-');
-        this.output = sb.toString();
-    }
-    
-    public Permissions(String line) {
-        if (line.length() != 10) {
-            throw new IllegalArgumentException("Bad permission line");
+    private static final long serialVersionUID = -3153467720406744405L;
+
+    public static final int S_ISUID = 04000;
+    public static final int S_ISGID = 02000;
+    public static final int S_ISVTX = 01000;
+
+    /**
+     * All bits of st_mode represented by Permissions
+     */
+    public static final int MODE_MASK = 07777;
+
+    private static final Permissions[] sInstances = new Permissions[MODE_MASK + 1];
+
+    private final int mMode;
+
+    public final transient boolean ur;
+    public final transient boolean uw;
+    public final transient boolean ux;
+
+    public final transient boolean gr;
+    public final transient boolean gw;
+    public final transient boolean gx;
+
+    public final transient boolean or;
+    public final transient boolean ow;
+    public final transient boolean ox;
+
+    private final transient String mSymbolic;
+    private final transient String mOctal;
+
+    private Permissions(final int mode) {
+        this.mMode = mode;
+
+        this.ur = (mode & 0400) != 0;
+        this.uw = (mode & 0200) != 0;
+        this.ux = (mode & 0100) != 0;
+
+        this.gr = (mode & 040) != 0;
+        this.gw = (mode & 020) != 0;
+        this.gx = (mode & 010) != 0;
+
+        this.or = (mode & 04) != 0;
+        this.ow = (mode & 02) != 0;
+        this.ox = (mode & 01) != 0;
+
+        final char[] symbolic = new char[9];
+        symbolic[0] = ur ? 'r' : '-';
+        symbolic[1] = uw ? 'w' : '-';
+        symbolic[2] = special(ux, (mode & S_ISUID) != 0, 's');
+        symbolic[3] = gr ? 'r' : '-';
+        symbolic[4] = gw ? 'w' : '-';
+        symbolic[5] = special(gx, (mode & S_ISGID) != 0, 's');
+        symbolic[6] = or ? 'r' : '-';
+        symbolic[7] = ow ? 'w' : '-';
+        symbolic[8] = special(ox, (mode & S_ISVTX) != 0, 't');
+        this.mSymbolic = new String(symbolic);
+
+        final char[] octal = new char[4];
+        octal[0] = (char) ('0' + ((mode >> 9) & 07));
+        octal[1] = (char) ('0' + ((mode >> 6) & 07));
+        octal[2] = (char) ('0' + ((mode >> 3) & 07));
+        octal[3] = (char) ('0' + (mode & 07));
+        // the leading zero is omitted unless special bits are set
+        this.mOctal = octal[0] == '0' ? new String(octal, 1, 3) : new String(octal);
+    }
+
+    private static char special(final boolean execute, final boolean set, final char letter) {
+        if (set) {
+            return execute ? letter : Character.toUpperCase(letter);
+        }
+        return execute ? 'x' : '-';
+    }
+
+    /**
+     * Returns Permissions for st_mode. The file type bits are ignored
+     *
+     * @param mode file mode, as returned by stat
+     * @return interned Permissions
+     */
+    @NonNull
+    public static Permissions valueOf(final int mode) {
+        final int bits = mode & MODE_MASK;
+        Permissions permissions = sInstances[bits];
+        if (permissions == null) {
+            // racing threads may create equal instances, which is harmless
+            permissions = new Permissions(bits);
+            sInstances[bits] = permissions;
+        }
+        return permissions;
+    }
+
+    /**
+     * Returns Permissions with only the owner bits set
+     *
+     * @param r owner read
+     * @param w owner write
+     * @param x owner execute
+     * @return interned Permissions
+     */
+    @NonNull
+    public static Permissions valueOf(final boolean r, final boolean w, final boolean x) {
+        return valueOf((r ? 0400 : 0) | (w ? 0200 : 0) | (x ? 0100 : 0));
+    }
+
+    @NonNull
+    public static Permissions valueOf(
+            final boolean ur, final boolean uw, final boolean ux,
+            final boolean gr, final boolean gw, final boolean gx,
+            final boolean or, final boolean ow, final boolean ox) {
+        return valueOf((ur ? 0400 : 0) | (uw ? 0200 : 0) | (ux ? 0100 : 0) |
+                (gr ? 040 : 0) | (gw ? 020 : 0) | (gx ? 010 : 0) |
+                (or ? 04 : 0) | (ow ? 02 : 0) | (ox ? 01 : 0));
+    }
+
+    /**
+     * Parses nine symbolic permission chars as printed by ls, for example "rwsr-xr-t".
+     * Every char must be the one expected at it's position, or '-'
+     *
+     * @param line line to parse
+     * @param offset index of the owner read char
+     * @return permission bits, or -1 if the chars are not valid permissions
+     */
+    public static int parseSymbolic(@NonNull final CharSequence line, final int offset) {
+        if (offset < 0 || line.length() - offset < 9) {
+            return -1;
         }
-        
-        this.ur = line.charAt(1) == 'r';
-        this.uw = line.charAt(2) == 'w';
-        this.ux = line.charAt(3) == 'x';
-        
-        this.gr = line.charAt(4) == 'r';
-        this.gw = line.charAt(5) == 'w';
-        this.gx = line.charAt(6) == 'x';
-        
-        this.or = line.charAt(7) == 'r';
-        this.ow = line.charAt(8) == 'w';
-        this.ox = line.charAt(9) == 'x';
-        
-        @SuppressWarnings("StringBufferReplaceableByString")
-        final StringBuilder sb = new StringBuilder();
-        sb.append(ur ? 'r' : '-');
-        sb.append(uw ? 'w' : '-');
-        sb.append(ux ? 'x' : '-');
-        sb.append(gr ? 'r' : '-');
-        sb.append(gw ? 'w' : '-');
-        sb.append(gx ? 'x' : '-');
-        sb.append(or ? 'r' : '-');
-        sb.append(ow ? 'w' : '-');
-        sb.append(ox ? 'x' : '-');
-        this.output = sb.toString();
-    }
-    
+        int mode = 0;
+        for (int i = 0; i < 9; i++) {
+            final int bit = 1 << (8 - i);
+            final char c = line.charAt(offset + i);
+            if (c == '-') {
+                continue;
+            }
+            switch (i % 3) {
+                case 0:
+                    if (c != 'r') {
+                        return -1;
+                    }
+                    mode |= bit;
+                    break;
+
+                case 1:
+                    if (c != 'w') {
+                        return -1;
+                    }
+                    mode |= bit;
+                    break;
+
+                default:
+                    // s and t set the execute bit as well, S and T only the special bit
+                    final int special = i == 2 ? S_ISUID : i == 5 ? S_ISGID : S_ISVTX;
+                    final char set = i == 8 ? 't' : 's';
+                    final char unset = i == 8 ? 'T' : 'S';
+                    if (c == 'x') {
+                        mode |= bit;
+                    } else if (c == set) {
+                        mode |= bit | special;
+                    } else if (c == unset) {
+                        mode |= special;
+                    } else {
+                        return -1;
+                    }
+                    break;
+            }
+        }
+        return mode;
+    }
+
+    /**
+     * Parses octal permissions, for example "755" or "4755"
+     *
+     * @param line line to parse
+     * @param start index of the first digit
+     * @param end index after the last digit
+     * @return permission bits, or -1 if the chars are not valid octal permissions
+     */
+    public static int parseOctal(@NonNull final CharSequence line, final int start, final int end) {
+        if (start >= end || end - start > 4 || end > line.length()) {
+            return -1;
+        }
+        int mode = 0;
+        for (int i = start; i < end; i++) {
+            final char c = line.charAt(i);
+            if (c < '0' || c > '7') {
+                return -1;
+            }
+            mode = (mode << 3) | (c - '0');
+        }
+        return mode;
+    }
+
+    /**
+     * Returns permission bits of st_mode
+     *
+     * @return file mode without the file type
+     */
+    public int toMode() {
+        return mMode;
+    }
+
+    /**
+     * Returns octal representation, as accepted by chmod
+     *
+     * @return three octal digits, or four if any of set-user-ID, set-group-ID or sticky bits is set
+     */
+    @NonNull
+    public String toOctalString() {
+        return mOctal;
+    }
+
+    public boolean isSetUserId() {
+        return (mMode & S_ISUID) != 0;
+    }
+
+    public boolean isSetGroupId() {
+        return (mMode & S_ISGID) != 0;
+    }
+
+    public boolean isSticky() {
+        return (mMode & S_ISVTX) != 0;
+    }
+
+    /**
+     * Returns symbolic representation, as printed by ls, for example "rwsr-xr-t"
+     *
+     * @return nine symbolic permission chars
+     */
     @Override
     public String toString() {
-        return this.output;
+        return this.mSymbolic;
+    }
+
+    private Object readResolve() throws ObjectStreamException {
+        return valueOf(mMode);
     }
-    
+
     @Override
     public boolean equals(Object o) {
-        if (!(o instanceof Permissions)) {
-            return false;
-        }
-        final Permissions p = (Permissions) o;
-        return this.ur == p.ur && this.uw == p.uw && this.ux == p.ux &&
-                this.gr == p.gr && this.gw == p.gw && this.gx == p.gx &&
-                this.or == p.or && this.ow == p.ow && this.ox == p.ox;
+        return o instanceof Permissions && ((Permissions) o).mMode == this.mMode;
     }
 
     @Override
     public int hashCode() {
-        int result = (ur ? 1 : 0);
-        result = 31 * result + (uw ? 1 : 0);
-        result = 31 * result + (ux ? 1 : 0);
-        result = 31 * result + (gr ? 1 : 0);
-        result = 31 * result + (gw ? 1 : 0);
-        result = 31 * result + (gx ? 1 : 0);
-        result = 31 * result + (or ? 1 : 0);
-        result = 31 * result + (ow ? 1 : 0);
-        result = 31 * result + (ox ? 1 : 0);
-        return result;
+        return mMode;
     }
 }
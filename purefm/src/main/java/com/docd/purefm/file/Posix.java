@@ -0,0 +1,218 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.file;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * File system calls that java.io.File doesn't expose.
+ *
+ * {@link #lstat(String)} returns type, mode, size and modification time of a file in a single
+ * system call, while java.io.File makes a call for each of them.
+ *
+ * The calls are made through android.system.Os on Lollipop and newer, and through the hidden
+ * libcore.io.Libcore.os on older versions, both of which are accessed with reflection.
+ * Doesn't depend on the Android framework otherwise.
+ */
+public abstract class Posix {
+
+    public static final int S_IFMT = 0170000;
+    public static final int S_IFLNK = 0120000;
+    public static final int S_IFDIR = 0040000;
+
+    private static final String CLASS_OS = "android.system.Os";
+    private static final String CLASS_LIBCORE = "libcore.io.Libcore";
+    private static final String CLASS_LIBCORE_OS = "libcore.io.Os";
+
+    private static volatile boolean sResolved;
+    private static Posix sInstance;
+
+    /**
+     * Returns the implementation for this runtime
+     *
+     * @return Posix, or null if the calls are not available on this runtime
+     */
+    @Nullable
+    public static Posix getInstance() {
+        if (!sResolved) {
+            synchronized (Posix.class) {
+                if (!sResolved) {
+                    sInstance = ReflectivePosix.create();
+                    sResolved = true;
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    protected Posix() {}
+
+    /**
+     * Returns status of the file. If the file is a symlink, returns status of the symlink
+     *
+     * @param path path of the file
+     * @return status of the file, or null if failed
+     */
+    @Nullable
+    public abstract Stat lstat(@NonNull String path);
+
+    /**
+     * Returns status of the file. If the file is a symlink, returns status of the target
+     *
+     * @param path path of the file
+     * @return status of the file, or null if failed
+     */
+    @Nullable
+    public abstract Stat stat(@NonNull String path);
+
+    /**
+     * Changes the mode of the file
+     *
+     * @param path path of the file
+     * @param mode permission bits of the mode
+     * @return true if the mode was changed
+     */
+    public abstract boolean chmod(@NonNull String path, int mode);
+
+    /**
+     * Status of a file
+     */
+    public static final class Stat {
+
+        /**
+         * File type and permission bits
+         */
+        public final int mode;
+
+        /**
+         * Size in bytes
+         */
+        public final long size;
+
+        /**
+         * Time of last modification in milliseconds since epoch
+         */
+        public final long lastModified;
+
+        public Stat(final int mode, final long size, final long lastModified) {
+            this.mode = mode;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        public boolean isDirectory() {
+            return (mode & S_IFMT) == S_IFDIR;
+        }
+
+        public boolean isSymlink() {
+            return (mode & S_IFMT) == S_IFLNK;
+        }
+    }
+
+    /**
+     * Makes the calls with reflection, through android.system.Os or libcore.io.Libcore.os
+     */
+    private static final class ReflectivePosix extends Posix {
+
+        /**
+         * Target the methods are invoked on, null for static methods of android.system.Os
+         */
+        private final Object mOs;
+
+        private final Method mLstat;
+        private final Method mStat;
+        private final Method mChmod;
+
+        private final Field mMode;
+        private final Field mSize;
+        private final Field mMtime;
+
+        private ReflectivePosix(final Object os, final Class<?> osClass) throws Exception {
+            mOs = os;
+            mLstat = osClass.getMethod("lstat", String.class);
+            mStat = osClass.getMethod("stat", String.class);
+            mChmod = osClass.getMethod("chmod", String.class, int.class);
+            final Class<?> structStat = mLstat.getReturnType();
+            mMode = structStat.getField("st_mode");
+            mSize = structStat.getField("st_size");
+            mMtime = structStat.getField("st_mtime");
+        }
+
+        @Nullable
+        static Posix create() {
+            Posix posix;
+            try {
+                posix = new ReflectivePosix(null, Class.forName(CLASS_OS));
+            } catch (Exception e) {
+                try {
+                    final Object os = Class.forName(CLASS_LIBCORE).getField("os").get(null);
+                    posix = new ReflectivePosix(os, Class.forName(CLASS_LIBCORE_OS));
+                } catch (Exception e1) {
+                    return null;
+                } catch (LinkageError e1) {
+                    return null;
+                }
+            } catch (LinkageError e) {
+                return null;
+            }
+            // make sure the calls work, since hidden APIs may differ between vendors
+            return posix.lstat("/") != null ? posix : null;
+        }
+
+        @Nullable
+        @Override
+        public Stat lstat(@NonNull final String path) {
+            return invokeStat(mLstat, path);
+        }
+
+        @Nullable
+        @Override
+        public Stat stat(@NonNull final String path) {
+            return invokeStat(mStat, path);
+        }
+
+        @Override
+        public boolean chmod(@NonNull final String path, final int mode) {
+            try {
+                mChmod.invoke(mOs, path, mode);
+                return true;
+            } catch (InvocationTargetException e) {
+                // ErrnoException
+                return false;
+            } catch (IllegalAccessException e) {
+                return false;
+            }
+        }
+
+        @Nullable
+        private Stat invokeStat(@NonNull final Method method, @NonNull final String path) {
+            try {
+                final Object stat = method.invoke(mOs, path);
+                return new Stat(mMode.getInt(stat), mSize.getLong(stat),
+                        mMtime.getLong(stat) * 1000L);
+            } catch (InvocationTargetException e) {
+                // ErrnoException
+                return null;
+            } catch (IllegalAccessException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.file;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+
+/**
+ * {@link JavaFile} which type, size, modification time and mode are read with a single
+ * {@link Posix#lstat(String)}, and another {@link Posix#stat(String)} for symlinks, instead of a
+ * system call per attribute.
+ *
+ * Like {@link JavaFile}, files created with the public constructor, and their parent and
+ * canonical files, read the status on every access. Entries of listings and of
+ * {@link FileListSnapshot} keep the status taken on first access instead, like
+ * {@link CommandLineFile}, so sorting a listing doesn't stat the files again on each comparison.
+ * The status of those is taken again after {@link #refresh()} or after this file is modified
+ * through it. The status is never taken from {@link FileMetadataCache}: lstat is a single system
+ * call, and the cache would hide changes made by other apps or through java.io.
+ *
+ * Created by {@link FileFactory} when {@link Posix#getInstance()} is available.
+ */
+public final class PosixFile extends JavaFile {
+
+    private static final long serialVersionUID = 4305862151245346512L;
+
+    /**
+     * Status of a file that doesn't exist
+     */
+    private static final Status NOT_EXISTS = new Status(false, false, null);
+
+    /**
+     * Whether the status is kept after it's read. Deserialized files read it on every access
+     */
+    private final transient boolean mSnapshot;
+
+    /**
+     * Status snapshot, null if not yet loaded or if this is not a snapshot
+     */
+    private transient volatile Status mStatus;
+
+    public PosixFile(@NonNull final File file) {
+        this(file, false);
+    }
+
+    private PosixFile(@NonNull final File file, final boolean snapshot) {
+        super(file);
+        mSnapshot = snapshot;
+    }
+
+    /**
+     * Creates a file with known status, restored from a {@link FileListSnapshot}
+     *
+     * @param file File to wrap
+     * @param exists whether the file exists
+     * @param symlink whether the file is a symlink
+     * @param stat status of the file, or of the target if the file is a symlink,
+     *             null if it doesn't exist
+     */
+    PosixFile(@NonNull final File file, final boolean exists, final boolean symlink,
+              @Nullable final Posix.Stat stat) {
+        super(file);
+        mSnapshot = true;
+        mStatus = new Status(exists, symlink, stat);
+    }
+
+    @NonNull
+    @Override
+    protected JavaFile newFile(@NonNull final File file) {
+        return new PosixFile(file);
+    }
+
+    @NonNull
+    @Override
+    protected JavaFile newListedFile(@NonNull final File file) {
+        return new PosixFile(file, true);
+    }
+
+    /**
+     * Returns a file that keeps the status, so that reading all attributes takes a single lstat
+     *
+     * @return this file if it keeps the status, otherwise a new file
+     */
+    @NonNull
+    PosixFile toSnapshot() {
+        return mSnapshot ? this : new PosixFile(toFile(), true);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void loadAttributes() {
+        if (mSnapshot) {
+            getStatus();
+        }
+        super.loadAttributes();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void refresh() {
+        super.refresh();
+        mStatus = null;
+    }
+
+    @NonNull
+    private Status getStatus() {
+        if (!mSnapshot) {
+            return readStatus();
+        }
+        Status status = mStatus;
+        if (status == null) {
+            status = readStatus();
+            mStatus = status;
+        }
+        return status;
+    }
+
+    @NonNull
+    private Status readStatus() {
+        final Posix posix = Posix.getInstance();
+        if (posix == null) {
+            throw new IllegalStateException("PosixFile is not supported on this runtime");
+        }
+        final String path = getAbsolutePath();
+        final Posix.Stat lstat = posix.lstat(path);
+        if (lstat == null) {
+            return NOT_EXISTS;
+        }
+        if (!lstat.isSymlink()) {
+            return new Status(true, false, lstat);
+        }
+        // like java.io.File, other attributes of a symlink are the attributes of the target
+        final Posix.Stat stat = posix.stat(path);
+        return new Status(stat != null, true, stat);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean exists() {
+        return getStatus().mExists;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isSymlink() {
+        return getStatus().mSymlink;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isDirectory() {
+        final Posix.Stat stat = getStatus().mStat;
+        return stat != null && stat.isDirectory();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long length() {
+        final Posix.Stat stat = getStatus().mStat;
+        return stat == null ? 0L : stat.size;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long lastModified() {
+        final Posix.Stat stat = getStatus().mStat;
+        return stat == null ? 0L : stat.lastModified;
+    }
+
+    /**
+     * Returns permissions from the mode of the file, like {@link CommandLineFile} does
+     *
+     * @return permissions of the file
+     */
+    @NonNull
+    @Override
+    public Permissions getPermissions() {
+        final Posix.Stat stat = getStatus().mStat;
+        return stat == null ? super.getPermissions() : Permissions.valueOf(stat.mode);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean applyPermissions(final Permissions newPerm) {
+        resetAttributes();
+        final Posix posix = Posix.getInstance();
+        return posix != null && posix.chmod(getAbsolutePath(), newPerm.toMode());
+    }
+
+    private static final class Status {
+
+        final boolean mExists;
+        final boolean mSymlink;
+
+        /**
+         * Status of the file, or of the target if the file is a symlink.
+         * Null if the file or the target doesn't exist
+         */
+        final Posix.Stat mStat;
+
+        Status(final boolean exists, final boolean symlink, final Posix.Stat stat) {
+            mExists = exists;
+            mSymlink = symlink;
+            mStat = stat;
+        }
+    }
+}
@@ -19,12 +19,12 @@ import android.support.annotation.NonNull;
 
 import com.docd.purefm.Environment;
 import com.docd.purefm.R;
+import com.docd.purefm.commandline.RemountManager;
 import com.docd.purefm.file.FileObserverNotifier;
 import com.docd.purefm.file.GenericFile;
 import com.docd.purefm.settings.Settings;
 import com.docd.purefm.utils.MediaStoreUtils;
 import com.docd.purefm.utils.PFMFileUtils;
-import com.stericson.RootTools.RootTools;
 
 /**
  * Creates a single directory. Result is null on success, otherwise the result is a error message to
@@ -53,12 +53,11 @@ final class CreateDirectoryOperation extends Operation<GenericFile, CharSequence
 
         final String path = PFMFileUtils.fullPath(target);
         final Settings settings = Settings.getInstance(mContext);
-        boolean remount = false;
+        RemountManager.Lease lease = null;
         try {
             if (settings.useCommandLine() && settings.isSuEnabled() &&
                     Environment.needsRemount(path)) {
-                remount = true;
-                RootTools.remount(path, "RW");
+                lease = RemountManager.getInstance().acquire(path);
             }
             if (!target.mkdir()) {
                 return mContext.getText(R.string.could_not_create_dir);
@@ -67,8 +66,8 @@ final class CreateDirectoryOperation extends Operation<GenericFile, CharSequence
                 FileObserverNotifier.notifyCreated(target);
             }
         } finally {
-            if (remount) {
-                RootTools.remount(path, "RO");
+            if (lease != null) {
+                lease.release();
             }
         }
         return null;
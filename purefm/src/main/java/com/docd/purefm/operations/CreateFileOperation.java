@@ -19,12 +19,12 @@ import android.support.annotation.NonNull;
 
 import com.docd.purefm.Environment;
 import com.docd.purefm.R;
+import com.docd.purefm.commandline.RemountManager;
 import com.docd.purefm.file.FileObserverNotifier;
 import com.docd.purefm.file.GenericFile;
 import com.docd.purefm.settings.Settings;
 import com.docd.purefm.utils.MediaStoreUtils;
 import com.docd.purefm.utils.PFMFileUtils;
-import com.stericson.RootTools.RootTools;
 
 import java.io.IOException;
 
@@ -55,24 +55,23 @@ final class CreateFileOperation extends Operation<GenericFile, CharSequence> {
 
         final String path = PFMFileUtils.fullPath(target);
         final Settings settings = Settings.getInstance(mContext);
-        boolean remount = false;
+        RemountManager.Lease lease = null;
         try {
             if (settings.useCommandLine() && settings.isSuEnabled() &&
                     Environment.needsRemount(path)) {
-                remount = true;
-                    RootTools.remount(path, "RW");
-                }
-                if (!target.createNewFile()) {
-                    return mContext.getText(R.string.could_not_create_file);
-                } else {
-                    MediaStoreUtils.addEmptyFileOrDirectory(mContext.getContentResolver(), target);
-                    FileObserverNotifier.notifyCreated(target);
-                }
+                lease = RemountManager.getInstance().acquire(path);
+            }
+            if (!target.createNewFile()) {
+                return mContext.getText(R.string.could_not_create_file);
+            } else {
+                MediaStoreUtils.addEmptyFileOrDirectory(mContext.getContentResolver(), target);
+                FileObserverNotifier.notifyCreated(target);
+            }
         } catch (IOException e) {
             return e.getMessage();
         } finally {
-            if (remount) {
-                RootTools.remount(path, "RO");
+            if (lease != null) {
+                lease.release();
             }
         }
         return null;
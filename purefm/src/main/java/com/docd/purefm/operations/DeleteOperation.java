@@ -19,9 +19,12 @@ import android.util.Log;
 
 import com.docd.purefm.Environment;
 import com.docd.purefm.commandline.CommandLine;
-import com.docd.purefm.commandline.CommandRemove;
+import com.docd.purefm.commandline.CommandRemoveAll;
+import com.docd.purefm.commandline.ProbeCache;
+import com.docd.purefm.commandline.RemountManager;
 import com.docd.purefm.commandline.ShellHolder;
 import com.docd.purefm.file.CommandLineFile;
+import com.docd.purefm.file.FileListSnapshot;
 import com.docd.purefm.file.FileObserverNotifier;
 import com.docd.purefm.file.GenericFile;
 import com.docd.purefm.settings.Settings;
@@ -30,20 +33,22 @@ import com.stericson.RootTools.RootTools;
 
 import android.support.annotation.NonNull;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
- * Operation that performs files deletion
+ * Operation that performs files deletion. The files to delete are created from the snapshot
+ * one at a time
  *
  * @author Doctoror
  */
-final class DeleteOperation extends Operation<GenericFile, ArrayList<GenericFile>> {
+final class DeleteOperation extends Operation<FileListSnapshot, ArrayList<GenericFile>> {
 
     @NonNull
     private final Context mContext;
@@ -53,22 +58,29 @@ final class DeleteOperation extends Operation<GenericFile, ArrayList<GenericFile
     }
 
     @Override
-    protected ArrayList<GenericFile> doInBackground(@NonNull final GenericFile... files) {
+    protected ArrayList<GenericFile> doInBackground(@NonNull final FileListSnapshot... params) {
+        final FileListSnapshot files = params[0];
         final ArrayList<GenericFile> failed = new ArrayList<>();
         final List<GenericFile> filesAffected = new LinkedList<>();
+        if (files.isEmpty()) {
+            return failed;
+        }
 
         final Settings settings = Settings.getInstance(mContext);
-        if (files[0] instanceof CommandLineFile) {
+        if (files.get(0) instanceof CommandLineFile) {
             if (!ShellHolder.getInstance().hasShell()) {
                 Log.w("DeleteOperation", "No shell, aborting");
-                failed.addAll(Arrays.asList(files));
+                for (int i = 0; i < files.size(); i++) {
+                    failed.add(files.get(i));
+                }
                 return failed;
             }
 
             final HashSet<String> remountPaths = new HashSet<>();
             // find paths to remount as read-write
             if (settings.useCommandLine() && settings.isSuEnabled()) {
-                for (GenericFile file : files) {
+                for (int i = 0; i < files.size(); i++) {
+                    GenericFile file = files.get(i);
                     try {
                         file = file.getCanonicalFile();
                     } catch (IOException e) {
@@ -84,35 +96,48 @@ final class DeleteOperation extends Operation<GenericFile, ArrayList<GenericFile
                     }
                 }
             }
+            final List<RemountManager.Lease> leases = new ArrayList<>(remountPaths.size());
             for (final String remountPath : remountPaths) {
-                RootTools.remount(remountPath, "RW");
+                leases.add(RemountManager.getInstance().acquire(remountPath));
             }
 
             try {
-                for (final GenericFile file : files) {
+                // files are removed with as few rm invocations as the argument length allows
+                final Map<String, GenericFile> filesByPath = new LinkedHashMap<>();
+                for (int i = 0; i < files.size(); i++) {
+                    final GenericFile file = files.get(i);
+                    filesByPath.put(file.getAbsolutePath(), file);
+                }
+                for (final CommandRemoveAll command :
+                        CommandRemoveAll.create(filesByPath.keySet())) {
                     if (isCanceled()) {
                         break;
                     }
-                    final File fileFile = file.toFile();
-                    if (CommandLine.execute(new CommandRemove(fileFile))) {
-                        filesAffected.add(file);
-                    } else {
-                        failed.add(file);
+                    final Set<String> failedPaths = new HashSet<>(CommandLine.execute(command));
+                    for (final String path : command.getSources()) {
+                        ProbeCache.invalidatePath(path);
+                        final GenericFile file = filesByPath.get(path);
+                        if (failedPaths.contains(path)) {
+                            failed.add(file);
+                        } else {
+                            filesAffected.add(file);
+                        }
                     }
                 }
             } finally {
-                for (final String remountPath : remountPaths) {
-                    RootTools.remount(remountPath, "RO");
+                for (final RemountManager.Lease lease : leases) {
+                    lease.release();
                 }
                 postProcess(filesAffected);
             }
 
         } else {
             try {
-                for (final GenericFile file : files) {
+                for (int i = 0; i < files.size(); i++) {
                     if (isCanceled()) {
                         break;
                     }
+                    final GenericFile file = files.get(i);
                     if (file.delete()) {
                         filesAffected.add(file);
                     } else {
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.operations;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.util.SparseArray;
+
+import com.docd.purefm.file.CommandLineFile;
+import com.docd.purefm.file.FileListSnapshot;
+import com.docd.purefm.file.GenericFile;
+import com.docd.purefm.file.JavaFile;
+import com.docd.purefm.file.PosixFile;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Files passed to {@link OperationsService} in an Intent.
+ *
+ * Only what the operations need is parceled: the parents, shared by the files, the names and
+ * the types of the files. The attributes are read again by the receiving side. Sets which
+ * estimated parcel size exceeds {@link #MAX_PARCEL_SIZE} could exceed the Binder transaction
+ * limit, so they are kept in this process and only a token is parceled.
+ */
+public final class FileSet implements Parcelable {
+
+    /**
+     * Maximum estimated size of parceled files, in bytes. The Binder transaction buffer of 1 MiB
+     * is shared by all transactions in progress of the process
+     */
+    private static final int MAX_PARCEL_SIZE = 256 * 1024;
+
+    private static final byte KIND_JAVA = 0;
+    private static final byte KIND_POSIX = 1;
+    private static final byte KIND_COMMAND_LINE = 2;
+    private static final byte KIND_MASK = 3;
+
+    /**
+     * Type flags, known only for command line files without executing commands
+     */
+    private static final byte FLAG_DIRECTORY = 4;
+    private static final byte FLAG_SYMLINK = 8;
+
+    private static final SparseArray<FileListSnapshot> sHandoffs = new SparseArray<>();
+    private static int sNextToken;
+
+    private final int mToken;
+
+    /**
+     * Parents of parceled files, or null if handed off
+     */
+    @Nullable
+    private final String[] mParents;
+
+    /**
+     * Index of the parent of every file, or null if all files have the same parent
+     */
+    @Nullable
+    private final int[] mParentIndexes;
+
+    @Nullable
+    private final String[] mNames;
+
+    /**
+     * Kind and type flags of every file
+     */
+    @Nullable
+    private final byte[] mFlags;
+
+    public static final Creator<FileSet> CREATOR = new Creator<FileSet>() {
+        @Override
+        public FileSet createFromParcel(final Parcel source) {
+            return new FileSet(source);
+        }
+
+        @Override
+        public FileSet[] newArray(final int size) {
+            return new FileSet[size];
+        }
+    };
+
+    private FileSet(final int token,
+                    @Nullable final String[] parents,
+                    @Nullable final int[] parentIndexes,
+                    @Nullable final String[] names,
+                    @Nullable final byte[] flags) {
+        mToken = token;
+        mParents = parents;
+        mParentIndexes = parentIndexes;
+        mNames = names;
+        mFlags = flags;
+    }
+
+    private FileSet(@NonNull final Parcel source) {
+        mToken = source.readInt();
+        if (mToken == 0) {
+            mParents = source.createStringArray();
+            mParentIndexes = source.createIntArray();
+            mNames = source.createStringArray();
+            mFlags = source.createByteArray();
+        } else {
+            mParents = null;
+            mParentIndexes = null;
+            mNames = null;
+            mFlags = null;
+        }
+    }
+
+    @NonNull
+    static FileSet of(@NonNull final GenericFile[] files) {
+        final List<String> parents = new ArrayList<>();
+        final Map<String, Integer> parentIds = new HashMap<>();
+        final int[] parentIndexes = new int[files.length];
+        final String[] names = new String[files.length];
+        final byte[] flags = new byte[files.length];
+        int size = 0;
+        for (int i = 0; i < files.length; i++) {
+            final File file = files[i].toFile();
+            final String parent = file.getParent();
+            // a file without a parent is stored by the full path
+            final String key = parent == null ? "" : parent;
+            Integer parentIndex = parentIds.get(key);
+            if (parentIndex == null) {
+                parentIndex = parents.size();
+                parents.add(parent);
+                parentIds.put(key, parentIndex);
+                size += estimateSize(parent);
+            }
+            parentIndexes[i] = parentIndex;
+            names[i] = parent == null ? file.getPath() : file.getName();
+            flags[i] = getFlags(files[i]);
+            size += estimateSize(names[i]);
+        }
+        // the token, lengths of the arrays, the flags and the parent indexes
+        size += 4 * 5 + files.length;
+        if (parents.size() > 1) {
+            size += files.length * 4;
+        }
+
+        if (size <= MAX_PARCEL_SIZE) {
+            return new FileSet(0, parents.toArray(new String[parents.size()]),
+                    parents.size() > 1 ? parentIndexes : null, names, flags);
+        }
+        final FileListSnapshot snapshot = new FileListSnapshot();
+        for (final GenericFile file : files) {
+            snapshot.add(file);
+        }
+        synchronized (sHandoffs) {
+            if (++sNextToken == 0) {
+                sNextToken = 1;
+            }
+            sHandoffs.put(sNextToken, snapshot);
+            return new FileSet(sNextToken, null, null, null, null);
+        }
+    }
+
+    private static byte getFlags(@NonNull final GenericFile file) {
+        if (file instanceof CommandLineFile) {
+            // the type of command line files is known without executing commands
+            byte flags = KIND_COMMAND_LINE;
+            if (file.isDirectory()) {
+                flags |= FLAG_DIRECTORY;
+            }
+            if (file.isSymlink()) {
+                flags |= FLAG_SYMLINK;
+            }
+            return flags;
+        }
+        return file instanceof PosixFile ? KIND_POSIX : KIND_JAVA;
+    }
+
+    /**
+     * Returns the size the string takes in a Parcel: length, UTF-16 chars and terminator,
+     * padded to 4 bytes
+     *
+     * @param s String to estimate size of
+     * @return size in bytes
+     */
+    private static int estimateSize(@Nullable final String s) {
+        return s == null ? 4 : 4 + (((s.length() + 1) * 2 + 3) & ~3);
+    }
+
+    /**
+     * Returns the files. Handed off files can be taken only once. Attributes of parceled files
+     * are read here
+     *
+     * @return the files, or null if the files were handed off to a process that no longer exists
+     */
+    @Nullable
+    FileListSnapshot take() {
+        if (mNames != null) {
+            final FileListSnapshot files = new FileListSnapshot();
+            for (int i = 0; i < mNames.length; i++) {
+                //noinspection ConstantConditions
+                final String parent = mParents[mParentIndexes == null ? 0 : mParentIndexes[i]];
+                files.add(newFile(new File(parent, mNames[i]), mFlags[i]));
+            }
+            return files;
+        }
+        synchronized (sHandoffs) {
+            final FileListSnapshot files = sHandoffs.get(mToken);
+            sHandoffs.remove(mToken);
+            return files;
+        }
+    }
+
+    @NonNull
+    private static GenericFile newFile(@NonNull final File file, final byte flags) {
+        switch (flags & KIND_MASK) {
+            case KIND_COMMAND_LINE:
+                return CommandLineFile.fromType(file, (flags & FLAG_DIRECTORY) != 0,
+                        (flags & FLAG_SYMLINK) != 0);
+
+            case KIND_POSIX:
+                return new PosixFile(file);
+
+            default:
+                return new JavaFile(file);
+        }
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(@NonNull final Parcel dest, final int flags) {
+        dest.writeInt(mToken);
+        if (mToken == 0) {
+            dest.writeStringArray(mParents);
+            dest.writeIntArray(mParentIndexes);
+            dest.writeStringArray(mNames);
+            dest.writeByteArray(mFlags);
+        }
+    }
+}
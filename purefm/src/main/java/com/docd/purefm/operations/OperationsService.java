@@ -23,15 +23,16 @@ import android.os.Binder;
 import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
+import android.util.Log;
 
 import com.docd.purefm.ActivityMonitor;
 import com.docd.purefm.R;
 import com.docd.purefm.file.FileFactory;
+import com.docd.purefm.file.FileListSnapshot;
 import com.docd.purefm.file.GenericFile;
 import com.docd.purefm.services.MultiWorkerService;
 import com.docd.purefm.settings.Settings;
 import com.docd.purefm.ui.activities.BrowserPagerActivity;
-import com.docd.purefm.utils.ArrayUtils;
 import com.docd.purefm.utils.ClipBoard;
 
 import android.support.annotation.NonNull;
@@ -47,6 +48,8 @@ import java.io.File;
 public final class OperationsService extends MultiWorkerService
         implements ActivityMonitor.ActivityMonitorListener {
 
+    private static final String TAG = "OperationsService";
+
     public static final String ACTION_PASTE = "OperationsService.actions.PASTE";
     public static final String ACTION_DELETE = "OperationsService.actions.DELETE";
     public static final String ACTION_RENAME = "OperationsService.actions.RENAME";
@@ -90,7 +93,7 @@ public final class OperationsService extends MultiWorkerService
         final Intent intent = new Intent(context, OperationsService.class);
         intent.setAction(ACTION_PASTE);
         intent.putExtra(EXTRA_FILE, target);
-        intent.putExtra(EXTRA_FILES, files);
+        intent.putExtra(EXTRA_FILES, FileSet.of(files));
         intent.putExtra(EXTRA_IS_MOVE, isMove);
         context.startService(intent);
     }
@@ -103,7 +106,7 @@ public final class OperationsService extends MultiWorkerService
                               @NonNull final GenericFile[] files) {
         final Intent intent = new Intent(context, OperationsService.class);
         intent.setAction(ACTION_DELETE);
-        intent.putExtra(EXTRA_FILES, files);
+        intent.putExtra(EXTRA_FILES, FileSet.of(files));
         context.startService(intent);
     }
 
@@ -215,12 +218,10 @@ public final class OperationsService extends MultiWorkerService
             throw new RuntimeException("ACTION_PASTE intent should contain non-null EXTRA_FILE");
         }
 
-        final Object[] filesObject = (Object[]) pasteIntent.getSerializableExtra(EXTRA_FILES);
-        if (filesObject == null) {
-            throw new RuntimeException("ACTION_PASTE intent should contain non-null EXTRA_FILES");
+        final FileListSnapshot files = getFiles(pasteIntent);
+        if (files == null) {
+            return;
         }
-        final GenericFile[] files = new GenericFile[filesObject.length];
-        ArrayUtils.copyArrayAndCast(filesObject, files);
         final boolean isMove = pasteIntent.getBooleanExtra(EXTRA_IS_MOVE, false);
         mPasteOperation = new PasteOperation(this, target, isMove);
         synchronized (mOperationListenerLock) {
@@ -244,13 +245,10 @@ public final class OperationsService extends MultiWorkerService
 
     //only one deletion operation can be done simultaneously
     private synchronized void onActionDelete(@NonNull final Intent deleteIntent) {
-        final Object[] filesObject = (Object[]) deleteIntent.getSerializableExtra(EXTRA_FILES);
-        if (filesObject == null) {
-            throw new RuntimeException("ACTION_DELETE intent should contain non-null EXTRA_FILES");
+        final FileListSnapshot files = getFiles(deleteIntent);
+        if (files == null) {
+            return;
         }
-
-        final GenericFile[] files = new GenericFile[filesObject.length];
-        ArrayUtils.copyArrayAndCast(filesObject, files);
         mDeleteOperation = new DeleteOperation(this);
         synchronized (mOperationListenerLock) {
             if (mOperationListener != null) {
@@ -271,6 +269,26 @@ public final class OperationsService extends MultiWorkerService
         }
     }
 
+    /**
+     * Returns files of EXTRA_FILES
+     *
+     * @param intent Intent that contains EXTRA_FILES
+     * @return the files, or null if the files were handed off to a process that no longer exists
+     */
+    @Nullable
+    private static FileListSnapshot getFiles(@NonNull final Intent intent) {
+        final FileSet fileSet = intent.getParcelableExtra(EXTRA_FILES);
+        if (fileSet == null) {
+            throw new RuntimeException(intent.getAction() +
+                    " intent should contain non-null EXTRA_FILES");
+        }
+        final FileListSnapshot files = fileSet.take();
+        if (files == null) {
+            Log.w(TAG, "Files of " + intent.getAction() + " are lost");
+        }
+        return files;
+    }
+
     private void onActionRename(@NonNull final Intent renameIntent) {
         final GenericFile source = (GenericFile) renameIntent.getSerializableExtra(EXTRA_FILE);
         final String target = renameIntent.getStringExtra(EXTRA_FILE_NAME);
@@ -15,28 +15,41 @@
 package com.docd.purefm.operations;
 
 import android.content.Context;
+import android.util.Log;
 import android.util.Pair;
 
 import com.docd.purefm.Environment;
+import com.docd.purefm.commandline.BulkCommand;
+import com.docd.purefm.commandline.CommandCopyAll;
+import com.docd.purefm.commandline.CommandLine;
+import com.docd.purefm.commandline.CommandMoveAll;
+import com.docd.purefm.commandline.ProbeCache;
+import com.docd.purefm.commandline.RemountManager;
 import com.docd.purefm.file.FileFactory;
+import com.docd.purefm.file.FileListSnapshot;
 import com.docd.purefm.file.FileObserverNotifier;
 import com.docd.purefm.file.GenericFile;
 import com.docd.purefm.settings.Settings;
 import com.docd.purefm.utils.ClipBoard;
 import com.docd.purefm.utils.MediaStoreUtils;
 import com.docd.purefm.utils.PFMFileUtils;
-import com.stericson.RootTools.RootTools;
 
 import android.support.annotation.NonNull;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
- * Performs paste operation
+ * Performs paste operation. The files to paste are created from the snapshot one at a time
  */
-final class PasteOperation extends Operation<GenericFile, ArrayList<GenericFile>> {
+final class PasteOperation extends Operation<FileListSnapshot, ArrayList<GenericFile>> {
 
     @NonNull
     private final Context mContext;
@@ -59,7 +72,8 @@ final class PasteOperation extends Operation<GenericFile, ArrayList<GenericFile>
     }
 
     @Override
-    protected ArrayList<GenericFile> doInBackground(@NonNull final GenericFile... files) {
+    protected ArrayList<GenericFile> doInBackground(@NonNull final FileListSnapshot... params) {
+        final FileListSnapshot files = params[0];
         ClipBoard.lock();
 
         final LinkedList<Pair<GenericFile, GenericFile>> filesAffected =
@@ -68,43 +82,47 @@ final class PasteOperation extends Operation<GenericFile, ArrayList<GenericFile>
         final ArrayList<GenericFile> failed = new ArrayList<>();
 
         final String targetPath = mTarget.getAbsolutePath();
-        final boolean remounted;
+        final RemountManager.Lease lease;
 
         final boolean useCommandLine = mSettings.useCommandLine();
         if (useCommandLine && mSettings.isSuEnabled() && Environment.needsRemount(targetPath)) {
-            RootTools.remount(targetPath, "RW");
-            remounted = true;
+            lease = RemountManager.getInstance().acquire(targetPath);
         } else {
-            remounted = false;
+            lease = null;
         }
         try {
-            for (final GenericFile current : files) {
-                if (isCanceled()) {
-                    return failed;
-                }
+            if (useCommandLine) {
+                pasteWithCommandLine(files, failed, filesAffected);
+            } else {
+                for (int i = 0; i < files.size(); i++) {
+                    if (isCanceled()) {
+                        return failed;
+                    }
 
-                if (current != null && current.exists()) {
-                    try {
-                        if (mIsMove) {
-                            PFMFileUtils.moveToDirectory(current, mTarget, useCommandLine, true);
-                        } else {
-                            if (current.isDirectory()) {
-                                PFMFileUtils.copyDirectoryToDirectory(current, mTarget, useCommandLine);
+                    final GenericFile current = files.get(i);
+                    if (current.exists()) {
+                        try {
+                            if (mIsMove) {
+                                PFMFileUtils.moveToDirectory(current, mTarget, false, true);
                             } else {
-                                PFMFileUtils.copyFileToDirectory(current, mTarget, useCommandLine);
+                                if (current.isDirectory()) {
+                                    PFMFileUtils.copyDirectoryToDirectory(current, mTarget, false);
+                                } else {
+                                    PFMFileUtils.copyFileToDirectory(current, mTarget, false);
+                                }
                             }
+                            filesAffected.add(new Pair<>(current, FileFactory.newFile(
+                                    mSettings, mTarget.toFile(), current.getName())));
+                        } catch (IOException e) {
+                            failed.add(current);
+                            e.printStackTrace();
                         }
-                        filesAffected.add(new Pair<>(current, FileFactory.newFile(
-                                mSettings, mTarget.toFile(), current.getName())));
-                    } catch (IOException e) {
-                        failed.add(current);
-                        e.printStackTrace();
                     }
                 }
             }
         } finally {
-            if (remounted) {
-                RootTools.remount(targetPath, "RO");
+            if (lease != null) {
+                lease.release();
             }
 
             if (!filesAffected.isEmpty()) {
@@ -127,4 +145,82 @@ final class PasteOperation extends Operation<GenericFile, ArrayList<GenericFile>
 
         return failed;
     }
+
+    /**
+     * Moves or copies the files with as few mv or cp invocations as the argument length allows
+     *
+     * @param files Files to paste
+     * @param failed Receives files that failed to paste
+     * @param filesAffected Receives pasted files paired with the resulting files
+     */
+    private void pasteWithCommandLine(@NonNull final FileListSnapshot files,
+                                      @NonNull final List<GenericFile> failed,
+                                      @NonNull final List<Pair<GenericFile, GenericFile>> filesAffected) {
+        final Map<String, GenericFile> sources = new LinkedHashMap<>();
+        for (int i = 0; i < files.size(); i++) {
+            final GenericFile current = files.get(i);
+            if (current.exists()) {
+                sources.put(current.getAbsolutePath(), current);
+            }
+        }
+        if (!ensureTargetDirectory()) {
+            failed.addAll(sources.values());
+            return;
+        }
+        if (!mIsMove) {
+            final Iterator<GenericFile> iterator = sources.values().iterator();
+            while (iterator.hasNext()) {
+                final GenericFile current = iterator.next();
+                if (current.isDirectory() && isSameFile(current, mTarget)) {
+                    Log.w("PasteOperation", "Can't copy " + current + " into itself");
+                    failed.add(current);
+                    iterator.remove();
+                }
+            }
+        }
+
+        final String targetPath = mTarget.getAbsolutePath();
+        final List<? extends BulkCommand> commands;
+        if (mIsMove) {
+            commands = CommandMoveAll.create(sources.keySet(), targetPath);
+        } else {
+            commands = CommandCopyAll.create(sources.keySet(), targetPath);
+        }
+        for (final BulkCommand command : commands) {
+            if (isCanceled()) {
+                return;
+            }
+            final Set<String> failedPaths = new HashSet<>(CommandLine.execute(command));
+            for (final String path : command.getSources()) {
+                if (mIsMove) {
+                    ProbeCache.invalidatePath(path);
+                }
+                final GenericFile current = sources.get(path);
+                if (failedPaths.contains(path)) {
+                    failed.add(current);
+                } else {
+                    filesAffected.add(new Pair<>(current, FileFactory.newFile(
+                            mSettings, mTarget.toFile(), current.getName())));
+                }
+            }
+        }
+    }
+
+    private boolean ensureTargetDirectory() {
+        if (mTarget.exists()) {
+            return mTarget.isDirectory();
+        }
+        // the target directory is created only when moving, like non-command-line move does
+        return mIsMove && mTarget.mkdirs();
+    }
+
+    private static boolean isSameFile(@NonNull final GenericFile file1,
+                                      @NonNull final GenericFile file2) {
+        try {
+            return file1.getCanonicalPath().equals(file2.getCanonicalPath());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
 }
@@ -18,12 +18,12 @@ import android.content.Context;
 
 import com.docd.purefm.Environment;
 import com.docd.purefm.R;
+import com.docd.purefm.commandline.RemountManager;
 import com.docd.purefm.file.FileFactory;
 import com.docd.purefm.file.FileObserverNotifier;
 import com.docd.purefm.file.GenericFile;
 import com.docd.purefm.settings.Settings;
 import com.docd.purefm.utils.MediaStoreUtils;
-import com.stericson.RootTools.RootTools;
 
 import android.support.annotation.NonNull;
 
@@ -65,10 +65,12 @@ final class RenameOperation extends Operation<Void, CharSequence> {
             return mContext.getText(R.string.file_exists);
         }
         final String path = target.getAbsolutePath();
-        final boolean remount = settings.useCommandLine() && settings.isSuEnabled() &&
-                Environment.needsRemount(path);
-        if (remount) {
-            RootTools.remount(path, "RW");
+        final RemountManager.Lease lease;
+        if (settings.useCommandLine() && settings.isSuEnabled() &&
+                Environment.needsRemount(path)) {
+            lease = RemountManager.getInstance().acquire(path);
+        } else {
+            lease = null;
         }
         try {
             if (mSource.renameTo(target)) {
@@ -78,8 +80,8 @@ final class RenameOperation extends Operation<Void, CharSequence> {
                 return null;
             }
         } finally {
-            if (remount) {
-                RootTools.remount(path, "RO");
+            if (lease != null) {
+                lease.release();
             }
         }
         return mContext.getString(R.string.rename_failed,
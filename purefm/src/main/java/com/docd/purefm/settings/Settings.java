@@ -75,12 +75,15 @@ public final class Settings {
     private Theme mTheme;
     private ListAppearance mListAppearance;
     private boolean mListShowFileSize;
+    private boolean mListShowDirectorySizes;
     private boolean mListShowHiddenFiles;
     private boolean mListShowPermissions;
     private boolean mListShowPreviews;
     private boolean mListShowModifiedDate;
     private boolean mUseCommandLine;
     private boolean mSuEnabled;
+    private int mShellCount;
+    private int mRootShellCount;
     private String mHomeDirectory;
     private Set<String> mBookmarks;
     
@@ -100,6 +103,9 @@ public final class Settings {
         mListShowFileSize = mSharedPreferences.getBoolean(
                 res.getString(R.string.key_preference_list_show_size), true);
 
+        mListShowDirectorySizes = mSharedPreferences.getBoolean(
+                res.getString(R.string.key_preference_list_show_directory_sizes), false);
+
         mListShowPermissions = mSharedPreferences.getBoolean(
                 res.getString(R.string.key_preference_list_show_permissions), true);
 
@@ -115,6 +121,14 @@ public final class Settings {
         mSuEnabled = mSharedPreferences.getBoolean(
                 res.getString(R.string.key_preference_work_as_superuser), false);
 
+        mShellCount = Integer.parseInt(mSharedPreferences.getString(
+                res.getString(R.string.key_preference_shell_count),
+                res.getString(R.string.default_shell_count)));
+
+        mRootShellCount = Integer.parseInt(mSharedPreferences.getString(
+                res.getString(R.string.key_preference_root_shell_count),
+                res.getString(R.string.default_root_shell_count)));
+
         mHomeDirectory = mSharedPreferences.getString(
                 res.getString(R.string.key_preference_home_directory),
                         android.os.Environment.getExternalStorageDirectory().getAbsolutePath());
@@ -162,6 +176,25 @@ public final class Settings {
         return mListShowFileSize;
     }
 
+    public void setListShowDirectorySizes(final boolean show, final boolean update) {
+        mListShowDirectorySizes = show;
+        if (update) {
+            mSharedPreferences.edit().putBoolean(
+                    mResources.getString(R.string.key_preference_list_show_directory_sizes),
+                            show).apply();
+        }
+    }
+
+    /**
+     * Returns whether total sizes of directories should be computed when listing,
+     * so that they are shown and used for sorting by size
+     *
+     * @return whether directory sizes are enabled
+     */
+    public boolean listShowDirectorySizesEnabled() {
+        return mListShowDirectorySizes;
+    }
+
     public void setListShowHiddenFiles(final boolean show, final boolean update) {
         mListShowHiddenFiles = show;
         if (update) {
@@ -238,6 +271,42 @@ public final class Settings {
         return mSuEnabled;
     }
 
+    public void setShellCount(final int count, final boolean update) {
+        mShellCount = count;
+        if (update) {
+            mSharedPreferences.edit().putString(
+                    mResources.getString(R.string.key_preference_shell_count),
+                    Integer.toString(count)).apply();
+        }
+    }
+
+    /**
+     * Returns number of non-root shells to execute commands in concurrently
+     *
+     * @return number of non-root shells
+     */
+    public int getShellCount() {
+        return mShellCount;
+    }
+
+    public void setRootShellCount(final int count, final boolean update) {
+        mRootShellCount = count;
+        if (update) {
+            mSharedPreferences.edit().putString(
+                    mResources.getString(R.string.key_preference_root_shell_count),
+                    Integer.toString(count)).apply();
+        }
+    }
+
+    /**
+     * Returns number of root shells to execute commands in concurrently
+     *
+     * @return number of root shells
+     */
+    public int getRootShellCount() {
+        return mRootShellCount;
+    }
+
     public void setHomeDirectory(final String path, final boolean update) {
         mHomeDirectory = path;
         if (update) {
@@ -19,6 +19,7 @@ import java.util.Set;
 import com.docd.purefm.Environment;
 import com.docd.purefm.R;
 import com.docd.purefm.commandline.ShellHolder;
+import com.docd.purefm.file.DirectorySizeCache;
 import com.docd.purefm.utils.BookmarksHelper;
 
 import android.app.Activity;
@@ -131,6 +132,27 @@ public final class SettingsFragment extends PreferenceFragment {
             }
         });
 
+        final Preference prefListShowDirectorySizes = findPreference(res.getString(
+                R.string.key_preference_list_show_directory_sizes));
+        if (prefListShowDirectorySizes == null) {
+            throw new RuntimeException("Show directory sizes preference not found");
+        }
+        prefListShowDirectorySizes.setOnPreferenceChangeListener(
+                new Preference.OnPreferenceChangeListener() {
+            @Override
+            public boolean onPreferenceChange(final Preference preference,
+                                              final Object newValue) {
+                final boolean show = (Boolean) newValue;
+                mSettings.setListShowDirectorySizes(show, false);
+                if (!show) {
+                    // cached sizes would still be used for sorting
+                    DirectorySizeCache.getInstance().clear();
+                }
+                getSettingsActivity().notifyNeedInvalidate();
+                return true;
+            }
+        });
+
         final Preference prefListShowModifiedDate = findPreference(res.getString(
                 R.string.key_preference_list_show_modified_date));
         if (prefListShowModifiedDate == null) {
@@ -192,7 +214,7 @@ public final class SettingsFragment extends PreferenceFragment {
                     }
                     mShellHolder.releaseShell(true);
                 } else {
-                    mShellHolder.hasShell(); //invokes getShell() to refresh
+                    mShellHolder.prewarm();
                 }
                 parent.notifyNeedInvalidate();
                 return true;
@@ -218,14 +240,53 @@ public final class SettingsFragment extends PreferenceFragment {
                     }
                 }
                 prefUseCommandline.setEnabled(!suEnabled);
-                mShellHolder.hasShell(); //invokes getShell() to refresh
+                mShellHolder.prewarm();
                 parent.notifyNeedInvalidate();
                 return true;
             }
         });
         
+        final Preference prefShellCount = findPreference(res.getString(
+                R.string.key_preference_shell_count));
+        if (prefShellCount == null) {
+            throw new RuntimeException("Shell count preference not found");
+        }
+        prefShellCount.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+            @Override
+            public boolean onPreferenceChange(final Preference preference,
+                                              final Object newValue) {
+                mSettings.setShellCount(Integer.parseInt((String) newValue), false);
+                if (!mShellHolder.isCurrentShellRoot()) {
+                    // the new pool size is applied when the shell is opened again
+                    mShellHolder.releaseShell(false);
+                }
+                return true;
+            }
+        });
+
+        final Preference prefRootShellCount = findPreference(res.getString(
+                R.string.key_preference_root_shell_count));
+        if (prefRootShellCount == null) {
+            throw new RuntimeException("Root shell count preference not found");
+        }
+        prefRootShellCount.setOnPreferenceChangeListener(
+                new Preference.OnPreferenceChangeListener() {
+            @Override
+            public boolean onPreferenceChange(final Preference preference,
+                                              final Object newValue) {
+                mSettings.setRootShellCount(Integer.parseInt((String) newValue), false);
+                if (mShellHolder.isCurrentShellRoot()) {
+                    // the new pool size is applied when the shell is opened again
+                    mShellHolder.releaseShell(false);
+                }
+                return true;
+            }
+        });
+
         prefUseCommandline.setEnabled(Environment.hasBusybox());
         prefSuperuser.setEnabled(Environment.sHasRoot && Environment.hasBusybox());
+        prefShellCount.setEnabled(Environment.hasBusybox());
+        prefRootShellCount.setEnabled(Environment.sHasRoot && Environment.hasBusybox());
 
         final Context appContext = getSettingsActivity().getApplicationContext();
         if (appContext == null) {
@@ -15,11 +15,13 @@
 package com.docd.purefm.tasks;
 
 import android.os.AsyncTask;
+import android.os.SystemClock;
 import android.support.v4.widget.SwipeRefreshLayout;
 
 import com.docd.purefm.adapters.BrowserBaseAdapter;
 import com.docd.purefm.browser.Browser;
 import com.docd.purefm.file.GenericFile;
+import com.docd.purefm.file.GenericFileCursor;
 import com.docd.purefm.file.GenericFileFilter;
 import com.docd.purefm.settings.Settings;
 import com.docd.purefm.utils.MimeTypes;
@@ -27,8 +29,27 @@ import com.docd.purefm.utils.MimeTypes;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lists a directory into {@link BrowserBaseAdapter}.
+ *
+ * The directory is read in chunks. The first screenful of files replaces the previous content
+ * as soon as it's read, and the rest is appended at most every {@link #PUBLISH_INTERVAL} ms.
+ * Listing stops between chunks when the task is cancelled.
+ */
 public final class DirectoryScanTask extends
-        AsyncTask<GenericFile, Void, GenericFile[]> {
+        AsyncTask<GenericFile, List<GenericFile>, List<GenericFile>> {
+
+    /**
+     * Number of files shown before the rest of the directory is read
+     */
+    private static final int FIRST_CHUNK_SIZE = 64;
+
+    private static final int CHUNK_SIZE = 256;
+
+    private static final long PUBLISH_INTERVAL = 250L;
 
     @NonNull
     private final BrowserBaseAdapter mBrowserAdapter;
@@ -43,6 +64,11 @@ public final class DirectoryScanTask extends
     
     private GenericFile mFile;
 
+    /**
+     * Whether the adapter data was replaced with the first chunk. Accessed only by the UI thread
+     */
+    private boolean mPublished;
+
     public DirectoryScanTask(@NonNull final Browser browser,
                              @Nullable final String mimeType,
                              @NonNull final BrowserBaseAdapter adapter,
@@ -62,16 +88,72 @@ public final class DirectoryScanTask extends
         }
     }
 
+    /**
+     * Lists the directory and publishes the files as they are read
+     *
+     * @return files that were not yet published, or null if listing failed
+     */
     @Override
-    protected GenericFile[] doInBackground(GenericFile... arg0) {
+    // publishProgress creates a generic array for the single List, which is never stored
+    @SuppressWarnings("unchecked")
+    protected List<GenericFile> doInBackground(GenericFile... arg0) {
         this.mFile = arg0[0];
-        return arg0[0].listFiles(mFileFilter);
+        final GenericFileCursor cursor = arg0[0].listFilesCursor(mFileFilter);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            List<GenericFile> pending = new ArrayList<>();
+            long lastPublished = 0L;
+            int chunkSize = FIRST_CHUNK_SIZE;
+            List<GenericFile> chunk;
+            while (!isCancelled() && (chunk = cursor.nextChunk(chunkSize)) != null) {
+                pending.addAll(chunk);
+                final long now = SystemClock.uptimeMillis();
+                if (chunkSize == FIRST_CHUNK_SIZE || now - lastPublished >= PUBLISH_INTERVAL) {
+                    publishProgress(pending);
+                    pending = new ArrayList<>();
+                    lastPublished = now;
+                }
+                chunkSize = CHUNK_SIZE;
+            }
+            return cursor.isSuccessful() ? pending : null;
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
-    protected void onPostExecute(GenericFile[] result) {
+    // the values are only read, and are always a single List of files
+    @SuppressWarnings("unchecked")
+    protected void onProgressUpdate(List<GenericFile>... values) {
+        if (isCancelled()) {
+            // the adapter may already show another directory
+            return;
+        }
+        publish(values[0]);
+    }
+
+    private void publish(@NonNull final List<GenericFile> files) {
+        if (mPublished) {
+            mBrowserAdapter.appendData(files);
+        } else {
+            mBrowserAdapter.updateData(files.toArray(new GenericFile[files.size()]));
+            mPublished = true;
+        }
+    }
+
+    @Override
+    protected void onPostExecute(List<GenericFile> result) {
         super.onPostExecute(result);
-        mBrowserAdapter.updateData(result);
+        if (result == null) {
+            mBrowserAdapter.updateData(null);
+        } else if (!mPublished || !result.isEmpty()) {
+            publish(result);
+        }
+        if (mFile != null) {
+            mBrowserAdapter.loadDirectorySizes(mFile);
+        }
         mBrowser.onScanFinished(this.mFile);
         for (final SwipeRefreshLayout layout : mSwipeRefreshLayouts) {
             layout.setRefreshing(false);
@@ -79,7 +161,7 @@ public final class DirectoryScanTask extends
     }
 
     @Override
-    protected void onCancelled(GenericFile[] result) {
+    protected void onCancelled(List<GenericFile> result) {
         super.onCancelled(result);
         mBrowser.onScanCancelled(false);
         for (final SwipeRefreshLayout layout : mSwipeRefreshLayouts) {
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.tasks;
+
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.docd.purefm.commandline.CommandDuContents;
+import com.docd.purefm.commandline.CommandLine;
+import com.docd.purefm.commandline.CommandOutput;
+import com.docd.purefm.file.CommandLineFile;
+import com.docd.purefm.file.DirectorySizeCache;
+import com.docd.purefm.file.GenericFile;
+import com.docd.purefm.settings.Settings;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Computes total sizes of the directories in a directory and puts them to
+ * {@link DirectorySizeCache}. The directories with valid cached sizes are skipped.
+ *
+ * For {@link CommandLineFile} all sizes are computed by a single {@link CommandDuContents},
+ * otherwise the directories are walked concurrently. The computed sizes are put to the cache
+ * on UI thread and the listener is notified, at most once per {@link #PUBLISH_INTERVAL}.
+ */
+public final class DirectorySizesTask
+        extends AsyncTask<GenericFile, DirectorySizesTask.ComputedSize, Void> {
+
+    public interface DirectorySizesListener {
+        /**
+         * Called on UI thread when new sizes are put to {@link DirectorySizeCache}
+         */
+        void onDirectorySizesUpdated();
+    }
+
+    private static final String TAG = "DirectorySizesTask";
+
+    /**
+     * Minimum time in milliseconds between notifications of the listener
+     */
+    private static final long PUBLISH_INTERVAL = 250L;
+
+    private static final int WALKER_COUNT =
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    @NonNull
+    private final DirectorySizeCache mCache = DirectorySizeCache.getInstance();
+
+    @NonNull
+    private final Settings mSettings;
+
+    @NonNull
+    private final GenericFile[] mDirectories;
+
+    @NonNull
+    private final DirectorySizesListener mListener;
+
+    /**
+     * Sizes that are not yet published. Accessed only by the background thread
+     */
+    @NonNull
+    private final List<ComputedSize> mComputed = new ArrayList<>();
+
+    private long mPublishedAt;
+
+    /**
+     * @param settings Settings to use
+     * @param directories Directories to compute sizes of, children of the directory this task
+     *                    is executed for
+     * @param listener Listener to notify
+     */
+    public DirectorySizesTask(@NonNull final Settings settings,
+                              @NonNull final GenericFile[] directories,
+                              @NonNull final DirectorySizesListener listener) {
+        mSettings = settings;
+        mDirectories = directories;
+        mListener = listener;
+    }
+
+    @Override
+    protected Void doInBackground(final GenericFile... params) {
+        final GenericFile parent = params[0];
+        final Map<String, GenericFile> pending = new HashMap<>();
+        for (final GenericFile directory : mDirectories) {
+            if (mCache.get(directory) == -1L) {
+                pending.put(directory.getName(), directory);
+            }
+        }
+        if (pending.isEmpty() || isCancelled()) {
+            return null;
+        }
+        if (!(parent instanceof CommandLineFile) || !CommandDuContents.isAvailable() ||
+                !computeWithCommandLine(parent, pending)) {
+            computeWithJava(pending);
+        }
+        publish(true);
+        return null;
+    }
+
+    @Override
+    protected void onProgressUpdate(final ComputedSize... values) {
+        for (final ComputedSize value : values) {
+            mCache.put(value.path, value.lastModified, value.size);
+        }
+        mListener.onDirectorySizesUpdated();
+    }
+
+    /**
+     * Computes sizes with a single du
+     *
+     * @param parent Directory to execute du in
+     * @param pending Directories to compute sizes of, keyed by name
+     * @return false if there was no shell to execute du in
+     */
+    private boolean computeWithCommandLine(@NonNull final GenericFile parent,
+                                           @NonNull final Map<String, GenericFile> pending) {
+        // modification times are taken before computing, so that changes made while computing
+        // invalidate the sizes
+        final Map<String, Long> lastModified = new HashMap<>();
+        for (final GenericFile directory : pending.values()) {
+            lastModified.put(directory.getName(), directory.lastModified());
+        }
+        final CommandDuContents command = new CommandDuContents(parent, mSettings);
+        final CommandOutput output = CommandLine.executeForOutput(command);
+        if (output == null) {
+            return false;
+        }
+        try {
+            while (!isCancelled() && output.hasNext()) {
+                final String line = output.next();
+                final String name = CommandDuContents.getName(line);
+                final long size = CommandDuContents.getSize(line);
+                final GenericFile directory = name == null ? null : pending.remove(name);
+                if (directory != null && size != -1L) {
+                    mComputed.add(new ComputedSize(directory, lastModified.get(name), size));
+                    publish(false);
+                }
+            }
+        } finally {
+            if (isCancelled()) {
+                command.cancel();
+            }
+            output.close();
+        }
+        return true;
+    }
+
+    /**
+     * Walks the directories concurrently
+     *
+     * @param pending Directories to compute sizes of
+     */
+    private void computeWithJava(@NonNull final Map<String, GenericFile> pending) {
+        final ExecutorService executor = Executors.newFixedThreadPool(WALKER_COUNT);
+        final CompletionService<ComputedSize> completionService =
+                new ExecutorCompletionService<>(executor);
+        final Map<Future<ComputedSize>, GenericFile> futures = new HashMap<>();
+        try {
+            for (final GenericFile directory : pending.values()) {
+                final File file = directory.toFile();
+                futures.put(completionService.submit(new Callable<ComputedSize>() {
+                    @Override
+                    public ComputedSize call() {
+                        final long lastModified = directory.lastModified();
+                        final long size = sizeOf(file);
+                        return size == -1L ? null :
+                                new ComputedSize(directory, lastModified, size);
+                    }
+                }), directory);
+            }
+            for (int i = futures.size(); i > 0 && !isCancelled(); i--) {
+                final Future<ComputedSize> future = completionService.take();
+                final ComputedSize size;
+                try {
+                    size = future.get();
+                } catch (ExecutionException e) {
+                    Log.w(TAG, "Failed to compute size of " + futures.get(future) + ": " +
+                            e.getCause());
+                    continue;
+                }
+                if (size != null) {
+                    mComputed.add(size);
+                    publish(false);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Publishes the computed sizes
+     *
+     * @param force whether to publish even if {@link #PUBLISH_INTERVAL} has not passed
+     */
+    private void publish(final boolean force) {
+        final long now = SystemClock.uptimeMillis();
+        if (!mComputed.isEmpty() && !isCancelled() &&
+                (force || now - mPublishedAt >= PUBLISH_INTERVAL)) {
+            publishProgress(mComputed.toArray(new ComputedSize[mComputed.size()]));
+            mComputed.clear();
+            mPublishedAt = now;
+        }
+    }
+
+    /**
+     * Returns total length of the files in the directory. Symlinks to directories are not
+     * followed. Unlike {@link FileUtils#sizeOfDirectory(File)}, doesn't recurse, so deep trees
+     * can't overflow the stack
+     *
+     * @param directory Directory to compute size of
+     * @return size in bytes, or -1 if interrupted
+     */
+    private static long sizeOf(@NonNull final File directory) {
+        final ArrayDeque<File> directories = new ArrayDeque<>();
+        directories.add(directory);
+        long size = 0L;
+        File current;
+        while ((current = directories.poll()) != null) {
+            if (Thread.currentThread().isInterrupted()) {
+                return -1L;
+            }
+            final File[] children = current.listFiles();
+            if (children == null) {
+                continue;
+            }
+            for (final File child : children) {
+                if (!child.isDirectory()) {
+                    size += child.length();
+                } else if (!isSymlink(child)) {
+                    directories.add(child);
+                }
+            }
+        }
+        return size;
+    }
+
+    private static boolean isSymlink(@NonNull final File file) {
+        try {
+            return FileUtils.isSymlink(file);
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    static final class ComputedSize {
+
+        final String path;
+        final long lastModified;
+        final long size;
+
+        ComputedSize(@NonNull final GenericFile directory,
+                     final long lastModified,
+                     final long size) {
+            this.path = directory.getAbsolutePath();
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+    }
+}
@@ -27,6 +27,7 @@ import com.docd.purefm.operations.OperationsService;
 import com.docd.purefm.settings.Settings;
 import com.docd.purefm.ui.dialogs.FileExistsDialog;
 import com.docd.purefm.file.GenericFile;
+import com.docd.purefm.file.JavaFile;
 import com.docd.purefm.utils.ClipBoard;
 import com.docd.purefm.utils.PFMFileUtils;
 import com.docd.purefm.utils.StatFsCompat;
@@ -217,6 +218,10 @@ public final class PasteTaskExecutor implements FileExistsDialog.FileExistsDialo
             }
 
             for (final GenericFile file : contents) {
+                if (file instanceof JavaFile) {
+                    // taken from a listing, which may keep attributes since it was shown
+                    ((JavaFile) file).refresh();
+                }
                 if (file != null && file.exists()) {
                     final GenericFile testTarget = FileFactory.newFile(mSettings,
                             mTargetFile.toFile(), file.getName());
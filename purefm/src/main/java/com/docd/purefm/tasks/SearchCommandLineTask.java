@@ -14,20 +14,25 @@
  */
 package com.docd.purefm.tasks;
 
+import android.os.SystemClock;
 import android.util.Log;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
 import java.io.EOFException;
-import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import com.docd.purefm.commandline.CommandFind;
+import com.docd.purefm.commandline.ShellInputWriter;
+import com.docd.purefm.commandline.ShellOutputReader;
 import com.docd.purefm.file.CommandLineFile;
 import com.docd.purefm.file.GenericFile;
+import com.docd.purefm.file.LsLineParser;
 import com.docd.purefm.settings.Settings;
 
 import org.apache.commons.io.IOUtils;
@@ -37,11 +42,21 @@ final class SearchCommandLineTask extends AbstractSearchTask {
 
     private static final Pattern DENIED = Pattern.compile("^find:\\s(.+):\\sPermission denied$");
 
+    /**
+     * Maximum number of found files published at once
+     */
+    private static final int PUBLISH_BATCH_SIZE = 64;
+
+    /**
+     * Maximum time in milliseconds the found files wait to be published
+     */
+    private static final long PUBLISH_INTERVAL = 250L;
+
     @NonNull
     private final Settings mSettings;
 
     @NonNull
-    private final List<String> mDenied = new ArrayList<>();
+    private final List<String> mDenied = Collections.synchronizedList(new ArrayList<String>());
 
     public SearchCommandLineTask(@NonNull final Settings settings,
                                  @NonNull final GenericFile startDirectory,
@@ -59,48 +74,60 @@ final class SearchCommandLineTask extends AbstractSearchTask {
     @Override
     protected Void doInBackground(String... params) {
         final CommandFind command = new CommandFind(mStartDirectory.getAbsolutePath(), params);
-        // NOTE this doesn't use Shell because we can't create a new CommandLineFile from
-        // CommandOutput because executing readlink (which is done in CommandLineFile constructor)
-        // will freeze the whole Shell
-        DataOutputStream os = null;
-        BufferedReader is = null;
-        BufferedReader err = null;
+        // NOTE this doesn't use Shell because a search may take minutes
+        // and would occupy a background shell all that time
+        Writer os = null;
+        ShellOutputReader is = null;
         Process process = null;
+        Thread errorReader = null;
         try {
             process = Runtime.getRuntime().exec(mSettings.isSuEnabled() ? "su" : "sh");
-            os = new DataOutputStream(process.getOutputStream());
-            is = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            err = new BufferedReader(new InputStreamReader(process.getErrorStream()));
-            os.writeBytes(command.toString());
-            os.writeBytes("exit\n");
+            os = new ShellInputWriter(process.getOutputStream());
+            is = new ShellOutputReader(process.getInputStream());
+            // stderr is drained concurrently, otherwise find blocks when stderr pipe is full
+            errorReader = new ErrorReader(process.getErrorStream());
+            errorReader.start();
+            os.write(command.toString());
+            os.write("exit\n");
             os.flush();
 
+            final boolean stat = command.isStatOutput();
+            final LsLineParser parser = stat ? null : new LsLineParser();
+            final List<GenericFile> found = new ArrayList<>(PUBLISH_BATCH_SIZE);
+            long publishedAt = SystemClock.uptimeMillis();
             String line;
             try {
                 while (!isCancelled() && (line = is.readLine()) != null) {
-                    this.publishProgress(CommandLineFile.fromLSL(null, line));
+                    try {
+                        found.add(stat ? CommandLineFile.fromStat(line) :
+                                CommandLineFile.fromLSL(null, line, parser));
+                    } catch (IllegalArgumentException e) {
+                        // not a file line
+                        continue;
+                    }
+                    final long now = SystemClock.uptimeMillis();
+                    if (found.size() >= PUBLISH_BATCH_SIZE ||
+                            now - publishedAt >= PUBLISH_INTERVAL) {
+                        publish(found);
+                        publishedAt = now;
+                    }
                 }
             } catch (EOFException e) {
                 //ignore
             }
+            publish(found);
 
-            try {
-                while (!isCancelled() && (line = err.readLine()) != null) {
-                    final Matcher denied = DENIED.matcher(line);
-                    if (denied.matches()) {
-                        this.mDenied.add(denied.group(1));
-                    }
-                }
-            } catch (EOFException e) {
-                //ignore
+            if (!isCancelled()) {
+                process.waitFor();
+                errorReader.join();
             }
-            process.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (Exception e) {
             Log.w("Exception while searching", e.toString());
         } finally {
             IOUtils.closeQuietly(os);
             IOUtils.closeQuietly(is);
-            IOUtils.closeQuietly(err);
             if (process != null) {
                 try {
                     process.destroy();
@@ -112,4 +139,43 @@ final class SearchCommandLineTask extends AbstractSearchTask {
         return null;
     }
 
+    private void publish(@NonNull final List<GenericFile> found) {
+        if (!found.isEmpty() && !isCancelled()) {
+            publishProgress(found.toArray(new GenericFile[found.size()]));
+        }
+        found.clear();
+    }
+
+    /**
+     * Reads denied locations from stderr of find
+     */
+    private final class ErrorReader extends Thread {
+
+        @NonNull
+        private final InputStream mErrorStream;
+
+        ErrorReader(@NonNull final InputStream errorStream) {
+            super("SearchCommandLineTask-stderr");
+            mErrorStream = errorStream;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            final ShellOutputReader err = new ShellOutputReader(mErrorStream);
+            try {
+                String line;
+                while ((line = err.readLine()) != null) {
+                    final Matcher denied = DENIED.matcher(line);
+                    if (denied.matches()) {
+                        mDenied.add(denied.group(1));
+                    }
+                }
+            } catch (IOException e) {
+                // the process was destroyed
+            } finally {
+                IOUtils.closeQuietly(err);
+            }
+        }
+    }
 }
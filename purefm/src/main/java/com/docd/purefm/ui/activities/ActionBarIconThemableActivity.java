@@ -55,7 +55,7 @@ public abstract class ActionBarIconThemableActivity extends ThemableActivity imp
 
         mShellHolder = ShellHolder.getInstance();
 
-        invalidateActionBarIcon(mShellHolder.hasShell(), mShellHolder.isCurrentShellRoot());
+        invalidateActionBarIcon(mShellHolder.isShellOpened(), mShellHolder.isCurrentShellRoot());
         mShellHolder.addOnShellChangedListener(this);
     }
 
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014 Yaroslav Mytkalyk
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.docd.purefm.ui.activities;
+
+import android.app.ActionBar;
+import android.os.Bundle;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import com.docd.purefm.R;
+import com.docd.purefm.commandline.CommandMetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+
+/**
+ * Debug screen that shows {@link CommandMetrics} and allows to save them to a file
+ */
+public final class CommandMetricsActivity extends ThemableActivity {
+
+    private static final String DUMP_FILE_PREFIX = "command-metrics-";
+    private static final String DUMP_FILE_EXTENSION = ".txt";
+
+    private TextView mText;
+
+    @Override
+    protected void onCreate(final Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_command_metrics);
+        mText = (TextView) findViewById(android.R.id.text1);
+
+        final ActionBar actionBar = getActionBar();
+        if (actionBar == null) {
+            throw new RuntimeException("Should have ActionBar");
+        }
+        actionBar.setDisplayHomeAsUpEnabled(true);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        refresh();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(final Menu menu) {
+        getMenuInflater().inflate(R.menu.command_metrics, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(final MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.menu_refresh:
+                refresh();
+                return true;
+
+            case R.id.menu_reset:
+                CommandMetrics.reset();
+                refresh();
+                return true;
+
+            case R.id.menu_save_to_file:
+                saveToFile();
+                return true;
+
+            default:
+                return super.onOptionsItemSelected(item);
+        }
+    }
+
+    private void refresh() {
+        final StringWriter writer = new StringWriter();
+        CommandMetrics.dump(writer);
+        mText.setText(writer.toString());
+    }
+
+    private void saveToFile() {
+        File dir = getExternalFilesDir(null);
+        if (dir == null) {
+            dir = getFilesDir();
+        }
+        final File file = new File(dir,
+                DUMP_FILE_PREFIX + System.currentTimeMillis() + DUMP_FILE_EXTENSION);
+        try {
+            CommandMetrics.dump(file);
+            Toast.makeText(this, getString(R.string.command_metrics_saved,
+                    file.getAbsolutePath()), Toast.LENGTH_LONG).show();
+        } catch (IOException e) {
+            e.printStackTrace();
+            Toast.makeText(this, R.string.command_metrics_not_saved, Toast.LENGTH_SHORT).show();
+        }
+    }
+}
@@ -18,6 +18,7 @@ import com.cyanogenmod.filemanager.util.AIDHelper;
 import com.docd.purefm.Environment;
 import com.docd.purefm.Extras;
 import com.docd.purefm.R;
+import com.docd.purefm.commandline.RemountManager;
 import com.docd.purefm.file.CommandLineFile;
 import com.docd.purefm.file.FileFactory;
 import com.docd.purefm.file.GenericFile;
@@ -26,7 +27,6 @@ import com.docd.purefm.settings.Settings;
 import com.docd.purefm.utils.PFMFileUtils;
 import com.docd.purefm.utils.PFMTextUtils;
 import com.docd.purefm.utils.ThemeUtils;
-import com.stericson.RootTools.RootTools;
 
 import android.app.Activity;
 import android.app.AlertDialog;
@@ -339,10 +339,13 @@ public final class FilePropertiesDialog extends DialogFragment {
 
         @Override
         public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
-            this.mModifiedPermissions = new Permissions(
+            final Permissions checked = Permissions.valueOf(
                     this.ur.isChecked(), this.uw.isChecked(), this.ux.isChecked(),
                     this.gr.isChecked(), this.gw.isChecked(), this.gx.isChecked(),
                     this.or.isChecked(), this.ow.isChecked(), this.ox.isChecked());
+            // there are no boxes for set-user-ID, set-group-ID and sticky bits, keep them
+            this.mModifiedPermissions = Permissions.valueOf(checked.toMode() |
+                    (this.mInputPermissions.toMode() & ~0777));
         }
 
         private void disableBoxes() {
@@ -410,16 +413,18 @@ public final class FilePropertiesDialog extends DialogFragment {
             protected Boolean doInBackground(final GenericFile... params) {
                 final String path = params[0].getAbsolutePath();
                 final Settings settings = Settings.getInstance(mContext);
-                final boolean remount = settings.useCommandLine() && settings.isSuEnabled() &&
-                        Environment.needsRemount(path);
-                if (remount) {
-                    RootTools.remount(path, "RW");
+                final RemountManager.Lease lease;
+                if (settings.useCommandLine() && settings.isSuEnabled() &&
+                        Environment.needsRemount(path)) {
+                    lease = RemountManager.getInstance().acquire(path);
+                } else {
+                    lease = null;
                 }
                 try {
                     return params[0].applyPermissions(this.mTarget);
                 } finally {
-                    if (remount) {
-                        RootTools.remount(path, "RO");
+                    if (lease != null) {
+                        lease.release();
                     }
                 }
             }
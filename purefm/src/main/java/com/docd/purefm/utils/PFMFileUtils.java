@@ -34,7 +34,10 @@ import com.docd.purefm.commandline.CommandLine;
 import com.docd.purefm.commandline.CommandMove;
 import com.docd.purefm.commandline.CommandRemove;
 import com.docd.purefm.commandline.CommandStat;
+import com.docd.purefm.commandline.ProbeCache;
 import com.docd.purefm.commandline.ShellHolder;
+import com.docd.purefm.file.CanonicalPaths;
+import com.docd.purefm.file.DirectorySizeCache;
 import com.docd.purefm.file.GenericFile;
 
 import android.content.Context;
@@ -114,7 +117,7 @@ public final class PFMFileUtils {
     @NonNull
     public static String fullPath(@NonNull final File file) {
         try {
-            return file.getCanonicalPath();
+            return CanonicalPaths.resolve(file);
         } catch (IOException e) {
             return file.getAbsolutePath();
         }
@@ -156,9 +159,18 @@ public final class PFMFileUtils {
             return null;
         }
 
+        final String cached = ProbeCache.FILE_SYSTEMS.get(path);
+        if (cached != null) {
+            return cached;
+        }
+
         final List<String> fsTypeResult = CommandLine.executeForResult(new CommandStat(path));
-        return fsTypeResult == null || fsTypeResult.isEmpty() ?
-                null : fsTypeResult.get(0);
+        if (fsTypeResult == null || fsTypeResult.isEmpty()) {
+            return null;
+        }
+        final String fileSystem = fsTypeResult.get(0);
+        ProbeCache.FILE_SYSTEMS.put(path, fileSystem);
+        return fileSystem;
     }
     
     public static void openFileInExternalApp(@NonNull final Context context,
@@ -191,6 +203,7 @@ public final class PFMFileUtils {
                 throw new FileExistsException("Target exists");
             }
             final boolean result = CommandLine.execute(new CommandMove(source, target));
+            ProbeCache.invalidatePath(source.getAbsolutePath());
             if (!result) {
                 throw new IOException("Move failed");
             }
@@ -239,6 +252,7 @@ public final class PFMFileUtils {
                 throw new FileExistsException("Target exists");
             }
             final boolean result = CommandLine.execute(new CommandMove(source, target));
+            ProbeCache.invalidatePath(source.getAbsolutePath());
             if (!result) {
                 throw new IOException("Move failed");
             }
@@ -270,6 +284,7 @@ public final class PFMFileUtils {
                 }
             }
             final boolean result = CommandLine.execute(new CommandMove(source, target));
+            ProbeCache.invalidatePath(source.getAbsolutePath());
             if (!result) {
                 throw new IOException("Moving failed");
             }
@@ -337,6 +352,7 @@ public final class PFMFileUtils {
                 throw new FileNotFoundException("File does not exist: " + file);
             }
             final boolean result = CommandLine.execute(new CommandRemove(file.toFile()));
+            ProbeCache.invalidatePath(file.getAbsolutePath());
             if (!result) {
                 throw new IOException("Removing failed");
             }
@@ -437,12 +453,41 @@ public final class PFMFileUtils {
         }
     }
     
+    /**
+     * Compares directories by sizes cached in {@link DirectorySizeCache}. Directories with
+     * unknown sizes follow the ones with known sizes. Directories of the same size,
+     * or with unknown sizes, are compared by name
+     *
+     * @param a the first directory
+     * @param b the second directory
+     * @param descending whether larger directories go first
+     * @return result of comparison
+     */
+    private static int compareDirectorySizes(@NonNull final GenericFile a,
+                                             @NonNull final GenericFile b,
+                                             final boolean descending) {
+        final DirectorySizeCache cache = DirectorySizeCache.getInstance();
+        final long sizeA = cache.peek(a.getAbsolutePath());
+        final long sizeB = cache.peek(b.getAbsolutePath());
+        if (sizeA != sizeB) {
+            if (sizeA == -1L) {
+                return 1;
+            }
+            if (sizeB == -1L) {
+                return -1;
+            }
+            final int result = sizeA < sizeB ? -1 : 1;
+            return descending ? -result : result;
+        }
+        return a.getName().compareTo(b.getName());
+    }
+
     public static final class SizeComparatorAsc implements Comparator<GenericFile> {
         
         @Override
         public int compare(final GenericFile a, final GenericFile b) {
             if (a.isDirectory() && b.isDirectory()) {
-                return a.getName().compareTo(b.getName());
+                return compareDirectorySizes(a, b, false);
             }
             
             if (a.isDirectory()) {
@@ -473,7 +518,7 @@ public final class PFMFileUtils {
         @Override
         public int compare(final GenericFile a, final GenericFile b) {
             if (a.isDirectory() && b.isDirectory()) {
-                return a.getName().compareTo(b.getName());
+                return compareDirectorySizes(a, b, true);
             }
             
             if (a.isDirectory()) {